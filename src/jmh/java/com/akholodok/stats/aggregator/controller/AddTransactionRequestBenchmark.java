@@ -0,0 +1,100 @@
+package com.akholodok.stats.aggregator.controller;
+
+import com.akholodok.stats.aggregator.model.BatchResult;
+import com.akholodok.stats.aggregator.service.BucketStatsAggregator;
+import com.akholodok.stats.aggregator.service.TimeSource;
+import com.akholodok.stats.aggregator.service.TransactionBatchIngester;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+
+/**
+ * Cost of turning a request body into transactions: JSON binding and bean validation
+ * of a single {@link AddTransactionRequest}, as done for {@code POST /transactions},
+ * and streaming of a batch, as done for {@code POST /transactions/batch}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AddTransactionRequestBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private ObjectMapper mapper;
+    private Validator validator;
+    private TransactionBatchIngester ingester;
+    private byte[] body;
+    private byte[] keyedBody;
+    private byte[] batchBody;
+    private AddTransactionRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mapper = new ObjectMapper();
+        validator = Validation.buildDefaultValidatorFactory().getValidator();
+
+        Instant now = Instant.now();
+        TimeSource timeSource = () -> now;
+        ingester = new TransactionBatchIngester(new BucketStatsAggregator(60, timeSource), timeSource);
+
+        request = new AddTransactionRequest(12.3, now.toEpochMilli());
+        body = mapper.writeValueAsBytes(request);
+        keyedBody = mapper.writeValueAsBytes(new AddTransactionRequest(12.3, now.toEpochMilli(), "merchant-42"));
+        StringBuilder batch = new StringBuilder();
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            batch.append(new String(
+                mapper.writeValueAsBytes(new AddTransactionRequest((double) i, now.toEpochMilli() - i)),
+                StandardCharsets.UTF_8)).append('\n');
+        }
+        batchBody = batch.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public AddTransactionRequest bind() throws IOException {
+        return mapper.readValue(body, AddTransactionRequest.class);
+    }
+
+    @Benchmark
+    public AddTransactionRequest bindKeyed() throws IOException {
+        return mapper.readValue(keyedBody, AddTransactionRequest.class);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<AddTransactionRequest>> validate() {
+        return validator.validate(request);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<AddTransactionRequest>> bindAndValidate() throws IOException {
+        return validator.validate(mapper.readValue(body, AddTransactionRequest.class));
+    }
+
+    // per batch of BATCH_SIZE transactions, compare with BATCH_SIZE times bindAndValidate
+    @Benchmark
+    public BatchResult readBatch() throws IOException {
+        return TransactionBatchReader.read(new ByteArrayInputStream(batchBody), ingester);
+    }
+}
@@ -0,0 +1,200 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link StatsAggregator#add(Instant, double)} and {@link StatsAggregator#getStats()}
+ * of every implementation for windows of 60 to 86400 one-second buckets,
+ * at 1, 4, 16 and 64 threads and under mixed read/write load.
+ * <p>
+ * Clock is frozen for a trial and values are spread uniformly over the window,
+ * so every bucket is in use and results do not depend on when the clock ticks.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatsAggregatorBenchmark {
+
+    @Param({"bucket", "striped", "primitive", "off-heap", "incremental", "sketching", "segment-tree", "fixed-point",
+        "shared-memory"})
+    public String type;
+
+    // one-second buckets, so the number of buckets is the window duration in seconds
+    @Param({"60", "3600", "86400"})
+    public int buckets;
+
+    private StatsAggregator aggregator;
+    private Instant now;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        now = Instant.now();
+        TimeSource timeSource = () -> now;
+        aggregator = create(type, buckets, timeSource);
+        // fill every bucket, so getStats reduces the whole window
+        for (int i = 0; i < buckets; ++i) {
+            aggregator.add(now.minusSeconds(i), i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (aggregator instanceof AutoCloseable) {
+            ((AutoCloseable) aggregator).close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean add1Thread() {
+        return add();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean add4Threads() {
+        return add();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean add16Threads() {
+        return add();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean add64Threads() {
+        return add();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Optional<Stats> getStats1Thread() {
+        return aggregator.getStats();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Optional<Stats> getStats4Threads() {
+        return aggregator.getStats();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Optional<Stats> getStats16Threads() {
+        return aggregator.getStats();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Optional<Stats> getStats64Threads() {
+        return aggregator.getStats();
+    }
+
+    // ingest-heavy load: 15 writers per reader
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(15)
+    public boolean writeHeavyAdd() {
+        return add();
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(1)
+    public Optional<Stats> writeHeavyGetStats() {
+        return aggregator.getStats();
+    }
+
+    // dashboard-heavy load: one writer per reader
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(2)
+    public boolean balancedAdd() {
+        return add();
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(2)
+    public Optional<Stats> balancedGetStats() {
+        return aggregator.getStats();
+    }
+
+    private boolean add() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Instant timestamp = now.minusMillis(random.nextLong(buckets * 1000L));
+        return aggregator.add(timestamp, random.nextDouble(1000.0));
+    }
+
+    private static StatsAggregator create(String type, int duration, TimeSource timeSource) {
+        Duration bucketWidth = Duration.ofSeconds(1);
+        switch (type) {
+            case "bucket":
+                return new BucketStatsAggregator(duration, bucketWidth, timeSource);
+            case "striped":
+                return new StripedStatsAggregator(
+                    duration, bucketWidth, Runtime.getRuntime().availableProcessors(), timeSource);
+            case "primitive":
+                return new PrimitiveBucketStatsAggregator(duration, bucketWidth, timeSource);
+            case "off-heap":
+                return new OffHeapBucketStatsAggregator(duration, bucketWidth, timeSource);
+            case "incremental":
+                IncrementalStatsAggregator aggregator = new IncrementalStatsAggregator(duration, bucketWidth, timeSource);
+                aggregator.start();
+                return aggregator;
+            case "sketching":
+                // quantile sketches of one minute, as a sketch per second would not fit a day into memory
+                return new SketchingStatsAggregator(
+                    new BucketStatsAggregator(duration, bucketWidth, timeSource), Duration.ofMinutes(1), timeSource);
+            case "fixed-point":
+                return new FixedPointBucketStatsAggregator(
+                    duration, bucketWidth, FixedPointBucketStatsAggregator.DEFAULT_SCALE, timeSource);
+            case "segment-tree":
+                return new SegmentTreeStatsAggregator(duration, bucketWidth, timeSource);
+            case "shared-memory":
+                try {
+                    Path file = Files.createTempFile("stats-aggregator-benchmark", ".shm");
+                    Files.delete(file);
+                    file.toFile().deleteOnExit();
+                    return new SharedMemoryBucketStatsAggregator(duration, bucketWidth, file, timeSource);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown stats aggregator type: " + type);
+        }
+    }
+}
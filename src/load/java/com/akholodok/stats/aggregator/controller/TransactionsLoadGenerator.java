@@ -0,0 +1,402 @@
+package com.akholodok.stats.aggregator.controller;
+
+import com.akholodok.stats.aggregator.StatsAggregatorApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives {@code POST /transactions} and {@code GET /transactions} of an application started
+ * on a random port at a fixed open-loop rate and writes a JSON latency report.
+ * <p>
+ * Requests are scheduled at intended start times {@code start + i / rate} regardless of
+ * how fast responses come back, and handed to a pool of connection threads. Latency is
+ * measured from the intended start time, so time a request has waited behind slow ones is
+ * counted and percentiles are corrected for coordinated omission; service time, measured
+ * from the moment request is actually sent, is reported next to it.
+ * <p>
+ * Requests which have not completed within a minute after the last one is scheduled are
+ * not dropped from the report: they are recorded with status {@code timeout} if they have been
+ * sent or {@code unsent} otherwise, with latency up to that moment.
+ * <p>
+ * Options are passed as {@code --name=value} arguments, the other arguments are passed to the
+ * application, e.g. {@code --rate=2000 --duration=30s --stats-aggregator.type=primitive}:
+ * <ul>
+ * <li>{@code rate} (default {@code 1000}) - requests per second</li>
+ * <li>{@code duration} (default {@code 30s}) - measured duration, after {@code warmup}</li>
+ * <li>{@code warmup} (default {@code 5s}) - duration of load which is not measured</li>
+ * <li>{@code get-ratio} (default {@code 0.1}) - share of {@code GET} requests</li>
+ * <li>{@code stale-ratio} (default {@code 0.05}) - share of {@code POST} requests with timestamp before the window</li>
+ * <li>{@code future-ratio} (default {@code 0.05}) - share of {@code POST} requests with timestamp in future</li>
+ * <li>{@code connections} (default {@code 16}) - number of connection threads</li>
+ * <li>{@code seed} (default {@code 42}) - seed of request mix, so runs send the same sequence</li>
+ * <li>{@code report} (default {@code build/reports/load/report.json}) - report file</li>
+ * </ul>
+ */
+public final class TransactionsLoadGenerator {
+
+    private enum Kind {
+        ADD,
+        ADD_STALE,
+        ADD_FUTURE,
+        GET
+    }
+
+    private static final String ERROR = "error";
+    private static final String TIMEOUT = "timeout";
+    private static final String UNSENT = "unsent";
+    private static final Duration DRAIN_TIMEOUT = Duration.ofMinutes(1);
+
+    private final double rate;
+    private final Duration duration;
+    private final Duration warmup;
+    private final double getRatio;
+    private final double staleRatio;
+    private final double futureRatio;
+    private final int connections;
+    private final long seed;
+    private final Path report;
+    private final List<String> applicationArgs;
+
+    private final Map<Kind, Recorder> recorders = new HashMap<>();
+    private final Set<Request> inFlight = ConcurrentHashMap.newKeySet();
+    // set once requests are no longer awaited
+    private volatile long deadline;
+    private volatile boolean stopped;
+
+    private TransactionsLoadGenerator(Map<String, String> options, List<String> applicationArgs) {
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+        this.duration = parseDuration(options.getOrDefault("duration", "30s"));
+        this.warmup = parseDuration(options.getOrDefault("warmup", "5s"));
+        this.getRatio = Double.parseDouble(options.getOrDefault("get-ratio", "0.1"));
+        this.staleRatio = Double.parseDouble(options.getOrDefault("stale-ratio", "0.05"));
+        this.futureRatio = Double.parseDouble(options.getOrDefault("future-ratio", "0.05"));
+        this.connections = Integer.parseInt(options.getOrDefault("connections", "16"));
+        this.seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        this.report = Paths.get(options.getOrDefault("report", "build/reports/load/report.json"));
+        this.applicationArgs = applicationArgs;
+        if (rate <= 0 || connections <= 0 || getRatio + staleRatio + futureRatio > 1) {
+            throw new IllegalArgumentException("Rate and connections should be positive and ratios should not exceed 1");
+        }
+        for (Kind kind : Kind.values()) {
+            recorders.put(kind, new Recorder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        List<String> applicationArgs = new ArrayList<>();
+        List<String> names = Arrays.asList(
+            "rate", "duration", "warmup", "get-ratio", "stale-ratio", "future-ratio", "connections", "seed", "report");
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            String name = arg.startsWith("--") && separator > 0 ? arg.substring(2, separator) : null;
+            if (names.contains(name)) {
+                options.put(name, arg.substring(separator + 1));
+            } else {
+                applicationArgs.add(arg);
+            }
+        }
+        new TransactionsLoadGenerator(options, applicationArgs).run();
+    }
+
+    private void run() throws Exception {
+        // connections are kept alive and reused by connection threads
+        System.setProperty("http.maxConnections", String.valueOf(connections));
+
+        List<String> args = new ArrayList<>(applicationArgs);
+        args.add("--server.port=0");
+        try (ConfigurableApplicationContext context =
+                 SpringApplication.run(StatsAggregatorApplication.class, args.toArray(new String[0]))) {
+            Environment environment = context.getEnvironment();
+            URL url = new URL("http://127.0.0.1:" + environment.getProperty("local.server.port")
+                + TransactionsRestController.PATH);
+            long windowMillis = TimeUnit.SECONDS.toMillis(
+                environment.getProperty("stats-aggregator.bucket.seconds", Long.class, 60L));
+
+            long elapsedNanos = drive(url, windowMillis);
+            writeReport(elapsedNanos);
+        }
+    }
+
+    // sends requests at intended times, returns measured duration
+    private long drive(URL url, long windowMillis) throws InterruptedException {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(connections, runnable -> {
+            Thread thread = new Thread(runnable, "stats-aggregator-load-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Random random = new Random(seed);
+        double periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long warmupRequests = (long) (warmup.toNanos() / periodNanos);
+        long totalRequests = warmupRequests + (long) (duration.toNanos() / periodNanos);
+
+        long start = System.nanoTime();
+        for (long i = 0; i < totalRequests; ++i) {
+            long intended = start + (long) (i * periodNanos);
+            long delay;
+            while ((delay = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            Kind kind = nextKind(random);
+            double amount = Math.round(random.nextDouble() * 100_000) / 100.0;
+            double offset = random.nextDouble();
+            boolean measured = i >= warmupRequests;
+            executor.execute(new Request(url, kind, amount, offset, windowMillis, intended, measured));
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(DRAIN_TIMEOUT.toNanos(), TimeUnit.NANOSECONDS)) {
+            // requests which are not complete by now are recorded with latency up to now, instead of being lost
+            deadline = System.nanoTime();
+            stopped = true;
+            inFlight.forEach(request -> request.finish(TIMEOUT, deadline));
+            for (Runnable request : executor.shutdownNow()) {
+                ((Request) request).finish(UNSENT, deadline);
+            }
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        return System.nanoTime() - start - (long) (warmupRequests * periodNanos);
+    }
+
+    private Kind nextKind(Random random) {
+        double value = random.nextDouble();
+        if (value < getRatio) {
+            return Kind.GET;
+        } else if (value < getRatio + staleRatio) {
+            return Kind.ADD_STALE;
+        } else if (value < getRatio + staleRatio + futureRatio) {
+            return Kind.ADD_FUTURE;
+        }
+        return Kind.ADD;
+    }
+
+    private final class Request implements Runnable {
+
+        private static final long NOT_SENT = Long.MIN_VALUE;
+
+        private final URL url;
+        private final Kind kind;
+        private final double amount;
+        private final double offset;
+        private final long windowMillis;
+        private final long intended;
+        private final boolean measured;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile long sent = NOT_SENT;
+
+        Request(URL url, Kind kind, double amount, double offset, long windowMillis, long intended, boolean measured) {
+            this.url = url;
+            this.kind = kind;
+            this.amount = amount;
+            this.offset = offset;
+            this.windowMillis = windowMillis;
+            this.intended = intended;
+            this.measured = measured;
+        }
+
+        @Override
+        public void run() {
+            // registered before stop is checked, so request is either seen in flight at deadline or not sent
+            inFlight.add(this);
+            try {
+                if (stopped) {
+                    finish(UNSENT, deadline);
+                    return;
+                }
+                sent = System.nanoTime();
+                String status = send(url, kind, amount, offset, windowMillis);
+                finish(status, System.nanoTime());
+            } finally {
+                inFlight.remove(this);
+            }
+        }
+
+        // records request once, either on response or at deadline, whichever comes first
+        void finish(String status, long completed) {
+            if (measured && finished.compareAndSet(false, true)) {
+                long sentNanos = sent;
+                if (sentNanos == NOT_SENT) {
+                    recorders.get(kind).record(completed - intended, -1, UNSENT);
+                } else {
+                    recorders.get(kind).record(completed - intended, completed - sentNanos, status);
+                }
+            }
+        }
+    }
+
+    private static String send(URL url, Kind kind, double amount, double offset, long windowMillis) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            if (kind != Kind.GET) {
+                long now = System.currentTimeMillis();
+                long timestamp = kind == Kind.ADD_STALE
+                    ? now - windowMillis - 1 - (long) (offset * windowMillis)
+                    : kind == Kind.ADD_FUTURE
+                    ? now + 1000 + (long) (offset * 10_000)
+                    // within the last 90% of the window, so it is not obsolete by the time it arrives
+                    : now - (long) (offset * windowMillis * 0.9);
+                byte[] body = String.format(Locale.ROOT, "{\"amount\":%.2f,\"timestamp\":%d}", amount, timestamp)
+                    .getBytes(StandardCharsets.UTF_8);
+                connection.setRequestMethod("POST");
+                connection.setRequestProperty("Content-Type", "application/json");
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(body.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body);
+                }
+            }
+            int code = connection.getResponseCode();
+            // body is read till the end, so that connection is reused
+            try (InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null) {
+                    byte[] buffer = new byte[1024];
+                    while (in.read(buffer) >= 0) {
+                        // discarded
+                    }
+                }
+            }
+            return String.valueOf(code);
+        } catch (IOException e) {
+            return ERROR;
+        }
+    }
+
+    private void writeReport(long elapsedNanos) throws IOException {
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        ObjectNode root = mapper.createObjectNode();
+
+        ObjectNode config = root.putObject("config");
+        config.put("rate", rate);
+        config.put("durationSeconds", duration.toMillis() / 1000.0);
+        config.put("warmupSeconds", warmup.toMillis() / 1000.0);
+        config.put("getRatio", getRatio);
+        config.put("staleRatio", staleRatio);
+        config.put("futureRatio", futureRatio);
+        config.put("connections", connections);
+        config.put("seed", seed);
+        applicationArgs.forEach(config.putArray("applicationArgs")::add);
+
+        Recorder all = new Recorder();
+        recorders.values().forEach(all::addAll);
+        double elapsedSeconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        root.put("elapsedSeconds", elapsedSeconds);
+        root.put("throughput", all.completed() / elapsedSeconds);
+        all.report(root.putObject("all"));
+        ObjectNode requests = root.putObject("requests");
+        for (Kind kind : Kind.values()) {
+            recorders.get(kind).report(requests.putObject(kind.name().toLowerCase(Locale.ROOT).replace('_', '-')));
+        }
+
+        Path parent = report.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        mapper.writeValue(report.toFile(), root);
+        System.out.println(mapper.writeValueAsString(root));
+        System.out.println("Report is written to " + report.toAbsolutePath());
+    }
+
+    private static Duration parseDuration(String duration) {
+        return DurationStyle.detectAndParse(duration);
+    }
+
+    /**
+     * Keeps every latency, so percentiles are exact and not limited by histogram buckets.
+     * Requests which have not been sent have latency, but no service time.
+     */
+    private static final class Recorder {
+
+        private long[] latencies = new long[1024];
+        private long[] serviceTimes = new long[1024];
+        private int size;
+        private int sentSize;
+        private final Map<String, Long> statuses = new TreeMap<>();
+
+        // negative service time for request which has not been sent
+        synchronized void record(long latencyNanos, long serviceNanos, String status) {
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, size * 2);
+                serviceTimes = Arrays.copyOf(serviceTimes, size * 2);
+            }
+            latencies[size++] = latencyNanos;
+            if (serviceNanos >= 0) {
+                serviceTimes[sentSize++] = serviceNanos;
+            }
+            if (status != null) {
+                statuses.merge(status, 1L, Long::sum);
+            }
+        }
+
+        synchronized void addAll(Recorder other) {
+            synchronized (other) {
+                for (int i = 0; i < other.size; ++i) {
+                    record(other.latencies[i], i < other.sentSize ? other.serviceTimes[i] : -1, null);
+                }
+                other.statuses.forEach((status, count) -> statuses.merge(status, count, Long::sum));
+            }
+        }
+
+        // requests which have got a response or failed before deadline
+        synchronized long completed() {
+            return size - statuses.getOrDefault(TIMEOUT, 0L) - statuses.getOrDefault(UNSENT, 0L);
+        }
+
+        synchronized void report(ObjectNode node) {
+            node.put("count", size);
+            ObjectNode statusNode = node.putObject("statuses");
+            statuses.forEach(statusNode::put);
+            percentiles(node.putObject("latencyMillis"), latencies, size);
+            percentiles(node.putObject("serviceTimeMillis"), serviceTimes, sentSize);
+        }
+
+        private static void percentiles(ObjectNode node, long[] values, int size) {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            node.put("p50", percentile(sorted, 0.5));
+            node.put("p99", percentile(sorted, 0.99));
+            node.put("p999", percentile(sorted, 0.999));
+            node.put("max", percentile(sorted, 1.0));
+        }
+
+        // nearest-rank percentile
+        private static double percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0.0;
+            }
+            int rank = (int) Math.ceil(quantile * sorted.length);
+            return sorted[Math.max(rank, 1) - 1] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
@@ -1,20 +1,300 @@
 package com.akholodok.stats.aggregator.conf;
 
+import com.akholodok.stats.aggregator.controller.BinaryIngestListener;
+import com.akholodok.stats.aggregator.controller.RequestMetrics;
+import com.akholodok.stats.aggregator.controller.StatsStreamPublisher;
+import com.akholodok.stats.aggregator.controller.TransactionsRestController;
+import com.akholodok.stats.aggregator.model.Stats;
+import com.akholodok.stats.aggregator.service.ArchivingStatsAggregator;
+import com.akholodok.stats.aggregator.service.BucketArchive;
 import com.akholodok.stats.aggregator.service.BucketStatsAggregator;
+import com.akholodok.stats.aggregator.service.CachingStatsAggregator;
+import com.akholodok.stats.aggregator.service.CheckpointingStatsAggregator;
+import com.akholodok.stats.aggregator.service.CoordinatorStatsAggregator;
+import com.akholodok.stats.aggregator.service.ExportingStatsAggregator;
+import com.akholodok.stats.aggregator.service.FixedPointBucketStatsAggregator;
+import com.akholodok.stats.aggregator.service.IncrementalStatsAggregator;
+import com.akholodok.stats.aggregator.service.KeyedBucketStatsAggregator;
+import com.akholodok.stats.aggregator.service.KeyedStatsAggregator;
+import com.akholodok.stats.aggregator.service.OffHeapBucketStatsAggregator;
+import com.akholodok.stats.aggregator.service.PipelinedStatsAggregator;
+import com.akholodok.stats.aggregator.service.PrimitiveBucketStatsAggregator;
+import com.akholodok.stats.aggregator.service.RollupStatsAggregator;
+import com.akholodok.stats.aggregator.service.SegmentTreeStatsAggregator;
+import com.akholodok.stats.aggregator.service.SharedMemoryBucketStatsAggregator;
+import com.akholodok.stats.aggregator.service.SketchingStatsAggregator;
+import com.akholodok.stats.aggregator.service.SpaceSavingTopKeysAggregator;
 import com.akholodok.stats.aggregator.service.StatsAggregator;
+import com.akholodok.stats.aggregator.service.StripedStatsAggregator;
 import com.akholodok.stats.aggregator.service.TimeSource;
+import com.akholodok.stats.aggregator.service.TopKeysAggregator;
+import com.akholodok.stats.aggregator.service.TransactionBatchIngester;
+import com.akholodok.stats.aggregator.service.WriteAheadLogStatsAggregator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
 @Configuration
 @ComponentScan(basePackages = "com.akholodok.stats.aggregator")
 public class AppConfiguration {
 
     @Bean
-    public StatsAggregator bucketStatsAggregator(@Value("${stats-aggregator.bucket.seconds:60}") int seconds,
-                                                 TimeSource timeSource) {
-        return new BucketStatsAggregator(seconds, timeSource);
+    public StatsAggregator statsAggregator(@Value("${stats-aggregator.type:bucket}") String type,
+                                           @Value("${stats-aggregator.bucket.seconds:60}") int seconds,
+                                           @Value("${stats-aggregator.bucket.width:1s}") String width,
+                                           @Value("${stats-aggregator.bucket.stripes:1}") int stripes,
+                                           @Value("${stats-aggregator.rollup.resolutions:1s:60,1m:60,1h:24}") String resolutions,
+                                           @Value("${stats-aggregator.fixed-point.scale:2}") int scale,
+                                           @Value("${stats-aggregator.shared-memory.file:/dev/shm/stats-aggregator}") String sharedMemoryFile,
+                                           @Value("${stats-aggregator.quantiles.enabled:false}") boolean quantiles,
+                                           @Value("${stats-aggregator.quantiles.width:${stats-aggregator.bucket.width:1s}}") String quantilesWidth,
+                                           @Value("${stats-aggregator.pipeline.enabled:false}") boolean pipeline,
+                                           @Value("${stats-aggregator.pipeline.capacity:65536}") int pipelineCapacity,
+                                           @Value("${stats-aggregator.pipeline.backpressure:block}") String backpressure,
+                                           @Value("${stats-aggregator.wal.enabled:false}") boolean wal,
+                                           @Value("${stats-aggregator.wal.directory:wal}") String walDirectory,
+                                           @Value("${stats-aggregator.wal.segment-records:262144}") int walSegmentRecords,
+                                           @Value("${stats-aggregator.wal.fsync:periodic}") String walFsync,
+                                           @Value("${stats-aggregator.wal.fsync-interval:100ms}") String walFsyncInterval,
+                                           @Value("${stats-aggregator.checkpoint.enabled:false}") boolean checkpoint,
+                                           @Value("${stats-aggregator.checkpoint.file:stats-aggregator.checkpoint}") String checkpointFile,
+                                           @Value("${stats-aggregator.checkpoint.interval:5s}") String checkpointInterval,
+                                           @Value("${stats-aggregator.coordinator.peers:}") String peers,
+                                           @Value("${stats-aggregator.coordinator.staleness:1s}") String staleness,
+                                           @Value("${stats-aggregator.coordinator.timeout:500ms}") String peerTimeout,
+                                           @Value("${stats-aggregator.archive.enabled:false}") boolean archive,
+                                           @Value("${stats-aggregator.archive.directory:archive}") String archiveDirectory,
+                                           @Value("${stats-aggregator.archive.rollups:1m,1h}") String archiveRollups,
+                                           @Value("${stats-aggregator.archive.interval:1s}") String archiveInterval,
+                                           @Value("${stats-aggregator.cache.enabled:false}") boolean cache,
+                                           @Value("${stats-aggregator.cache.staleness:100ms}") String cacheStaleness,
+                                           ObjectMapper objectMapper,
+                                           TimeSource timeSource) {
+        Duration bucketWidth = DurationStyle.detectAndParse(width);
+        Supplier<StatsAggregator> factory =
+            statsAggregatorFactory(type, seconds, bucketWidth, resolutions, scale, sharedMemoryFile, timeSource);
+        StatsAggregator statsAggregator;
+        if (archive) {
+            if (!"bucket".equals(type) || stripes > 1) {
+                throw new IllegalArgumentException("Archive requires 'bucket' stats aggregator without stripes");
+            }
+            statsAggregator = new ArchivingStatsAggregator(
+                seconds,
+                bucketWidth,
+                new BucketArchive(Paths.get(archiveDirectory), bucketWidth, parseDurations(archiveRollups)),
+                DurationStyle.detectAndParse(archiveInterval),
+                timeSource);
+        } else {
+            if ("shared-memory".equals(type) && stripes > 1) {
+                // stripes would map the same ring and count every transaction several times
+                throw new IllegalArgumentException("Shared memory stats aggregator can not be striped");
+            }
+            statsAggregator = stripes > 1
+                ? new StripedStatsAggregator(stripes, factory)
+                : factory.get();
+        }
+        if (checkpoint) {
+            if (!(statsAggregator instanceof ExportingStatsAggregator)) {
+                throw new IllegalArgumentException("Checkpoints require 'bucket' stats aggregator without stripes");
+            }
+            if (wal) {
+                // both would restore the same transactions
+                throw new IllegalArgumentException("Checkpoints and write-ahead log can not be enabled together");
+            }
+            statsAggregator = new CheckpointingStatsAggregator(
+                (ExportingStatsAggregator) statsAggregator,
+                Paths.get(checkpointFile),
+                DurationStyle.detectAndParse(checkpointInterval));
+        }
+        if (!peers.trim().isEmpty()) {
+            if (!(statsAggregator instanceof ExportingStatsAggregator)) {
+                throw new IllegalArgumentException("Coordinator requires 'bucket' stats aggregator without stripes");
+            }
+            statsAggregator = new CoordinatorStatsAggregator(
+                (ExportingStatsAggregator) statsAggregator,
+                parsePeers(peers),
+                DurationStyle.detectAndParse(staleness),
+                DurationStyle.detectAndParse(peerTimeout),
+                timeSource);
+        }
+        if (wal) {
+            statsAggregator = new WriteAheadLogStatsAggregator(
+                statsAggregator,
+                Paths.get(walDirectory),
+                walSegmentRecords,
+                WriteAheadLogStatsAggregator.FsyncPolicy.valueOf(walFsync.toUpperCase(Locale.ROOT)),
+                DurationStyle.detectAndParse(walFsyncInterval),
+                timeSource);
+        }
+        if (pipeline) {
+            statsAggregator = new PipelinedStatsAggregator(
+                statsAggregator,
+                bucketWidth,
+                pipelineCapacity,
+                PipelinedStatsAggregator.Backpressure.valueOf(
+                    backpressure.toUpperCase(Locale.ROOT).replace('-', '_')),
+                timeSource);
+        }
+        if (quantiles) {
+            statsAggregator = new SketchingStatsAggregator(
+                statsAggregator, DurationStyle.detectAndParse(quantilesWidth), timeSource);
+        }
+        // outermost, so every accepted value changes version of cached stats
+        return cache
+            ? CachingStatsAggregator.of(
+                statsAggregator,
+                stats -> encode(objectMapper, stats),
+                bucketWidth,
+                DurationStyle.detectAndParse(cacheStaleness),
+                timeSource)
+            : statsAggregator;
+    }
+
+    private static byte[] encode(ObjectMapper objectMapper, Stats stats) {
+        try {
+            return objectMapper.writeValueAsBytes(stats);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Bean
+    public KeyedStatsAggregator keyedStatsAggregator(@Value("${stats-aggregator.bucket.seconds:60}") int seconds,
+                                                     @Value("${stats-aggregator.bucket.width:1s}") String width,
+                                                     @Value("${stats-aggregator.keyed.segments:16}") int segments,
+                                                     TimeSource timeSource) {
+        return new KeyedBucketStatsAggregator(seconds, DurationStyle.detectAndParse(width), segments, timeSource);
+    }
+
+    @Bean
+    public TopKeysAggregator topKeysAggregator(@Value("${stats-aggregator.bucket.seconds:60}") int seconds,
+                                               @Value("${stats-aggregator.bucket.width:1s}") String width,
+                                               @Value("${stats-aggregator.top.capacity:1000}") int capacity,
+                                               TimeSource timeSource) {
+        return new SpaceSavingTopKeysAggregator(seconds, DurationStyle.detectAndParse(width), capacity, timeSource);
+    }
+
+    @Bean
+    public TransactionBatchIngester transactionBatchIngester(StatsAggregator statsAggregator,
+                                                             KeyedStatsAggregator keyedStatsAggregator,
+                                                             TopKeysAggregator topKeysAggregator,
+                                                             TimeSource timeSource) {
+        return new TransactionBatchIngester(statsAggregator, keyedStatsAggregator, topKeysAggregator, timeSource);
+    }
+
+    @Bean
+    public RequestMetrics requestMetrics() {
+        return new RequestMetrics();
+    }
+
+    @Bean
+    public StatsStreamPublisher statsStreamPublisher(StatsAggregator statsAggregator,
+                                                     ObjectMapper objectMapper,
+                                                     @Value("${stats-aggregator.stream.interval:${stats-aggregator.bucket.width:1s}}") String interval,
+                                                     @Value("${stats-aggregator.stream.changes-only:true}") boolean changesOnly,
+                                                     @Value("${stats-aggregator.stream.max-skipped:10}") int maxSkipped,
+                                                     @Value("${stats-aggregator.stream.senders:2}") int senders) {
+        return new StatsStreamPublisher(
+            statsAggregator, objectMapper, DurationStyle.detectAndParse(interval), changesOnly, maxSkipped, senders);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "stats-aggregator.binary.enabled", havingValue = "true")
+    public BinaryIngestListener binaryIngestListener(StatsAggregator statsAggregator,
+                                                     @Value("${stats-aggregator.binary.mode:tcp}") String mode,
+                                                     @Value("${stats-aggregator.binary.host:0.0.0.0}") String host,
+                                                     @Value("${stats-aggregator.binary.port:9090}") int port,
+                                                     @Value("${stats-aggregator.binary.ack-every:1000}") int ackEvery) {
+        return new BinaryIngestListener(
+            statsAggregator,
+            BinaryIngestListener.Mode.valueOf(mode.toUpperCase(Locale.ROOT)),
+            new InetSocketAddress(host, port),
+            ackEvery);
+    }
+
+    private static Supplier<StatsAggregator> statsAggregatorFactory(String type,
+                                                                    int seconds,
+                                                                    Duration bucketWidth,
+                                                                    String resolutions,
+                                                                    int scale,
+                                                                    String sharedMemoryFile,
+                                                                    TimeSource timeSource) {
+        switch (type) {
+            case "bucket":
+                return () -> new BucketStatsAggregator(seconds, bucketWidth, timeSource);
+            case "primitive":
+                return () -> new PrimitiveBucketStatsAggregator(seconds, bucketWidth, timeSource);
+            case "off-heap":
+                return () -> new OffHeapBucketStatsAggregator(seconds, bucketWidth, timeSource);
+            case "incremental":
+                return () -> {
+                    IncrementalStatsAggregator aggregator =
+                        new IncrementalStatsAggregator(seconds, bucketWidth, timeSource);
+                    aggregator.start();
+                    return aggregator;
+                };
+            case "rollup":
+                return () -> new RollupStatsAggregator(parseResolutions(resolutions), timeSource);
+            case "fixed-point":
+                return () -> new FixedPointBucketStatsAggregator(seconds, bucketWidth, scale, timeSource);
+            case "segment-tree":
+                return () -> new SegmentTreeStatsAggregator(seconds, bucketWidth, timeSource);
+            case "shared-memory":
+                return () -> new SharedMemoryBucketStatsAggregator(
+                    seconds, bucketWidth, Paths.get(sharedMemoryFile), timeSource);
+            default:
+                throw new IllegalArgumentException("Unknown stats aggregator type: " + type);
+        }
+    }
+
+    // parses comma separated list of durations, e.g. '1m,1h'
+    private static List<Duration> parseDurations(String durations) {
+        return Arrays.stream(durations.split(","))
+            .map(String::trim)
+            .filter(duration -> !duration.isEmpty())
+            .map(DurationStyle::detectAndParse)
+            .collect(Collectors.toList());
+    }
+
+    // parses comma separated list of peer base URLs, e.g. 'http://host1:8080,http://host2:8080'
+    private static List<URI> parsePeers(String peers) {
+        return Arrays.stream(peers.split(","))
+            .map(String::trim)
+            .filter(peer -> !peer.isEmpty())
+            .map(peer -> URI.create(peer.replaceAll("/+$", "")
+                + TransactionsRestController.PATH + TransactionsRestController.BUCKETS_PATH))
+            .collect(Collectors.toList());
+    }
+
+    // parses comma separated list of '<bucket width>:<buckets count>' pairs, e.g. '1s:60,1m:60'
+    private static List<RollupStatsAggregator.Resolution> parseResolutions(String resolutions) {
+        return Arrays.stream(resolutions.split(","))
+            .map(String::trim)
+            .map(resolution -> {
+                String[] parts = resolution.split(":");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Invalid rollup resolution: " + resolution);
+                }
+                return new RollupStatsAggregator.Resolution(
+                    DurationStyle.detectAndParse(parts[0].trim()),
+                    Integer.parseInt(parts[1].trim()));
+            })
+            .collect(Collectors.toList());
     }
 }
@@ -2,11 +2,13 @@ package com.akholodok.stats.aggregator.controller;
 
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
 
 public class AddTransactionRequest {
 
     private Double amount;
     private Long timestamp;
+    private String key;
 
     public AddTransactionRequest() {
 
@@ -17,6 +19,11 @@ public class AddTransactionRequest {
         this.timestamp = timestamp;
     }
 
+    public AddTransactionRequest(Double amount, Long timestamp, String key) {
+        this(amount, timestamp);
+        this.key = key;
+    }
+
     @NotNull(message = "'amount' should be provided")
     public Double getAmount() {
         return amount;
@@ -27,4 +34,9 @@ public class AddTransactionRequest {
     public Long getTimestamp() {
         return timestamp;
     }
+
+    @Size(min = 1, max = 256, message = "'key' should be from 1 to 256 characters long")
+    public String getKey() {
+        return key;
+    }
 }
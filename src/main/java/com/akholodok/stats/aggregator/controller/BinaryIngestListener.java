@@ -0,0 +1,323 @@
+package com.akholodok.stats.aggregator.controller;
+
+import com.akholodok.stats.aggregator.service.PipelineFullException;
+import com.akholodok.stats.aggregator.service.StatsAggregator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Instant;
+import java.util.Iterator;
+
+/**
+ * Binary ingest listener which reads fixed-width frames from UDP datagrams or TCP streams
+ * and adds them straight into {@link StatsAggregator}, bypassing HTTP and JSON.
+ * <p>
+ * Frame is 16 bytes in network (big-endian) byte order:
+ * {@code [epochMillis:long][amount:double]}. UDP datagram could carry several frames,
+ * trailing bytes which do not form a whole frame are dropped.
+ * <p>
+ * In TCP mode listener acknowledges every {@code ackEvery} frames and the end of stream
+ * with a 16-byte {@code [received:long][accepted:long]} frame of cumulative connection counts.
+ * Pending ack which has not been written yet is replaced with the latest counts. Final ack is
+ * written after the pending one without blocking, connection is closed once it is written.
+ * <p>
+ * All channels are served by a single thread with reused buffers, so ingest does not allocate
+ * apart from {@link StatsAggregator#add(Instant, double)} itself.
+ */
+public class BinaryIngestListener implements SmartLifecycle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryIngestListener.class);
+
+    public static final int FRAME_SIZE = 16;
+    public static final int ACK_SIZE = 16;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public enum Mode {
+        UDP,
+        TCP
+    }
+
+    private final StatsAggregator statsAggregator;
+    private final Mode mode;
+    private final InetSocketAddress address;
+    private final int ackEvery;
+
+    private volatile Selector selector;
+    private volatile boolean running;
+    private volatile Thread thread;
+    private volatile InetSocketAddress localAddress;
+
+    public BinaryIngestListener(StatsAggregator statsAggregator,
+                                Mode mode,
+                                InetSocketAddress address,
+                                int ackEvery) {
+        if (ackEvery <= 0) {
+            throw new IllegalArgumentException("Ack interval should be positive: " + ackEvery);
+        }
+        this.statsAggregator = statsAggregator;
+        this.mode = mode;
+        this.address = address;
+        this.ackEvery = ackEvery;
+    }
+
+    private static class Connection {
+
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ByteBuffer ackBuffer = ByteBuffer.allocate(ACK_SIZE);
+        private long received;
+        private long accepted;
+        private long unacknowledged;
+        // latest counts should be written once pending ack is written
+        private boolean ackOutdated;
+        // end of stream has been read, connection is closed once final ack is written
+        private boolean finished;
+
+        Connection() {
+            ackBuffer.flip();
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        try {
+            selector = Selector.open();
+            if (mode == Mode.UDP) {
+                DatagramChannel channel = DatagramChannel.open();
+                // registered first, so that channel is closed along with selector on failure
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(BUFFER_SIZE));
+                channel.bind(address);
+                localAddress = (InetSocketAddress) channel.getLocalAddress();
+            } else {
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_ACCEPT);
+                channel.bind(address);
+                localAddress = (InetSocketAddress) channel.getLocalAddress();
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw new IllegalStateException("Failed to start binary ingest listener on " + address, e);
+        }
+
+        running = true;
+        thread = new Thread(this::run, "stats-aggregator-binary-ingest");
+        thread.setDaemon(true);
+        thread.start();
+        LOG.info("Binary ingest listener ({}) started on {}", mode, localAddress);
+    }
+
+    @Override
+    public synchronized void stop() {
+        Thread thread = this.thread;
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.thread = null;
+        LOG.info("Binary ingest listener ({}) stopped", mode);
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    /**
+     * Get address listener is bound to, useful when it is bound to an ephemeral port.
+     */
+    public InetSocketAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    private void run() {
+        Selector selector = this.selector;
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        handle(key);
+                    } catch (IOException e) {
+                        LOG.debug("Binary ingest channel failed", e);
+                        close(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Binary ingest listener failed", e);
+        } finally {
+            closeChannels();
+        }
+    }
+
+    private void handle(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+            if (channel != null) {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new Connection());
+            }
+        } else if (key.channel() instanceof DatagramChannel) {
+            receive((DatagramChannel) key.channel(), (ByteBuffer) key.attachment());
+        } else {
+            if (key.isWritable()) {
+                writeAck(key);
+            }
+            if (key.isValid() && key.isReadable()) {
+                read(key);
+            }
+        }
+    }
+
+    private void receive(DatagramChannel channel, ByteBuffer buffer) throws IOException {
+        while (true) {
+            buffer.clear();
+            if (channel.receive(buffer) == null) {
+                return;
+            }
+            buffer.flip();
+            while (buffer.remaining() >= FRAME_SIZE) {
+                add(buffer.getLong(), buffer.getDouble());
+            }
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer buffer = connection.readBuffer;
+
+        int read = channel.read(buffer);
+        buffer.flip();
+        while (buffer.remaining() >= FRAME_SIZE) {
+            ++connection.received;
+            ++connection.unacknowledged;
+            if (add(buffer.getLong(), buffer.getDouble())) {
+                ++connection.accepted;
+            }
+        }
+        buffer.compact();
+
+        if (read < 0) {
+            // acknowledge the whole stream after pending ack, which could be written partially
+            connection.finished = true;
+            connection.ackOutdated = true;
+            writeAck(key);
+            return;
+        }
+
+        if (connection.unacknowledged >= ackEvery) {
+            connection.unacknowledged = 0;
+            if (connection.ackBuffer.hasRemaining()) {
+                connection.ackOutdated = true;
+            } else {
+                prepareAck(connection);
+                writeAck(key);
+            }
+        }
+    }
+
+    private boolean add(long epochMillis, double amount) {
+        try {
+            return statsAggregator.add(Instant.ofEpochMilli(epochMillis), amount);
+        } catch (PipelineFullException e) {
+            // frame is dropped, TCP ack reports it as not accepted
+            return false;
+        }
+    }
+
+    private void writeAck(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        channel.write(connection.ackBuffer);
+        if (!connection.ackBuffer.hasRemaining() && connection.ackOutdated) {
+            prepareAck(connection);
+            channel.write(connection.ackBuffer);
+        }
+        if (connection.finished) {
+            if (connection.ackBuffer.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else {
+                close(key);
+            }
+            return;
+        }
+        key.interestOps(connection.ackBuffer.hasRemaining()
+            ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+            : SelectionKey.OP_READ);
+    }
+
+    private static void prepareAck(Connection connection) {
+        connection.ackOutdated = false;
+        connection.ackBuffer.clear();
+        connection.ackBuffer.putLong(connection.received).putLong(connection.accepted);
+        connection.ackBuffer.flip();
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            LOG.debug("Failed to close binary ingest channel", e);
+        }
+    }
+
+    // called by listener thread or before it is started
+    private void closeChannels() {
+        Selector selector = this.selector;
+        if (selector == null) {
+            return;
+        }
+        for (SelectionKey key : selector.keys()) {
+            close(key);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close binary ingest selector", e);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.akholodok.stats.aggregator.controller;
+
+import java.util.List;
+import java.util.Map;
+
+public class ErrorResponse {
+
+    private final long timestamp;
+    private final String message;
+    private final int status;
+    private final Map<String, List<String>> errors;
+
+    public ErrorResponse(long timestamp,
+                         String message,
+                         int status,
+                         Map<String, List<String>> errors) {
+        this.timestamp = timestamp;
+        this.message = message;
+        this.status = status;
+        this.errors = errors;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public Map<String, List<String>> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,175 @@
+package com.akholodok.stats.aggregator.controller;
+
+import com.akholodok.stats.aggregator.model.PipelineStatus;
+import com.akholodok.stats.aggregator.service.ArchivingStatsAggregator;
+import com.akholodok.stats.aggregator.service.BucketArchive;
+import com.akholodok.stats.aggregator.service.CachingStatsAggregator;
+import com.akholodok.stats.aggregator.service.CheckpointingStatsAggregator;
+import com.akholodok.stats.aggregator.service.CoordinatorStatsAggregator;
+import com.akholodok.stats.aggregator.service.DelegatingStatsAggregator;
+import com.akholodok.stats.aggregator.service.IngestMetrics;
+import com.akholodok.stats.aggregator.service.InstrumentedStatsAggregator;
+import com.akholodok.stats.aggregator.service.KeyedBucketStatsAggregator;
+import com.akholodok.stats.aggregator.service.KeyedStatsAggregator;
+import com.akholodok.stats.aggregator.service.LatencyHistogram;
+import com.akholodok.stats.aggregator.service.PipelinedStatsAggregator;
+import com.akholodok.stats.aggregator.service.StatsAggregator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves counters, gauges and latency histograms in Prometheus text exposition format.
+ * Metrics of optional components are present only when these components are enabled.
+ */
+@RestController
+@RequestMapping(MetricsRestController.PATH)
+public class MetricsRestController {
+
+    public static final String PATH = "/metrics";
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String PREFIX = "stats_aggregator_";
+
+    private final StatsAggregator statsAggregator;
+    private final KeyedStatsAggregator keyedStatsAggregator;
+    private final RequestMetrics requestMetrics;
+    private final StatsStreamPublisher streamPublisher;
+
+    @Autowired
+    public MetricsRestController(StatsAggregator statsAggregator,
+                                 KeyedStatsAggregator keyedStatsAggregator,
+                                 RequestMetrics requestMetrics,
+                                 StatsStreamPublisher streamPublisher) {
+        this.statsAggregator = statsAggregator;
+        this.keyedStatsAggregator = keyedStatsAggregator;
+        this.requestMetrics = requestMetrics;
+        this.streamPublisher = streamPublisher;
+    }
+
+    @GetMapping(produces = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<String> get() {
+        StringBuilder output = new StringBuilder(4096);
+
+        DelegatingStatsAggregator.find(statsAggregator, InstrumentedStatsAggregator.class)
+            .map(InstrumentedStatsAggregator::getIngestMetrics)
+            .ifPresent(metrics -> writeIngestMetrics(output, metrics));
+
+        header(output, "request_duration_seconds", "histogram", "Request handling latency by endpoint.");
+        for (Map.Entry<RequestMetrics.Endpoint, LatencyHistogram> entry : requestMetrics.getLatencies().entrySet()) {
+            writeHistogram(output, "request_duration_seconds",
+                "endpoint=\"" + entry.getKey().name().toLowerCase(Locale.ROOT) + "\"", entry.getValue());
+        }
+
+        gauge(output, "stream_subscribers", "Connected stats stream subscribers.", streamPublisher.getSubscribers());
+        counter(output, "stream_dropped_total", "Stats stream subscribers dropped as too slow or failed.",
+            streamPublisher.getDropped());
+
+        if (keyedStatsAggregator instanceof KeyedBucketStatsAggregator) {
+            gauge(output, "keys", "Keys with values in the current window.",
+                ((KeyedBucketStatsAggregator) keyedStatsAggregator).getKeysCount());
+        }
+        DelegatingStatsAggregator.find(statsAggregator, PipelinedStatsAggregator.class)
+            .map(PipelinedStatsAggregator::getStatus)
+            .ifPresent(status -> writePipelineStatus(output, status));
+        DelegatingStatsAggregator.find(statsAggregator, CheckpointingStatsAggregator.class)
+            .ifPresent(checkpointing -> writeCheckpointMetrics(output, checkpointing));
+        DelegatingStatsAggregator.find(statsAggregator, ArchivingStatsAggregator.class)
+            .map(ArchivingStatsAggregator::getArchive)
+            .ifPresent(archive -> writeArchiveMetrics(output, archive));
+        DelegatingStatsAggregator.find(statsAggregator, CachingStatsAggregator.class)
+            .ifPresent(cache -> writeCacheMetrics(output, cache));
+        DelegatingStatsAggregator.find(statsAggregator, CoordinatorStatsAggregator.class)
+            .ifPresent(coordinator -> counter(output, "peer_failures_total",
+                "Failed or timed out requests to peers.", coordinator.getPeerFailures()));
+
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(CONTENT_TYPE))
+            .body(output.toString());
+    }
+
+    private static void writeIngestMetrics(StringBuilder output, IngestMetrics metrics) {
+        header(output, "transactions_total", "counter", "Transactions offered to the aggregator by result.");
+        sample(output, "transactions_total", "result=\"accepted\"", metrics.getAccepted());
+        sample(output, "transactions_total", "result=\"stale\"", metrics.getStale());
+        sample(output, "transactions_total", "result=\"future\"", metrics.getFuture());
+        counter(output, "cas_retries_total", "Compare-and-set attempts repeated because of contention.",
+            metrics.getCasRetries());
+        gauge(output, "buckets_occupied", "Buckets of the current window which hold values.",
+            metrics.getOccupiedBuckets());
+        gauge(output, "buckets", "Buckets of the aggregation window.", metrics.getBuckets());
+    }
+
+    private static void writePipelineStatus(StringBuilder output, PipelineStatus status) {
+        gauge(output, "pipeline_capacity", "Capacity of the ingest ring.", status.getCapacity());
+        gauge(output, "pipeline_depth", "Transactions waiting in the ingest ring.", status.getDepth());
+        gauge(output, "pipeline_lag_seconds", "Age of the oldest transaction waiting in the ingest ring.",
+            status.getLagMillis() / 1000);
+    }
+
+    private static void writeCheckpointMetrics(StringBuilder output, CheckpointingStatsAggregator checkpointing) {
+        counter(output, "checkpoints_total", "Checkpoints written since start.", checkpointing.getCheckpoints());
+        gauge(output, "checkpoint_duration_seconds", "Duration of the last checkpoint.",
+            checkpointing.getLastCheckpointNanos() / (double) TimeUnit.SECONDS.toNanos(1));
+        gauge(output, "checkpoint_size_bytes", "Size of the last checkpoint.", checkpointing.getLastCheckpointBytes());
+    }
+
+    private static void writeArchiveMetrics(StringBuilder output, BucketArchive archive) {
+        gauge(output, "archive_buckets", "Buckets in the archive.", archive.getRows());
+        counter(output, "archive_dropped_total", "Buckets dropped by the archive as out of order.",
+            archive.getDropped());
+    }
+
+    private static void writeCacheMetrics(StringBuilder output, CachingStatsAggregator cache) {
+        header(output, "stats_cache_reads_total", "counter", "Reads of cached stats by result.");
+        sample(output, "stats_cache_reads_total", "result=\"hit\"", cache.getHits());
+        sample(output, "stats_cache_reads_total", "result=\"miss\"", cache.getMisses());
+    }
+
+    private static void writeHistogram(StringBuilder output, String name, String labels, LatencyHistogram histogram) {
+        double[] bounds = histogram.getBoundsSeconds();
+        long[] counts = histogram.getCumulativeCounts();
+        for (int i = 0; i < counts.length; ++i) {
+            String bound = i < bounds.length ? Double.toString(bounds[i]) : "+Inf";
+            sample(output, name + "_bucket", labels + ",le=\"" + bound + "\"", counts[i]);
+        }
+        sample(output, name + "_sum", labels, histogram.getSumSeconds());
+        sample(output, name + "_count", labels, counts[counts.length - 1]);
+    }
+
+    private static void counter(StringBuilder output, String name, String help, long value) {
+        header(output, name, "counter", help);
+        sample(output, name, null, value);
+    }
+
+    private static void gauge(StringBuilder output, String name, String help, double value) {
+        header(output, name, "gauge", help);
+        sample(output, name, null, value);
+    }
+
+    private static void header(StringBuilder output, String name, String type, String help) {
+        output.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        output.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder output, String name, String labels, double value) {
+        output.append(PREFIX).append(name);
+        if (labels != null) {
+            output.append('{').append(labels).append('}');
+        }
+        output.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            output.append((long) value);
+        } else {
+            output.append(value);
+        }
+        output.append('\n');
+    }
+}
@@ -0,0 +1,70 @@
+package com.akholodok.stats.aggregator.controller;
+
+import com.akholodok.stats.aggregator.service.PipelineFullException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.FieldError;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counterpart of {@link RestErrorHandler} for {@code reactive} profile,
+ * responds with the same {@link ErrorResponse} bodies and statuses.
+ */
+@RestControllerAdvice
+@Profile("reactive")
+public class ReactiveRestErrorHandler {
+
+    @ExceptionHandler(WebExchangeBindException.class)
+    public ResponseEntity<ErrorResponse> handleBind(WebExchangeBindException ex) {
+        Map<String, List<String>> errors = new HashMap<>();
+        for (FieldError error : ex.getBindingResult().getFieldErrors()) {
+            errors
+                .computeIfAbsent(error.getField(), s -> new LinkedList<>())
+                .add(error.getDefaultMessage());
+        }
+        return toResponse(HttpStatus.BAD_REQUEST, HttpStatus.BAD_REQUEST.getReasonPhrase(), errors);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<ErrorResponse> handleIllegalArgument(IllegalArgumentException ex) {
+        return toResponse(HttpStatus.BAD_REQUEST, ex.getMessage(), Collections.emptyMap());
+    }
+
+    @ExceptionHandler(JsonProcessingException.class)
+    public ResponseEntity<ErrorResponse> handleJsonProcessing(JsonProcessingException ex) {
+        return toResponse(HttpStatus.BAD_REQUEST, ex.getOriginalMessage(), Collections.emptyMap());
+    }
+
+    @ExceptionHandler(PipelineFullException.class)
+    public ResponseEntity<ErrorResponse> handlePipelineFull(PipelineFullException ex) {
+        return toResponse(HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage(), Collections.emptyMap());
+    }
+
+    @ExceptionHandler(ResponseStatusException.class)
+    public ResponseEntity<ErrorResponse> handleResponseStatus(ResponseStatusException ex) {
+        return toResponse(ex.getStatus(), ex.getStatus().getReasonPhrase(), Collections.emptyMap());
+    }
+
+    private static ResponseEntity<ErrorResponse> toResponse(HttpStatus status,
+                                                            String message,
+                                                            Map<String, List<String>> errors) {
+        ErrorResponse errorResponse = new ErrorResponse(
+            Instant.now().toEpochMilli(),
+            message,
+            status.value(),
+            errors);
+        return new ResponseEntity<>(errorResponse, status);
+    }
+}
@@ -0,0 +1,48 @@
+package com.akholodok.stats.aggregator.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+/**
+ * Non-blocking counterpart of {@link StatsStreamRestController} served by WebFlux
+ * when {@code reactive} profile is active.
+ * <p>
+ * Snapshots which a connection has not consumed yet are replaced with the latest one by Reactor.
+ */
+@RestController
+@RequestMapping(TransactionsRestController.PATH)
+@Profile("reactive")
+public class ReactiveStatsStreamRestController {
+
+    private final StatsStreamPublisher publisher;
+
+    @Autowired
+    public ReactiveStatsStreamRestController(StatsStreamPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    @GetMapping(path = TransactionsRestController.STREAM_PATH, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> stream() {
+        return Flux.create(sink -> {
+            Runnable unsubscribe = publisher.subscribe(new StatsStreamPublisher.Subscriber() {
+                @Override
+                public void send(StatsStreamPublisher.Snapshot snapshot) {
+                    sink.next(ServerSentEvent.builder(snapshot.getData()).event(snapshot.getEvent()).build());
+                }
+
+                @Override
+                public void close() {
+                    sink.complete();
+                }
+            });
+            sink.onDispose(unsubscribe::run);
+        }, FluxSink.OverflowStrategy.LATEST);
+    }
+}
@@ -0,0 +1,212 @@
+package com.akholodok.stats.aggregator.controller;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import com.akholodok.stats.aggregator.service.CachingStatsAggregator;
+import com.akholodok.stats.aggregator.service.CoordinatorStatsAggregator;
+import com.akholodok.stats.aggregator.service.DelegatingStatsAggregator;
+import com.akholodok.stats.aggregator.service.ExportingStatsAggregator;
+import com.akholodok.stats.aggregator.service.KeyedStatsAggregator;
+import com.akholodok.stats.aggregator.service.PipelinedStatsAggregator;
+import com.akholodok.stats.aggregator.service.QuantileStatsAggregator;
+import com.akholodok.stats.aggregator.service.RangeStatsAggregator;
+import com.akholodok.stats.aggregator.service.StatsAggregator;
+import com.akholodok.stats.aggregator.service.TopKeysAggregator;
+import com.akholodok.stats.aggregator.service.TransactionBatchIngester;
+import com.akholodok.stats.aggregator.service.WindowedStatsAggregator;
+import com.akholodok.stats.aggregator.service.WriteAheadLogStatsAggregator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.validation.Valid;
+
+/**
+ * Non-blocking counterpart of {@link TransactionsRestController} served by WebFlux
+ * when {@code reactive} profile is active, with the same endpoints, statuses and bodies.
+ * <p>
+ * Plain aggregators never block, so their requests are handled right on event loop threads.
+ * Decorators which could block - pipeline waiting for a free slot, write-ahead log forcing
+ * records to disk, cache refresh under a lock and coordinator fetching peers - are detected
+ * at startup, then aggregators are called on {@link Schedulers#elastic()} threads instead,
+ * so event loop threads are never blocked. Batch body is collected into memory before it is read.
+ */
+@RestController
+@RequestMapping(TransactionsRestController.PATH)
+@Profile("reactive")
+public class ReactiveTransactionsRestController {
+
+    private static final DataBufferFactory EMPTY_BODY = new DefaultDataBufferFactory();
+
+    private final StatsAggregator statsAggregator;
+    private final KeyedStatsAggregator keyedStatsAggregator;
+    private final TopKeysAggregator topKeysAggregator;
+    private final TransactionBatchIngester batchIngester;
+    private final Scheduler scheduler;
+
+    @Autowired
+    public ReactiveTransactionsRestController(StatsAggregator statsAggregator,
+                                              KeyedStatsAggregator keyedStatsAggregator,
+                                              TopKeysAggregator topKeysAggregator,
+                                              TransactionBatchIngester batchIngester) {
+        this.statsAggregator = statsAggregator;
+        this.keyedStatsAggregator = keyedStatsAggregator;
+        this.topKeysAggregator = topKeysAggregator;
+        this.batchIngester = batchIngester;
+        this.scheduler = isBlocking(statsAggregator)
+            ? Schedulers.elastic()
+            : Schedulers.immediate();
+    }
+
+    @PostMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<?>> add(@Valid @RequestBody Mono<AddTransactionRequest> transaction) {
+        return transaction.publishOn(scheduler).map(request -> {
+            Instant timestamp = Instant.ofEpochMilli(request.getTimestamp());
+            boolean added = statsAggregator.add(timestamp, request.getAmount());
+            if (added && request.getKey() != null) {
+                keyedStatsAggregator.add(request.getKey(), timestamp, request.getAmount());
+                topKeysAggregator.add(request.getKey(), timestamp, request.getAmount());
+            }
+            return added
+                ? ResponseEntity.ok().build()
+                : ResponseEntity.noContent().build();
+        });
+    }
+
+    @PostMapping(
+        path = TransactionsRestController.BATCH_PATH,
+        consumes = {MediaType.APPLICATION_JSON_VALUE, TransactionsRestController.NDJSON_VALUE},
+        produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<?>> addBatch(ServerHttpRequest request) {
+        return DataBufferUtils.join(request.getBody())
+            .defaultIfEmpty(EMPTY_BODY.allocateBuffer(0))
+            .publishOn(scheduler)
+            // read failures, e.g. malformed JSON, are passed on as is, so they are mapped by error handler
+            .flatMap(body -> Mono.fromCallable(() -> {
+                try (InputStream input = body.asInputStream(true)) {
+                    return ResponseEntity.ok(TransactionBatchReader.read(input, batchIngester));
+                }
+            }));
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<?>> get(@RequestParam(name = "window", required = false) String window,
+                                       @RequestParam(name = "last", required = false) Long last) {
+        return call(() -> {
+            if (window != null && last != null) {
+                throw new IllegalArgumentException("Either window or last should be provided, not both");
+            }
+            if (window == null && last == null) {
+                Optional<CachingStatsAggregator> cache = find(CachingStatsAggregator.class);
+                if (cache.isPresent()) {
+                    return TransactionsRestController.toResponse(cache.get().getEncodedStats());
+                }
+            }
+            Optional<Stats> stats = window != null
+                ? getWindowedStats(DurationStyle.detectAndParse(window))
+                : last != null
+                ? getWindowedStats(Duration.ofSeconds(last))
+                : statsAggregator.getStats();
+            return toResponse(stats);
+        });
+    }
+
+    @GetMapping(path = TransactionsRestController.QUANTILES_PATH, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<?>> getQuantiles(@RequestParam(name = "q") double[] quantiles) {
+        return call(() -> toResponse(find(QuantileStatsAggregator.class)
+            .orElseThrow(() -> new IllegalArgumentException("Configured stats aggregator does not support quantiles"))
+            .getQuantiles(quantiles)));
+    }
+
+    @GetMapping(path = TransactionsRestController.TOP_PATH, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<?>> getTop(@RequestParam(name = "k", defaultValue = "20") int k,
+                                          @RequestParam(name = "by", defaultValue = "sum") String by) {
+        return call(() -> toResponse(topKeysAggregator.getTop(k, TransactionsRestController.parseMeasure(by))));
+    }
+
+    @GetMapping(path = TransactionsRestController.PIPELINE_PATH, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<?>> getPipelineStatus() {
+        return call(() -> {
+            PipelinedStatsAggregator aggregator = find(PipelinedStatsAggregator.class)
+                .orElseThrow(() -> new IllegalArgumentException("Ingest pipeline is not enabled"));
+            return ResponseEntity.ok(aggregator.getStatus());
+        });
+    }
+
+    @GetMapping(path = TransactionsRestController.BUCKETS_PATH, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public Mono<ResponseEntity<?>> exportBuckets() {
+        return call(() -> {
+            ExportingStatsAggregator aggregator = find(ExportingStatsAggregator.class)
+                .orElseThrow(() -> new IllegalArgumentException("Configured stats aggregator does not support bucket export"));
+            return ResponseEntity.ok(aggregator.exportBuckets().toByteArray());
+        });
+    }
+
+    @GetMapping(path = TransactionsRestController.STATS_PATH, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<?>> getRangeStats(@RequestParam(name = "from") String from,
+                                                 @RequestParam(name = "to") String to) {
+        return call(() -> {
+            RangeStatsAggregator aggregator = find(RangeStatsAggregator.class)
+                .orElseThrow(() -> new IllegalArgumentException("Archive is not enabled"));
+            return toResponse(aggregator.getStats(
+                TransactionsRestController.parseInstant(from), TransactionsRestController.parseInstant(to)));
+        });
+    }
+
+    @GetMapping(path = TransactionsRestController.KEY_PATH, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<?>> getByKey(@PathVariable("key") String key) {
+        return call(() -> toResponse(keyedStatsAggregator.getStats(key)));
+    }
+
+    private Mono<ResponseEntity<?>> call(Supplier<ResponseEntity<?>> handler) {
+        return Mono.fromSupplier(handler).subscribeOn(scheduler);
+    }
+
+    private Optional<Stats> getWindowedStats(Duration window) {
+        return find(WindowedStatsAggregator.class)
+            .orElseThrow(() -> new IllegalArgumentException("Configured stats aggregator does not support custom windows"))
+            .getStats(window);
+    }
+
+    private <T> Optional<T> find(Class<T> capability) {
+        return DelegatingStatsAggregator.find(statsAggregator, capability);
+    }
+
+    private static <T> ResponseEntity<?> toResponse(Optional<T> body) {
+        return body
+            .<ResponseEntity<?>>map(ResponseEntity::ok)
+            .orElseGet(() -> ResponseEntity.noContent().build());
+    }
+
+    // whether decorator chain has a decorator which could block the calling thread
+    static boolean isBlocking(StatsAggregator statsAggregator) {
+        return Stream.of(
+            PipelinedStatsAggregator.class,
+            WriteAheadLogStatsAggregator.class,
+            CachingStatsAggregator.class,
+            CoordinatorStatsAggregator.class)
+            .anyMatch(decorator -> DelegatingStatsAggregator.find(statsAggregator, decorator).isPresent());
+    }
+}
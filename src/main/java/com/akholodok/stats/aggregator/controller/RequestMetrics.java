@@ -0,0 +1,36 @@
+package com.akholodok.stats.aggregator.controller;
+
+import com.akholodok.stats.aggregator.service.LatencyHistogram;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Latencies of request handling by endpoint, measured from the moment request body
+ * has been bound till the response is ready.
+ */
+public class RequestMetrics {
+
+    public enum Endpoint {
+        ADD,
+        BATCH,
+        GET
+    }
+
+    private final Map<Endpoint, LatencyHistogram> latencies = new EnumMap<>(Endpoint.class);
+
+    public RequestMetrics() {
+        for (Endpoint endpoint : Endpoint.values()) {
+            latencies.put(endpoint, new LatencyHistogram());
+        }
+    }
+
+    public void record(Endpoint endpoint, long startNanos) {
+        latencies.get(endpoint).record(System.nanoTime() - startNanos);
+    }
+
+    public Map<Endpoint, LatencyHistogram> getLatencies() {
+        return Collections.unmodifiableMap(latencies);
+    }
+}
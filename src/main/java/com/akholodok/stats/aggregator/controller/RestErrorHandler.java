@@ -1,11 +1,15 @@
 package com.akholodok.stats.aggregator.controller;
 
+import com.akholodok.stats.aggregator.service.PipelineFullException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
@@ -17,42 +21,9 @@ import java.util.List;
 import java.util.Map;
 
 @ControllerAdvice
+@Profile("!reactive")
 public class RestErrorHandler extends ResponseEntityExceptionHandler {
 
-    private class ErrorResponse {
-
-        private final long timestamp;
-        private final String message;
-        private final int status;
-        private final Map<String, List<String>> errors;
-
-        public ErrorResponse(long timestamp,
-                             String message,
-                             int status,
-                             Map<String, List<String>> errors) {
-            this.timestamp = timestamp;
-            this.message = message;
-            this.status = status;
-            this.errors = errors;
-        }
-
-        public long getTimestamp() {
-            return timestamp;
-        }
-
-        public String getMessage() {
-            return message;
-        }
-
-        public int getStatus() {
-            return status;
-        }
-
-        public Map<String, List<String>> getErrors() {
-            return errors;
-        }
-    }
-
     @Override
     protected ResponseEntity<Object> handleMethodArgumentNotValid(MethodArgumentNotValidException ex,
                                                                   HttpHeaders headers, HttpStatus status,
@@ -71,6 +42,39 @@ public class RestErrorHandler extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(errorResponse, headers, status);
     }
 
+    @ExceptionHandler(IllegalArgumentException.class)
+    protected ResponseEntity<Object> handleIllegalArgument(IllegalArgumentException ex, WebRequest request) {
+        HttpStatus status = HttpStatus.BAD_REQUEST;
+        ErrorResponse errorResponse = new ErrorResponse(
+            Instant.now().toEpochMilli(),
+            ex.getMessage(),
+            status.value(),
+            Collections.emptyMap());
+        return new ResponseEntity<>(errorResponse, new HttpHeaders(), status);
+    }
+
+    @ExceptionHandler(PipelineFullException.class)
+    protected ResponseEntity<Object> handlePipelineFull(PipelineFullException ex, WebRequest request) {
+        HttpStatus status = HttpStatus.SERVICE_UNAVAILABLE;
+        ErrorResponse errorResponse = new ErrorResponse(
+            Instant.now().toEpochMilli(),
+            ex.getMessage(),
+            status.value(),
+            Collections.emptyMap());
+        return new ResponseEntity<>(errorResponse, new HttpHeaders(), status);
+    }
+
+    @ExceptionHandler(JsonProcessingException.class)
+    protected ResponseEntity<Object> handleJsonProcessing(JsonProcessingException ex, WebRequest request) {
+        HttpStatus status = HttpStatus.BAD_REQUEST;
+        ErrorResponse errorResponse = new ErrorResponse(
+            Instant.now().toEpochMilli(),
+            ex.getOriginalMessage(),
+            status.value(),
+            Collections.emptyMap());
+        return new ResponseEntity<>(errorResponse, new HttpHeaders(), status);
+    }
+
     @Override
     protected ResponseEntity<Object> handleExceptionInternal(Exception ex,
                                                              Object body,
@@ -0,0 +1,304 @@
+package com.akholodok.stats.aggregator.controller;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import com.akholodok.stats.aggregator.service.StatsAggregator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pushes stats of the whole window to stream subscribers, e.g. Server-Sent Events connections.
+ * <p>
+ * A single ticker thread computes and encodes a snapshot once per interval and offers
+ * the same snapshot to every subscriber, optionally only when it differs from the previous one.
+ * Snapshots are sent by a small shared pool of sender threads, so there is no thread per subscriber.
+ * <p>
+ * Each subscriber holds at most one pending snapshot: a snapshot which has not been sent
+ * before the next one is replaced with it, so a slow subscriber gets the latest stats only
+ * and never buffers more than one snapshot. Subscriber which has not caught up for more than
+ * {@code maxSkipped} snapshots in a row, or failed to receive one, is dropped and closed
+ * right away by the dropping thread, even if a sender is still blocked sending to it.
+ * Snapshot replaced while subscriber waits for a free sender is not counted as skipped,
+ * so subscribers are not dropped because senders are blocked by slower ones.
+ */
+public class StatsStreamPublisher implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StatsStreamPublisher.class);
+
+    public static final String STATS_EVENT = "stats";
+    public static final String EMPTY_EVENT = "empty";
+
+    private final StatsAggregator statsAggregator;
+    private final ObjectMapper objectMapper;
+    private final boolean changesOnly;
+    private final int maxSkipped;
+
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService ticker;
+    private final ExecutorService senders;
+    private final LongAdder dropped = new LongAdder();
+    // last published snapshot, null until there are subscribers
+    private volatile Snapshot last;
+
+    /**
+     * @param interval    How often snapshot is computed, usually bucket width.
+     * @param changesOnly Whether snapshot equal to the previous one is not published.
+     * @param maxSkipped  How many snapshots in a row subscriber could miss before it is dropped.
+     * @param senders     Number of threads which send snapshots to subscribers.
+     */
+    public StatsStreamPublisher(StatsAggregator statsAggregator,
+                                ObjectMapper objectMapper,
+                                Duration interval,
+                                boolean changesOnly,
+                                int maxSkipped,
+                                int senders) {
+        if (interval.toMillis() <= 0) {
+            throw new IllegalArgumentException("Interval should be at least one millisecond: " + interval);
+        }
+        if (maxSkipped < 0 || senders <= 0) {
+            throw new IllegalArgumentException(
+                "Max skipped should not be negative and senders should be positive: " + maxSkipped + ", " + senders);
+        }
+        this.statsAggregator = statsAggregator;
+        this.objectMapper = objectMapper;
+        this.changesOnly = changesOnly;
+        this.maxSkipped = maxSkipped;
+
+        AtomicInteger senderNumber = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(senders, runnable -> {
+            Thread thread = new Thread(runnable, "stats-aggregator-stream-sender-" + senderNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stats-aggregator-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = interval.toMillis();
+        ticker.scheduleAtFixedRate(() -> {
+            try {
+                publish();
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to publish stats snapshot", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stats snapshot encoded once for all subscribers.
+     */
+    public static final class Snapshot {
+
+        private final String event;
+        private final String data;
+
+        Snapshot(String event, String data) {
+            this.event = event;
+            this.data = data;
+        }
+
+        /**
+         * Get event name, {@link StatsStreamPublisher#STATS_EVENT}
+         * or {@link StatsStreamPublisher#EMPTY_EVENT} if there are no stats for the window.
+         */
+        public String getEvent() {
+            return event;
+        }
+
+        /**
+         * Get stats encoded as JSON.
+         */
+        public String getData() {
+            return data;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Snapshot snapshot = (Snapshot) o;
+            return event.equals(snapshot.event) && data.equals(snapshot.data);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(event, data);
+        }
+    }
+
+    /**
+     * Receiver of snapshots, e.g. a stream connection.
+     */
+    public interface Subscriber {
+
+        /**
+         * Send snapshot, could block until it is written.
+         */
+        void send(Snapshot snapshot) throws Exception;
+
+        /**
+         * Close subscriber which has been dropped, called once by the dropping thread
+         * while a sender could still be blocked in {@link #send(Snapshot)}, so it should not wait for it.
+         */
+        void close();
+    }
+
+    private final class Subscription {
+
+        private final Subscriber subscriber;
+        private final AtomicReference<Snapshot> pending = new AtomicReference<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicInteger skipped = new AtomicInteger();
+        // whether a sender is sending to subscriber right now
+        private volatile boolean sending;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean removed;
+
+        Subscription(Subscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void offer(Snapshot snapshot) {
+            if (pending.getAndSet(snapshot) != null && sending && skipped.incrementAndGet() > maxSkipped) {
+                drop();
+                return;
+            }
+            schedule();
+        }
+
+        void drop() {
+            if (subscriptions.remove(this)) {
+                dropped.increment();
+                removed = true;
+                pending.set(null);
+                // sender may be blocked on this subscriber right now, it is not waited for
+                if (closed.compareAndSet(false, true)) {
+                    subscriber.close();
+                }
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // publisher is closed
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                Snapshot snapshot;
+                while (!removed && (snapshot = pending.getAndSet(null)) != null) {
+                    sending = true;
+                    subscriber.send(snapshot);
+                    sending = false;
+                    skipped.set(0);
+                }
+            } catch (Exception e) {
+                LOG.debug("Failed to send stats snapshot, subscriber is dropped", e);
+                drop();
+            } finally {
+                scheduled.set(false);
+            }
+            if (!removed && pending.get() != null) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Subscribe to snapshots, the latest snapshot is sent right away.
+     *
+     * @return Action which unsubscribes {@code subscriber} without closing it,
+     * e.g. once its connection is closed.
+     */
+    public Runnable subscribe(Subscriber subscriber) {
+        Subscription subscription = new Subscription(subscriber);
+        subscriptions.add(subscription);
+        Snapshot current = last;
+        if (current == null) {
+            current = snapshot();
+            last = current;
+        }
+        subscription.offer(current);
+        return () -> {
+            subscription.removed = true;
+            subscriptions.remove(subscription);
+        };
+    }
+
+    // computes snapshot and offers it to all subscribers, called by ticker
+    void publish() {
+        if (subscriptions.isEmpty()) {
+            last = null;
+            return;
+        }
+        Snapshot snapshot = snapshot();
+        if (changesOnly && snapshot.equals(last)) {
+            return;
+        }
+        last = snapshot;
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(snapshot);
+        }
+    }
+
+    private Snapshot snapshot() {
+        Optional<Stats> stats = statsAggregator.getStats();
+        try {
+            return stats.isPresent()
+                ? new Snapshot(STATS_EVENT, objectMapper.writeValueAsString(stats.get()))
+                : new Snapshot(EMPTY_EVENT, "{}");
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Get number of current subscribers.
+     */
+    public int getSubscribers() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Get number of subscribers dropped because they were too slow or failed.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        ticker.shutdownNow();
+        senders.shutdownNow();
+        ticker.awaitTermination(1, TimeUnit.SECONDS);
+        senders.awaitTermination(1, TimeUnit.SECONDS);
+    }
+}
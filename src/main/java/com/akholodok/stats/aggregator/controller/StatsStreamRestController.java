@@ -0,0 +1,93 @@
+package com.akholodok.stats.aggregator.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Streams stats of the whole window as Server-Sent Events published by {@link StatsStreamPublisher}.
+ * <p>
+ * Connections are held by asynchronous requests, so they do not occupy request threads.
+ * <p>
+ * Emitter completion is serialized with its sends, so a dropped connection is completed
+ * with error right away when it is idle, otherwise by the sender once its write returns or fails;
+ * the dropping thread never waits for the write.
+ */
+@RestController
+@RequestMapping(TransactionsRestController.PATH)
+@Profile("!reactive")
+public class StatsStreamRestController {
+
+    private final StatsStreamPublisher publisher;
+
+    @Autowired
+    public StatsStreamRestController(StatsStreamPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    @GetMapping(path = TransactionsRestController.STREAM_PATH, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream() {
+        // no timeout, connection is held until client disconnects or is dropped
+        SseEmitter emitter = new SseEmitter(0L);
+        Runnable unsubscribe = publisher.subscribe(new EmitterSubscriber(emitter));
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        return emitter;
+    }
+
+    private static final class EmitterSubscriber implements StatsStreamPublisher.Subscriber {
+
+        private final SseEmitter emitter;
+        // held while sending, emitter is completed by whoever holds it after close
+        private final ReentrantLock sending = new ReentrantLock();
+        private volatile boolean closed;
+        // guarded by sending
+        private boolean completed;
+
+        EmitterSubscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void send(StatsStreamPublisher.Snapshot snapshot) throws Exception {
+            sending.lock();
+            try {
+                if (!closed) {
+                    emitter.send(SseEmitter.event()
+                        .name(snapshot.getEvent())
+                        .data(snapshot.getData(), MediaType.APPLICATION_JSON));
+                }
+            } finally {
+                sending.unlock();
+            }
+            if (closed) {
+                completeIfIdle();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            completeIfIdle();
+        }
+
+        private void completeIfIdle() {
+            if (sending.tryLock()) {
+                try {
+                    if (!completed) {
+                        completed = true;
+                        emitter.completeWithError(new IllegalStateException("Stream subscriber has been dropped"));
+                    }
+                } finally {
+                    sending.unlock();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.akholodok.stats.aggregator.controller;
+
+import com.akholodok.stats.aggregator.model.BatchResult;
+import com.akholodok.stats.aggregator.service.TransactionBatch;
+import com.akholodok.stats.aggregator.service.TransactionBatchIngester;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streams transactions from either a JSON array or newline delimited JSON objects
+ * into fixed size {@link TransactionBatch} chunks, every full chunk is ingested right away.
+ * <p>
+ * Objects are read token by token without data binding. Transactions which miss
+ * or have invalid fields are skipped and counted as invalid, malformed JSON fails
+ * the rest of the stream.
+ */
+final class TransactionBatchReader {
+
+    static final int CHUNK_SIZE = 4096;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int MAX_KEY_LENGTH = 256;
+
+    private TransactionBatchReader() {
+
+    }
+
+    static BatchResult read(InputStream body, TransactionBatchIngester ingester) throws IOException {
+        TransactionBatch batch = new TransactionBatch(CHUNK_SIZE);
+        BatchResult result = new BatchResult(0, 0, 0, 0);
+        long invalid = 0;
+
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            JsonToken token = parser.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) {
+                token = parser.nextToken();
+            }
+            while (token != null && token != JsonToken.END_ARRAY) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JsonParseException(parser, "Transaction object expected, got " + token);
+                }
+                if (!readTransaction(parser, batch)) {
+                    ++invalid;
+                }
+                if (batch.isFull()) {
+                    result = result.plus(ingester.ingest(batch));
+                    batch.clear();
+                }
+                token = parser.nextToken();
+            }
+            if (array && token == null) {
+                throw new JsonParseException(parser, "Unexpected end of transactions array");
+            }
+        }
+
+        if (batch.size() > 0) {
+            result = result.plus(ingester.ingest(batch));
+        }
+        return result.plus(new BatchResult(0, 0, 0, invalid));
+    }
+
+    // reads object fields, parser is positioned at START_OBJECT
+    private static boolean readTransaction(JsonParser parser, TransactionBatch batch) throws IOException {
+        boolean hasAmount = false;
+        boolean hasTimestamp = false;
+        double amount = 0.0;
+        long timestamp = 0;
+        String key = null;
+        boolean validKey = true;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "amount":
+                    hasAmount = value.isNumeric();
+                    amount = hasAmount ? parser.getDoubleValue() : 0.0;
+                    break;
+                case "timestamp":
+                    hasTimestamp = value == JsonToken.VALUE_NUMBER_INT;
+                    timestamp = hasTimestamp ? parser.getLongValue() : 0;
+                    break;
+                case "key":
+                    key = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    validKey = value == JsonToken.VALUE_NULL
+                        || key != null && !key.isEmpty() && key.length() <= MAX_KEY_LENGTH;
+                    break;
+                default:
+                    break;
+            }
+            parser.skipChildren();
+        }
+
+        if (!hasAmount || !hasTimestamp || timestamp < 0 || !validKey) {
+            return false;
+        }
+        batch.add(timestamp, amount, key);
+        return true;
+    }
+}
@@ -1,44 +1,217 @@
 package com.akholodok.stats.aggregator.controller;
 
+import com.akholodok.stats.aggregator.model.Stats;
+import com.akholodok.stats.aggregator.service.CachingStatsAggregator;
+import com.akholodok.stats.aggregator.service.DelegatingStatsAggregator;
+import com.akholodok.stats.aggregator.service.ExportingStatsAggregator;
+import com.akholodok.stats.aggregator.service.KeyedStatsAggregator;
+import com.akholodok.stats.aggregator.service.PipelinedStatsAggregator;
+import com.akholodok.stats.aggregator.service.QuantileStatsAggregator;
+import com.akholodok.stats.aggregator.service.RangeStatsAggregator;
 import com.akholodok.stats.aggregator.service.StatsAggregator;
+import com.akholodok.stats.aggregator.service.TopKeysAggregator;
+import com.akholodok.stats.aggregator.service.TransactionBatchIngester;
+import com.akholodok.stats.aggregator.service.WindowedStatsAggregator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Optional;
 
 import javax.validation.Valid;
 
-@RestController(TransactionsRestController.PATH)
+@RestController
+@RequestMapping(TransactionsRestController.PATH)
+@Profile("!reactive")
 public class TransactionsRestController {
 
-    public static final String PATH = "transactions";
+    public static final String PATH = "/transactions";
+    public static final String QUANTILES_PATH = "/quantiles";
+    public static final String TOP_PATH = "/top";
+    public static final String BATCH_PATH = "/batch";
+    public static final String PIPELINE_PATH = "/pipeline";
+    public static final String BUCKETS_PATH = "/buckets";
+    public static final String STATS_PATH = "/stats";
+    public static final String STREAM_PATH = "/stream";
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+    public static final String KEY_PATH = "/{key}";
 
     private final StatsAggregator statsAggregator;
+    private final KeyedStatsAggregator keyedStatsAggregator;
+    private final TopKeysAggregator topKeysAggregator;
+    private final TransactionBatchIngester batchIngester;
+    private final RequestMetrics requestMetrics;
 
     @Autowired
-    public TransactionsRestController(StatsAggregator statsAggregator) {
+    public TransactionsRestController(StatsAggregator statsAggregator,
+                                      KeyedStatsAggregator keyedStatsAggregator,
+                                      TopKeysAggregator topKeysAggregator,
+                                      TransactionBatchIngester batchIngester,
+                                      RequestMetrics requestMetrics) {
         this.statsAggregator = statsAggregator;
+        this.keyedStatsAggregator = keyedStatsAggregator;
+        this.topKeysAggregator = topKeysAggregator;
+        this.batchIngester = batchIngester;
+        this.requestMetrics = requestMetrics;
     }
 
     @PostMapping(produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<?> add(@Valid @RequestBody AddTransactionRequest transaction) {
-        boolean added = statsAggregator.add(
-            Instant.ofEpochMilli(transaction.getTimestamp()),
-            transaction.getAmount());
-        return added
-            ? ResponseEntity.ok().build()
-            : ResponseEntity.noContent().build();
+        long start = System.nanoTime();
+        try {
+            Instant timestamp = Instant.ofEpochMilli(transaction.getTimestamp());
+            boolean added = statsAggregator.add(timestamp, transaction.getAmount());
+            if (added && transaction.getKey() != null) {
+                keyedStatsAggregator.add(transaction.getKey(), timestamp, transaction.getAmount());
+                topKeysAggregator.add(transaction.getKey(), timestamp, transaction.getAmount());
+            }
+            return added
+                ? ResponseEntity.ok().build()
+                : ResponseEntity.noContent().build();
+        } finally {
+            requestMetrics.record(RequestMetrics.Endpoint.ADD, start);
+        }
+    }
+
+    @PostMapping(
+        path = BATCH_PATH,
+        consumes = {MediaType.APPLICATION_JSON_VALUE, NDJSON_VALUE},
+        produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> addBatch(InputStream body) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return ResponseEntity.ok(TransactionBatchReader.read(body, batchIngester));
+        } finally {
+            requestMetrics.record(RequestMetrics.Endpoint.BATCH, start);
+        }
     }
 
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<?> get() {
-        return statsAggregator.getStats()
+    public ResponseEntity<?> get(@RequestParam(name = "window", required = false) String window,
+                                 @RequestParam(name = "last", required = false) Long last) {
+        long start = System.nanoTime();
+        try {
+            if (window != null && last != null) {
+                throw new IllegalArgumentException("Either window or last should be provided, not both");
+            }
+            if (window == null && last == null) {
+                Optional<CachingStatsAggregator> cache = find(CachingStatsAggregator.class);
+                if (cache.isPresent()) {
+                    return toResponse(cache.get().getEncodedStats());
+                }
+            }
+            Optional<Stats> stats = window != null
+                ? getWindowedStats(DurationStyle.detectAndParse(window))
+                : last != null
+                ? getWindowedStats(Duration.ofSeconds(last))
+                : statsAggregator.getStats();
+            return stats
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.noContent().build());
+        } finally {
+            requestMetrics.record(RequestMetrics.Endpoint.GET, start);
+        }
+    }
+
+    @GetMapping(path = QUANTILES_PATH, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getQuantiles(@RequestParam(name = "q") double[] quantiles) {
+        return find(QuantileStatsAggregator.class)
+            .orElseThrow(() -> new IllegalArgumentException("Configured stats aggregator does not support quantiles"))
+            .getQuantiles(quantiles)
+            .map(ResponseEntity::ok)
+            .orElseGet(() -> ResponseEntity.noContent().build());
+    }
+
+    @GetMapping(path = TOP_PATH, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getTop(@RequestParam(name = "k", defaultValue = "20") int k,
+                                    @RequestParam(name = "by", defaultValue = "sum") String by) {
+        return topKeysAggregator.getTop(k, parseMeasure(by))
+            .map(ResponseEntity::ok)
+            .orElseGet(() -> ResponseEntity.noContent().build());
+    }
+
+    @GetMapping(path = PIPELINE_PATH, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getPipelineStatus() {
+        PipelinedStatsAggregator aggregator = find(PipelinedStatsAggregator.class)
+            .orElseThrow(() -> new IllegalArgumentException("Ingest pipeline is not enabled"));
+        return ResponseEntity.ok(aggregator.getStatus());
+    }
+
+    @GetMapping(path = BUCKETS_PATH, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> exportBuckets() {
+        ExportingStatsAggregator aggregator = find(ExportingStatsAggregator.class)
+            .orElseThrow(() -> new IllegalArgumentException("Configured stats aggregator does not support bucket export"));
+        return ResponseEntity.ok(aggregator.exportBuckets().toByteArray());
+    }
+
+    @GetMapping(path = STATS_PATH, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getRangeStats(@RequestParam(name = "from") String from,
+                                           @RequestParam(name = "to") String to) {
+        RangeStatsAggregator aggregator = find(RangeStatsAggregator.class)
+            .orElseThrow(() -> new IllegalArgumentException("Archive is not enabled"));
+        return aggregator.getStats(parseInstant(from), parseInstant(to))
             .map(ResponseEntity::ok)
             .orElseGet(() -> ResponseEntity.noContent().build());
     }
+
+    @GetMapping(path = KEY_PATH, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getByKey(@PathVariable("key") String key) {
+        return keyedStatsAggregator.getStats(key)
+            .map(ResponseEntity::ok)
+            .orElseGet(() -> ResponseEntity.noContent().build());
+    }
+
+    private Optional<Stats> getWindowedStats(Duration window) {
+        return find(WindowedStatsAggregator.class)
+            .orElseThrow(() -> new IllegalArgumentException("Configured stats aggregator does not support custom windows"))
+            .getStats(window);
+    }
+
+    // encoded stats are JSON already, so they are written as is
+    static ResponseEntity<?> toResponse(Optional<byte[]> encodedStats) {
+        return encodedStats
+            .<ResponseEntity<?>>map(body -> ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(body))
+            .orElseGet(() -> ResponseEntity.noContent().build());
+    }
+
+    private <T> Optional<T> find(Class<T> capability) {
+        return DelegatingStatsAggregator.find(statsAggregator, capability);
+    }
+
+    // accepts either epoch millis, as timestamps of transactions, or ISO-8601 instant
+    static Instant parseInstant(String value) {
+        try {
+            return value.chars().allMatch(Character::isDigit)
+                ? Instant.ofEpochMilli(Long.parseLong(value))
+                : Instant.parse(value);
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid instant: " + value, e);
+        }
+    }
+
+    static TopKeysAggregator.Measure parseMeasure(String by) {
+        switch (by.toLowerCase(Locale.ROOT)) {
+            case "count":
+                return TopKeysAggregator.Measure.COUNT;
+            case "sum":
+                return TopKeysAggregator.Measure.SUM;
+            default:
+                throw new IllegalArgumentException("'by' should be either 'count' or 'sum': " + by);
+        }
+    }
 }
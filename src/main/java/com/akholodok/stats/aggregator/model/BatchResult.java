@@ -0,0 +1,40 @@
+package com.akholodok.stats.aggregator.model;
+
+public class BatchResult {
+
+    private final long accepted;
+    private final long stale;
+    private final long future;
+    private final long invalid;
+
+    public BatchResult(long accepted, long stale, long future, long invalid) {
+        this.accepted = accepted;
+        this.stale = stale;
+        this.future = future;
+        this.invalid = invalid;
+    }
+
+    public BatchResult plus(BatchResult other) {
+        return new BatchResult(
+            accepted + other.accepted,
+            stale + other.stale,
+            future + other.future,
+            invalid + other.invalid);
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getStale() {
+        return stale;
+    }
+
+    public long getFuture() {
+        return future;
+    }
+
+    public long getInvalid() {
+        return invalid;
+    }
+}
@@ -0,0 +1,32 @@
+package com.akholodok.stats.aggregator.model;
+
+public class PipelineStatus {
+
+    private final int capacity;
+    private final long depth;
+    private final double lagMillis;
+
+    public PipelineStatus(int capacity, long depth, double lagMillis) {
+        this.capacity = capacity;
+        this.depth = depth;
+        this.lagMillis = lagMillis;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Number of published but not yet aggregated values.
+     */
+    public long getDepth() {
+        return depth;
+    }
+
+    /**
+     * Time since publishing of the oldest value waiting in the ring, 0 when the ring is empty.
+     */
+    public double getLagMillis() {
+        return lagMillis;
+    }
+}
@@ -0,0 +1,22 @@
+package com.akholodok.stats.aggregator.model;
+
+import java.util.Map;
+
+public class Quantiles {
+
+    private final long count;
+    private final Map<Double, Double> quantiles;
+
+    public Quantiles(long count, Map<Double, Double> quantiles) {
+        this.count = count;
+        this.quantiles = quantiles;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public Map<Double, Double> getQuantiles() {
+        return quantiles;
+    }
+}
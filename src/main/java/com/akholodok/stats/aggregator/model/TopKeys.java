@@ -0,0 +1,53 @@
+package com.akholodok.stats.aggregator.model;
+
+import java.util.List;
+
+public class TopKeys {
+
+    private final double total;
+    private final List<Entry> keys;
+
+    public TopKeys(double total, List<Entry> keys) {
+        this.total = total;
+        this.keys = keys;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    public List<Entry> getKeys() {
+        return keys;
+    }
+
+    public static class Entry {
+
+        private final String key;
+        private final double value;
+        private final double error;
+
+        public Entry(String key, double value, double error) {
+            this.key = key;
+            this.value = value;
+            this.error = error;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Estimated count or sum of the key.
+         */
+        public double getValue() {
+            return value;
+        }
+
+        /**
+         * Maximum absolute difference between estimated and true value.
+         */
+        public double getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import com.akholodok.stats.aggregator.service.BucketStatsAggregator.Bucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Statistics aggregator which moves every bucket leaving the window of {@link BucketStatsAggregator}
+ * into {@link BucketArchive}, so stats of any past time range can be queried.
+ * <p>
+ * Buckets leave the ring when overwritten by newer ones or, if nothing was added for a while,
+ * when removed by the archiving thread, which runs once per interval. The thread appends
+ * buckets older than the window start it has seen before removing expired ones, so no bucket
+ * could arrive later with an earlier start and archive stays ordered by time.
+ * <p>
+ * Range stats merge archived buckets with buckets of the current window, so a range
+ * misses a bucket only for up to one interval after it has left the window.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * {@link ArchivingStatsAggregator#add(Instant, double)} and
+ * {@link ArchivingStatsAggregator#getStats()} - same as of {@link BucketStatsAggregator};
+ * {@link ArchivingStatsAggregator#getStats(Instant, Instant)} - complexity of
+ * {@link BucketArchive#getStats(long, long)} plus O(K) for K buckets of the window
+ */
+public class ArchivingStatsAggregator implements ExportingStatsAggregator, RangeStatsAggregator,
+    DelegatingStatsAggregator, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArchivingStatsAggregator.class);
+
+    private final BucketStatsAggregator delegate;
+    private final BucketArchive archive;
+    private final BucketTimeline timeline;
+    private final TimeSource timeSource;
+    private final Queue<Bucket> expired = new ConcurrentLinkedQueue<>();
+    // expired buckets which are not old enough to be appended yet, guarded by this
+    private final List<Bucket> pending = new ArrayList<>();
+    private final ScheduledExecutorService archiver;
+
+    public ArchivingStatsAggregator(int duration,
+                                    Duration bucketWidth,
+                                    BucketArchive archive,
+                                    Duration interval,
+                                    TimeSource timeSource) {
+        this.delegate = new BucketStatsAggregator(
+            duration, bucketWidth, timeSource, BucketStatsAggregator.DEFAULT_BUCKET_REDUCER, expired::add);
+        this.archive = archive;
+        this.timeline = new BucketTimeline(duration, bucketWidth);
+        this.timeSource = timeSource;
+
+        this.archiver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stats-aggregator-archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = Math.max(interval.toMillis(), 1);
+        archiver.scheduleWithFixedDelay(this::archiveSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean add(Instant timestamp, double value) {
+        return delegate.add(timestamp, value);
+    }
+
+    @Override
+    public boolean add(Instant timestamp, Stats partial) {
+        return delegate.add(timestamp, partial);
+    }
+
+    @Override
+    public Optional<Stats> getStats() {
+        return delegate.getStats();
+    }
+
+    @Override
+    public Optional<Stats> getStats(Instant from, Instant to) {
+        if (!from.isBefore(to)) {
+            throw new IllegalArgumentException("Range start " + from + " should be before its end " + to);
+        }
+        long fromMillis = from.toEpochMilli();
+        long toMillis = to.toEpochMilli();
+        long bucketMillis = timeline.getBucketWidth().toMillis();
+
+        Optional<Stats> live = delegate.exportBuckets().getBuckets().stream()
+            .filter(bucket -> bucket.getEpochBucket() * bucketMillis >= fromMillis
+                && bucket.getEpochBucket() * bucketMillis < toMillis)
+            .reduce(BucketStatsAggregator.DEFAULT_BUCKET_REDUCER)
+            .map(Bucket::toStats);
+        return Stream.of(archive.getStats(fromMillis, toMillis), live)
+            .filter(Optional::isPresent)
+            .map(Optional::get)
+            .reduce(StripedStatsAggregator.DEFAULT_STATS_REDUCER);
+    }
+
+    @Override
+    public BucketSnapshot exportBuckets() {
+        return delegate.exportBuckets();
+    }
+
+    @Override
+    public int getDuration() {
+        return delegate.getDuration();
+    }
+
+    @Override
+    public StatsAggregator getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public Duration getBucketWidth() {
+        return delegate.getBucketWidth();
+    }
+
+    public BucketArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Append expired buckets to archive.
+     */
+    synchronized void archive() {
+        long watermark = timeline.windowStart(timeSource.now());
+        delegate.expire();
+        for (Bucket bucket = expired.poll(); bucket != null; bucket = expired.poll()) {
+            pending.add(bucket);
+        }
+        appendPending(watermark);
+    }
+
+    // guarded by this
+    private void appendPending(long watermark) {
+        pending.sort(Comparator.comparingLong(Bucket::getEpochBucket));
+
+        int appended = 0;
+        while (appended < pending.size() && pending.get(appended).getEpochBucket() < watermark) {
+            Bucket bucket = pending.get(appended++);
+            // a bucket may be expired twice if a value raced with its removal
+            while (appended < pending.size() && pending.get(appended).getEpochBucket() == bucket.getEpochBucket()) {
+                bucket = BucketStatsAggregator.DEFAULT_BUCKET_REDUCER.apply(bucket, pending.get(appended++));
+            }
+            if (!archive.append(bucket)) {
+                LOG.warn("Dropped out of order bucket {} at {}", bucket.getEpochBucket(), timeline.bucketStart(bucket.getEpochBucket()));
+            }
+        }
+        pending.subList(0, appended).clear();
+    }
+
+    /**
+     * Stop archiving, append buckets which have already expired along with buckets
+     * of the current window and close the archive, so no bucket is lost on shutdown.
+     * Values should not be added after close.
+     */
+    @Override
+    public void close() throws Exception {
+        archiver.shutdownNow();
+        archiver.awaitTermination(1, TimeUnit.SECONDS);
+        synchronized (this) {
+            archive();
+            pending.addAll(delegate.exportBuckets().getBuckets());
+            appendPending(Long.MAX_VALUE);
+        }
+        archive.close();
+    }
+
+    private void archiveSafely() {
+        try {
+            archive();
+        } catch (RuntimeException e) {
+            LOG.error("Failed to archive expired buckets", e);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import com.akholodok.stats.aggregator.service.BucketStatsAggregator.Bucket;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.IntPredicate;
+
+/**
+ * Append-only archive of buckets which have left aggregation window,
+ * stored column by column in memory-mapped files.
+ * <p>
+ * Each level is a directory of five column files: bucket start in epoch millis, count, min, max and sum,
+ * 8 bytes per row, rows ordered by time. Level 0 holds archived buckets as they are, every next level
+ * holds coarser rollups of them, e.g. minutes and hours. Time of a row is written last and is never zero,
+ * so number of rows is found on open by binary search for the first zero time.
+ * Rollup row is appended once the first bucket of the next period arrives; rows of a period
+ * which was not complete yet on close are rebuilt from level 0 on open.
+ * <p>
+ * Range is answered by the coarsest level for the part covered by its whole rows and by finer levels
+ * for the edges only. Rows are found by binary search on the time column and reduced sequentially,
+ * so a range of days does not scan every bucket of these days.
+ * <p>
+ * Archive is appended by a single thread, while ranges could be queried concurrently.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * For L levels and N archived buckets:
+ * {@link BucketArchive#append(Bucket)} - amortized O(L);
+ * {@link BucketArchive#getStats(long, long)} - O(L * log(N)) plus number of rows in range
+ * at the coarsest level and number of rows at the edges at finer levels;
+ * file size - 40 bytes per row
+ */
+public class BucketArchive implements AutoCloseable {
+
+    static final int INITIAL_ROWS = 64 * 1024;
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final Level[] levels;
+    private volatile long dropped;
+
+    /**
+     * @param bucketWidth Width of archived buckets.
+     * @param rollups Widths of rollup levels, each one should be a multiple of the previous one.
+     */
+    public BucketArchive(Path directory, Duration bucketWidth, List<Duration> rollups) {
+        this.levels = new Level[rollups.size() + 1];
+        try {
+            levels[0] = new Level(directory, bucketWidth.toMillis());
+            for (int i = 1; i < levels.length; ++i) {
+                long widthMillis = rollups.get(i - 1).toMillis();
+                if (widthMillis <= levels[i - 1].widthMillis || widthMillis % levels[i - 1].widthMillis != 0) {
+                    throw new IllegalArgumentException(
+                        "Rollup width " + rollups.get(i - 1) + " should be a multiple of " + Duration.ofMillis(levels[i - 1].widthMillis));
+                }
+                levels[i] = new Level(directory, widthMillis);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open bucket archive in " + directory, e);
+        }
+        recoverRollups();
+    }
+
+    private static final class Column {
+
+        private final FileChannel channel;
+        // replaced by a bigger mapping when full, previous one stays valid for concurrent readers
+        private volatile MappedByteBuffer buffer;
+
+        Column(Path file) throws IOException {
+            this.channel = FileChannel.open(
+                file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(
+                FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), (long) INITIAL_ROWS * Long.BYTES));
+        }
+
+        int capacity() {
+            return buffer.capacity() / Long.BYTES;
+        }
+
+        void ensureCapacity(int rows) throws IOException {
+            int capacity = capacity();
+            if (rows > capacity) {
+                if (capacity > Integer.MAX_VALUE / Long.BYTES / 2) {
+                    throw new IOException("Column is full: " + capacity + " rows");
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * 2 * Long.BYTES);
+            }
+        }
+
+        long getLong(int row) {
+            return buffer.getLong(row * Long.BYTES);
+        }
+
+        double getDouble(int row) {
+            return buffer.getDouble(row * Long.BYTES);
+        }
+
+        void putLong(int row, long value) {
+            buffer.putLong(row * Long.BYTES, value);
+        }
+
+        void putDouble(int row, double value) {
+            buffer.putDouble(row * Long.BYTES, value);
+        }
+
+        void close() throws IOException {
+            buffer.force();
+            channel.close();
+        }
+    }
+
+    private static final class Level {
+
+        private final long widthMillis;
+        private final Column time;
+        private final Column count;
+        private final Column min;
+        private final Column max;
+        private final Column sum;
+        private volatile int rows;
+
+        // rollup row which is not complete yet, accessed by appending thread only
+        private long openStart = NONE;
+        private long openCount;
+        private double openMin;
+        private double openMax;
+        private double openSum;
+
+        Level(Path directory, long widthMillis) throws IOException {
+            Path levelDirectory = directory.resolve(widthMillis + "ms");
+            Files.createDirectories(levelDirectory);
+            this.widthMillis = widthMillis;
+            this.time = new Column(levelDirectory.resolve("time.col"));
+            this.count = new Column(levelDirectory.resolve("count.col"));
+            this.min = new Column(levelDirectory.resolve("min.col"));
+            this.max = new Column(levelDirectory.resolve("max.col"));
+            this.sum = new Column(levelDirectory.resolve("sum.col"));
+            this.rows = firstRow(time.capacity(), row -> time.getLong(row) == 0);
+        }
+
+        long start(int row) {
+            return time.getLong(row);
+        }
+
+        // end of the last row, all rows of this level start before it
+        long end(int rows) {
+            return rows == 0 ? NONE : start(rows - 1) + widthMillis;
+        }
+
+        void append(long start, long count, double min, double max, double sum) throws IOException {
+            int row = rows;
+            for (Column column : new Column[]{this.time, this.count, this.min, this.max, this.sum}) {
+                column.ensureCapacity(row + 1);
+            }
+            this.count.putLong(row, count);
+            this.min.putDouble(row, min);
+            this.max.putDouble(row, max);
+            this.sum.putDouble(row, sum);
+            this.time.putLong(row, start);
+            rows = row + 1;
+        }
+
+        // first of rows which starts at or after startMillis
+        int lowerBound(long startMillis, int rows) {
+            return firstRow(rows, row -> start(row) >= startMillis);
+        }
+
+        void reduce(int from, int to, Accumulator accumulator) {
+            for (int row = from; row < to; ++row) {
+                accumulator.add(count.getLong(row), min.getDouble(row), max.getDouble(row), sum.getDouble(row));
+            }
+        }
+
+        void close() throws IOException {
+            for (Column column : new Column[]{time, count, min, max, sum}) {
+                column.close();
+            }
+        }
+    }
+
+    private static final class Accumulator {
+
+        private long count;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum;
+
+        void add(long count, double min, double max, double sum) {
+            this.count += count;
+            this.min = Math.min(this.min, min);
+            this.max = Math.max(this.max, max);
+            this.sum += sum;
+        }
+
+        Optional<Stats> toStats() {
+            return count > 0
+                ? Optional.of(new Stats(count, min, max, sum))
+                : Optional.empty();
+        }
+    }
+
+    /**
+     * Append bucket, which should start after any bucket appended before.
+     *
+     * @return {@code false} if bucket is out of order and has been dropped.
+     */
+    public boolean append(Bucket bucket) {
+        Level raw = levels[0];
+        long start = bucket.getEpochBucket() * raw.widthMillis;
+        int rows = raw.rows;
+        if (rows > 0 && start <= raw.start(rows - 1)) {
+            ++dropped;
+            return false;
+        }
+        try {
+            raw.append(start, bucket.getCount(), bucket.getMin(), bucket.getMax(), bucket.getSum());
+            for (int i = 1; i < levels.length; ++i) {
+                rollUp(levels[i], start, bucket.getCount(), bucket.getMin(), bucket.getMax(), bucket.getSum());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append bucket to archive", e);
+        }
+        return true;
+    }
+
+    /**
+     * Get stats of archived buckets which start in {@code [fromMillis, toMillis)}.
+     */
+    public Optional<Stats> getStats(long fromMillis, long toMillis) {
+        Accumulator accumulator = new Accumulator();
+        collect(levels.length - 1, fromMillis, toMillis, accumulator);
+        return accumulator.toStats();
+    }
+
+    /**
+     * Get number of archived buckets.
+     */
+    public int getRows() {
+        return levels[0].rows;
+    }
+
+    /**
+     * Get number of buckets dropped as out of order.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (Level level : levels) {
+            level.close();
+        }
+    }
+
+    private void collect(int level, long fromMillis, long toMillis, Accumulator accumulator) {
+        if (fromMillis >= toMillis) {
+            return;
+        }
+        Level current = levels[level];
+        int rows = current.rows;
+        if (level == 0) {
+            current.reduce(current.lowerBound(fromMillis, rows), current.lowerBound(toMillis, rows), accumulator);
+            return;
+        }
+
+        // whole rows of this level within the range, later periods may still be incomplete
+        long width = current.widthMillis;
+        long lo = Math.floorDiv(fromMillis + width - 1, width) * width;
+        long hi = Math.min(Math.floorDiv(toMillis, width) * width, current.end(rows));
+        if (lo >= hi) {
+            collect(level - 1, fromMillis, toMillis, accumulator);
+            return;
+        }
+        current.reduce(current.lowerBound(lo, rows), current.lowerBound(hi, rows), accumulator);
+        collect(level - 1, fromMillis, lo, accumulator);
+        collect(level - 1, hi, toMillis, accumulator);
+    }
+
+    private void rollUp(Level level, long start, long count, double min, double max, double sum) throws IOException {
+        long periodStart = Math.floorDiv(start, level.widthMillis) * level.widthMillis;
+        if (level.openStart != NONE && level.openStart != periodStart) {
+            level.append(level.openStart, level.openCount, level.openMin, level.openMax, level.openSum);
+            level.openStart = NONE;
+        }
+        if (level.openStart == NONE) {
+            level.openStart = periodStart;
+            level.openCount = count;
+            level.openMin = min;
+            level.openMax = max;
+            level.openSum = sum;
+        } else {
+            level.openCount += count;
+            level.openMin = Math.min(level.openMin, min);
+            level.openMax = Math.max(level.openMax, max);
+            level.openSum += sum;
+        }
+    }
+
+    // rebuild rollup rows which were not complete on close from archived buckets
+    private void recoverRollups() {
+        Level raw = levels[0];
+        int rows = raw.rows;
+        try {
+            for (int i = 1; i < levels.length; ++i) {
+                Level level = levels[i];
+                long end = level.end(level.rows);
+                for (int row = end == NONE ? 0 : raw.lowerBound(end, rows); row < rows; ++row) {
+                    rollUp(level, raw.start(row),
+                        raw.count.getLong(row), raw.min.getDouble(row), raw.max.getDouble(row), raw.sum.getDouble(row));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to recover archive rollups", e);
+        }
+    }
+
+    // first of [0, rows) which satisfies predicate, predicate should be monotonic
+    private static int firstRow(int rows, IntPredicate predicate) {
+        int lo = 0;
+        int hi = rows;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (predicate.test(mid)) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+}
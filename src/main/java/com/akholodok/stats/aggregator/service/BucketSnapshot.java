@@ -0,0 +1,97 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.service.BucketStatsAggregator.Bucket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Raw buckets of aggregation window, which can be written into a compact binary form
+ * and merged with buckets of other aggregators of the same bucket width.
+ * <p>
+ * Binary layout (big-endian): {@code [magic:int][version:int][bucketMillis:long][buckets:int]},
+ * then {@code [epochBucket:long][count:long][min:double][max:double][sum:double]} per bucket.
+ */
+public final class BucketSnapshot {
+
+    static final int MAGIC = 0x53414743;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 20;
+    static final int BUCKET_BYTES = 40;
+
+    private final long bucketMillis;
+    private final List<Bucket> buckets;
+
+    BucketSnapshot(Duration bucketWidth, List<Bucket> buckets) {
+        this.bucketMillis = bucketWidth.toMillis();
+        this.buckets = Collections.unmodifiableList(buckets);
+    }
+
+    public Duration getBucketWidth() {
+        return Duration.ofMillis(bucketMillis);
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    List<Bucket> getBuckets() {
+        return buckets;
+    }
+
+    public void writeTo(DataOutput output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(bucketMillis);
+        output.writeInt(buckets.size());
+        for (Bucket bucket : buckets) {
+            output.writeLong(bucket.getEpochBucket());
+            output.writeLong(bucket.getCount());
+            output.writeDouble(bucket.getMin());
+            output.writeDouble(bucket.getMax());
+            output.writeDouble(bucket.getSum());
+        }
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_BYTES + buckets.size() * BUCKET_BYTES);
+        try {
+            writeTo(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read snapshot written by {@link BucketSnapshot#writeTo(DataOutput)}.
+     *
+     * @throws IOException if input is not a snapshot or is truncated
+     */
+    public static BucketSnapshot readFrom(DataInput input) throws IOException {
+        int magic = input.readInt();
+        int version = input.readInt();
+        if (magic != MAGIC || version != VERSION) {
+            throw new IOException("Unknown bucket snapshot format: " + magic + " v" + version);
+        }
+        long bucketMillis = input.readLong();
+        int count = input.readInt();
+        if (bucketMillis <= 0 || count < 0) {
+            throw new IOException("Malformed bucket snapshot header: " + bucketMillis + "ms x " + count);
+        }
+        List<Bucket> buckets = new ArrayList<>(Math.min(count, 1 << 16));
+        for (int i = 0; i < count; ++i) {
+            buckets.add(new Bucket(
+                input.readLong(), input.readLong(), input.readDouble(), input.readDouble(), input.readDouble()));
+        }
+        return new BucketSnapshot(Duration.ofMillis(bucketMillis), buckets);
+    }
+}
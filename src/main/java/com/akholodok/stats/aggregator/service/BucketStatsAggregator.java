@@ -2,76 +2,137 @@ package com.akholodok.stats.aggregator.service;
 
 import com.akholodok.stats.aggregator.model.Stats;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
  * Statistics aggregator which is based on bucketing.
- * Each bucket represents aggregated statistics for specific second.
+ * Each bucket represents aggregated statistics for specific time interval
+ * of configurable width (one second by default).
  * <p>
  * <b>Complexity:</b>
  * <p>
- * For duration K, where 1 < K << N:
+ * For number of buckets K, where 1 < K << N:
  * {@link BucketStatsAggregator#add(Instant, double)} - complexity if O(1);
  * {@link BucketStatsAggregator#getStats()} (Instant, double)} - complexity if O(1);
  * memory consumption - O(1)
  * <p>
- * For duration K, where K == N, prefer to use another implementation, since:
+ * For number of buckets K, where K == N, prefer to use another implementation, since:
  * {@link BucketStatsAggregator#add(Instant, double)} - complexity if O(N);
  * {@link BucketStatsAggregator#getStats()} (Instant, double)} - complexity if O(N);
  * memory consumption - O(N)
  */
-public class BucketStatsAggregator implements StatsAggregator {
+public class BucketStatsAggregator implements ExportingStatsAggregator, InstrumentedStatsAggregator {
 
     public static final BinaryOperator<Bucket> DEFAULT_BUCKET_REDUCER =
         (b1, b2) -> new Bucket(
-            b1.epochSeconds,
+            b1.epochBucket,
             b1.count + b2.count,
             Math.min(b1.min, b2.min),
             Math.max(b1.max, b2.max),
             b1.sum + b2.sum);
 
+    private final BucketTimeline timeline;
     private final AtomicReferenceArray<Bucket> buckets;
     private final TimeSource timeSource;
     private final BinaryOperator<Bucket> bucketReducer;
+    private final Consumer<Bucket> expiredBucketListener;
 
+    // counted off the fast path: accepted values are counted per bucket once it leaves the ring
+    private final LongAdder expiredCount = new LongAdder();
+    private final LongAdder staleCount = new LongAdder();
+    private final LongAdder futureCount = new LongAdder();
+    private final LongAdder casRetries = new LongAdder();
+    private final AtomicLong reportedAcceptedCount = new AtomicLong();
+
+    /**
+     * @param expiredBucketListener Receives every bucket once it leaves the ring, either overwritten
+     *                              by a newer bucket or removed by {@link BucketStatsAggregator#expire()}.
+     */
     public BucketStatsAggregator(int duration,
+                                 Duration bucketWidth,
                                  TimeSource timeSource,
-                                 BinaryOperator<Bucket> bucketReducer) {
-        this.buckets = new AtomicReferenceArray<>(duration);
+                                 BinaryOperator<Bucket> bucketReducer,
+                                 Consumer<Bucket> expiredBucketListener) {
+        this.timeline = new BucketTimeline(duration, bucketWidth);
+        this.buckets = new AtomicReferenceArray<>(timeline.getBuckets());
         this.timeSource = timeSource;
         this.bucketReducer = bucketReducer;
+        this.expiredBucketListener = expiredBucketListener;
+    }
+
+    public BucketStatsAggregator(int duration,
+                                 Duration bucketWidth,
+                                 TimeSource timeSource,
+                                 BinaryOperator<Bucket> bucketReducer) {
+        this(duration, bucketWidth, timeSource, bucketReducer, bucket -> { });
     }
 
     public BucketStatsAggregator(int duration,
+                                 Duration bucketWidth,
                                  TimeSource timeSource) {
-        this(duration, timeSource, DEFAULT_BUCKET_REDUCER);
+        this(duration, bucketWidth, timeSource, DEFAULT_BUCKET_REDUCER);
+    }
+
+    public BucketStatsAggregator(int duration,
+                                 TimeSource timeSource) {
+        this(duration, BucketTimeline.DEFAULT_BUCKET_WIDTH, timeSource);
     }
 
     static class Bucket {
 
-        // number of seconds since unix epoch
-        private final long epochSeconds;
+        // number of bucket widths since unix epoch
+        private final long epochBucket;
 
         private final long count;
         private final double min;
         private final double max;
         private final double sum;
 
-        Bucket(long epochSeconds, long count, double min, double max, double sum) {
+        Bucket(long epochBucket, long count, double min, double max, double sum) {
             this.count = count;
             this.min = min;
             this.max = max;
             this.sum = sum;
-            this.epochSeconds = epochSeconds;
+            this.epochBucket = epochBucket;
+        }
+
+        Bucket(double value, long epochBucket) {
+            this(epochBucket, 1, value, value, value);
         }
 
-        Bucket(double value, long epochSeconds) {
-            this(epochSeconds, 1, value, value, value);
+        long getEpochBucket() {
+            return epochBucket;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        double getMin() {
+            return min;
+        }
+
+        double getMax() {
+            return max;
+        }
+
+        double getSum() {
+            return sum;
+        }
+
+        Stats toStats() {
+            return new Stats(count, min, max, sum);
         }
 
         @Override
@@ -83,7 +144,7 @@ public class BucketStatsAggregator implements StatsAggregator {
                 return false;
             }
             Bucket bucket = (Bucket) o;
-            return epochSeconds == bucket.epochSeconds &&
+            return epochBucket == bucket.epochBucket &&
                 count == bucket.count &&
                 Double.compare(bucket.min, min) == 0 &&
                 Double.compare(bucket.max, max) == 0 &&
@@ -92,59 +153,145 @@ public class BucketStatsAggregator implements StatsAggregator {
 
         @Override
         public int hashCode() {
-            return Objects.hash(epochSeconds, count, min, max, sum);
+            return Objects.hash(epochBucket, count, min, max, sum);
         }
     }
 
     @Override
     public boolean add(Instant timestamp, double value) {
+        return add(timestamp, 1, value, value, value);
+    }
+
+    @Override
+    public boolean add(Instant timestamp, Stats partial) {
+        return add(timestamp, partial.getCount(), partial.getMin(), partial.getMax(), partial.getSum());
+    }
+
+    private boolean add(Instant timestamp, long count, double min, double max, double sum) {
 
         Bucket oldBucket;
         Bucket newBucket;
         int index;
+        boolean retry = false;
 
         do {
-            if (!isValidTimestamp(timeSource.now(), timestamp)) {
+            if (retry) {
+                casRetries.increment();
+            }
+            retry = true;
+
+            Instant now = timeSource.now();
+            if (!isValidTimestamp(now, timestamp)) {
+                (timestamp.isAfter(now) ? futureCount : staleCount).increment();
                 return false;
             }
 
-            long statEpochSeconds = timestamp.getEpochSecond();
-            index = (int) (statEpochSeconds % buckets.length());
+            long statEpochBucket = timeline.epochBucket(timestamp);
+            index = timeline.index(statEpochBucket);
             oldBucket = buckets.get(index);
 
-            newBucket = new Bucket(value, statEpochSeconds);
+            newBucket = new Bucket(statEpochBucket, count, min, max, sum);
             // if oldBucket has no value yet or it is associated with timestamp
             // which is older than aggregation duration window - just insert newBucket
             // otherwise - merge old and new
-            if (oldBucket != null && statEpochSeconds == oldBucket.epochSeconds) {
+            if (oldBucket != null && statEpochBucket == oldBucket.epochBucket) {
                 newBucket = bucketReducer.apply(oldBucket, newBucket);
             }
 
         } while (!buckets.compareAndSet(index, oldBucket, newBucket));
 
+        if (oldBucket != null && oldBucket.epochBucket != newBucket.epochBucket) {
+            expiredCount.add(oldBucket.count);
+            expiredBucketListener.accept(oldBucket);
+        }
         return true;
     }
 
     @Override
     public Optional<Stats> getStats() {
 
-        long end = timeSource.now().getEpochSecond() + 1;
-        long start = end - getDuration();
+        Instant now = timeSource.now();
+        long start = timeline.windowStart(now);
+        long end = timeline.windowEnd(now);
 
         return IntStream.range(0, buckets.length())
             .mapToObj(buckets::get)
             .filter(Objects::nonNull)
-            .filter(bucket -> bucket.epochSeconds >= start && bucket.epochSeconds < end)
+            .filter(bucket -> bucket.epochBucket >= start && bucket.epochBucket < end)
             .reduce(bucketReducer)
-            .map(bucket -> new Stats(bucket.count, bucket.min, bucket.max, bucket.sum));
+            .map(Bucket::toStats);
+    }
+
+    @Override
+    public BucketSnapshot exportBuckets() {
+        Instant now = timeSource.now();
+        long start = timeline.windowStart(now);
+        long end = timeline.windowEnd(now);
+
+        List<Bucket> windowBuckets = IntStream.range(0, buckets.length())
+            .mapToObj(buckets::get)
+            .filter(Objects::nonNull)
+            .filter(bucket -> bucket.epochBucket >= start && bucket.epochBucket < end)
+            .collect(Collectors.toList());
+        return new BucketSnapshot(timeline.getBucketWidth(), windowBuckets);
+    }
+
+    /**
+     * Remove buckets which have left the window, but were not overwritten yet,
+     * e.g. because nothing was added for a while, and pass them to expired bucket listener.
+     *
+     * @return Number of removed buckets.
+     */
+    public int expire() {
+        long start = timeline.windowStart(timeSource.now());
+        int expired = 0;
+        for (int index = 0; index < buckets.length(); ++index) {
+            Bucket bucket = buckets.get(index);
+            if (bucket != null && bucket.epochBucket < start && buckets.compareAndSet(index, bucket, null)) {
+                expiredCount.add(bucket.count);
+                expiredBucketListener.accept(bucket);
+                ++expired;
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public IngestMetrics getIngestMetrics() {
+        long start = timeline.windowStart(timeSource.now());
+        // expired buckets are counted before the ring is read, so a bucket expiring
+        // meanwhile could only be missed and never counted twice
+        long accepted = expiredCount.sum();
+        int occupied = 0;
+        for (int index = 0; index < buckets.length(); ++index) {
+            Bucket bucket = buckets.get(index);
+            if (bucket != null) {
+                accepted += bucket.count;
+                if (bucket.epochBucket >= start) {
+                    ++occupied;
+                }
+            }
+        }
+        return new IngestMetrics(
+            reportedAcceptedCount.accumulateAndGet(accepted, Math::max),
+            staleCount.sum(),
+            futureCount.sum(),
+            casRetries.sum(),
+            occupied,
+            buckets.length());
     }
 
     @Override
     public int getDuration() {
-        return buckets.length();
+        return timeline.getDuration();
+    }
+
+    @Override
+    public Duration getBucketWidth() {
+        return timeline.getBucketWidth();
     }
 
     private boolean isValidTimestamp(Instant now, Instant timestamp) {
-        return (now.getEpochSecond() - timestamp.getEpochSecond() < getDuration()) && !timestamp.isAfter(now);
+        return timeline.isValidTimestamp(now, timestamp);
     }
 }
@@ -0,0 +1,100 @@
+package com.akholodok.stats.aggregator.service;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Splits time into buckets of fixed width and maps them onto a ring of
+ * {@link BucketTimeline#getBuckets()} slots, which together cover
+ * aggregation window of {@link BucketTimeline#getDuration()} seconds.
+ * <p>
+ * Bucket is identified by number of bucket widths since Unix Epoch:
+ * {@code [epochBucket * width, (epochBucket + 1) * width)}.
+ */
+final class BucketTimeline {
+
+    static final Duration DEFAULT_BUCKET_WIDTH = Duration.ofSeconds(1);
+
+    private final int duration;
+    private final long bucketMillis;
+    private final int buckets;
+
+    BucketTimeline(int duration, Duration bucketWidth) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("Duration should be positive: " + duration);
+        }
+        long bucketMillis = bucketWidth.toMillis();
+        if (bucketMillis <= 0 || bucketWidth.compareTo(Duration.ofMillis(bucketMillis)) != 0) {
+            throw new IllegalArgumentException("Bucket width should be a positive number of milliseconds: " + bucketWidth);
+        }
+        long durationMillis = duration * 1000L;
+        if (durationMillis % bucketMillis != 0 || durationMillis / bucketMillis > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                "Duration " + duration + "s should be split into a whole number of " + bucketWidth + " buckets");
+        }
+        this.duration = duration;
+        this.bucketMillis = bucketMillis;
+        this.buckets = (int) (durationMillis / bucketMillis);
+    }
+
+    /**
+     * Get number of bucket widths since Unix Epoch for {@code timestamp}.
+     */
+    long epochBucket(Instant timestamp) {
+        return epochBucket(timestamp.toEpochMilli());
+    }
+
+    /**
+     * Get number of bucket widths since Unix Epoch for {@code epochMilli} milliseconds since Unix Epoch.
+     */
+    long epochBucket(long epochMilli) {
+        return epochMilli / bucketMillis;
+    }
+
+    /**
+     * Get start of bucket {@code epochBucket}.
+     */
+    Instant bucketStart(long epochBucket) {
+        return Instant.ofEpochMilli(epochBucket * bucketMillis);
+    }
+
+    /**
+     * Get index of the ring slot which holds bucket {@code epochBucket}.
+     */
+    int index(long epochBucket) {
+        return (int) (epochBucket % buckets);
+    }
+
+    /**
+     * Check whether {@code timestamp} is neither obsolete nor in future at {@code now}.
+     */
+    boolean isValidTimestamp(Instant now, Instant timestamp) {
+        return (epochBucket(now) - epochBucket(timestamp) < buckets) && !timestamp.isAfter(now);
+    }
+
+    /**
+     * Get first bucket (inclusive) of aggregation window at {@code now}.
+     */
+    long windowStart(Instant now) {
+        return windowEnd(now) - buckets;
+    }
+
+    /**
+     * Get last bucket (exclusive) of aggregation window at {@code now}.
+     */
+    long windowEnd(Instant now) {
+        return epochBucket(now) + 1;
+    }
+
+    int getDuration() {
+        return duration;
+    }
+
+    int getBuckets() {
+        return buckets;
+    }
+
+    Duration getBucketWidth() {
+        return Duration.ofMillis(bucketMillis);
+    }
+}
@@ -0,0 +1,216 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Statistics aggregator which caches stats of the whole window of its delegate
+ * together with their encoded form, e.g. JSON response body, so frequent polling
+ * of the same stats costs neither aggregation nor serialization.
+ * <p>
+ * Cached stats are keyed on the current tick (bucket width) and write version,
+ * which is the number of values accepted by this aggregator. Stats are recomputed
+ * once the tick changes or, when values were added meanwhile, once the cached stats
+ * are older than staleness bound. Zero staleness makes every accepted value visible
+ * to the next read. Recomputation is single-flight: concurrent readers of outdated
+ * stats wait for one of them to recompute and share the result.
+ * <p>
+ * Writes of other decorators in front of this one are not seen, so it should be
+ * the outermost decorator. Asynchronous delegates, e.g. {@link PipelinedStatsAggregator},
+ * may apply values after the version has changed, so their stats are fresh
+ * within staleness bound or tick, whichever is shorter.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * {@link CachingStatsAggregator#add(Instant, double)} - complexity of delegate plus O(1);
+ * {@link CachingStatsAggregator#getStats()} - O(1) when cached, otherwise complexity of delegate;
+ * memory consumption - memory of delegate plus O(1)
+ */
+public class CachingStatsAggregator implements DelegatingStatsAggregator, AutoCloseable {
+
+    private final StatsAggregator delegate;
+    private final Function<Stats, byte[]> encoder;
+    private final long tickMillis;
+    private final long stalenessNanos;
+    private final TimeSource timeSource;
+
+    private final LongAdder version = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Object refreshLock = new Object();
+    private volatile Entry entry;
+
+    /**
+     * @param encoder   Encodes stats once per recomputation, e.g. into JSON response body.
+     * @param tick      How often stats of the window change without writes, usually bucket width.
+     * @param staleness How long cached stats could be served after new values were added.
+     */
+    public CachingStatsAggregator(StatsAggregator delegate,
+                                  Function<Stats, byte[]> encoder,
+                                  Duration tick,
+                                  Duration staleness,
+                                  TimeSource timeSource) {
+        if (tick.toMillis() <= 0) {
+            throw new IllegalArgumentException("Tick should be at least one millisecond: " + tick);
+        }
+        if (staleness.isNegative()) {
+            throw new IllegalArgumentException("Staleness should not be negative: " + staleness);
+        }
+        this.delegate = delegate;
+        this.encoder = encoder;
+        this.tickMillis = tick.toMillis();
+        this.stalenessNanos = staleness.toNanos();
+        this.timeSource = timeSource;
+    }
+
+    /**
+     * Create caching aggregator which keeps {@link MergingStatsAggregator} capability of {@code delegate}.
+     */
+    public static CachingStatsAggregator of(StatsAggregator delegate,
+                                            Function<Stats, byte[]> encoder,
+                                            Duration tick,
+                                            Duration staleness,
+                                            TimeSource timeSource) {
+        return delegate instanceof MergingStatsAggregator
+            ? new Merging((MergingStatsAggregator) delegate, encoder, tick, staleness, timeSource)
+            : new CachingStatsAggregator(delegate, encoder, tick, staleness, timeSource);
+    }
+
+    /**
+     * Caching aggregator of {@link MergingStatsAggregator}, so batches are still merged per bucket.
+     */
+    public static class Merging extends CachingStatsAggregator implements MergingStatsAggregator {
+
+        private final MergingStatsAggregator delegate;
+
+        public Merging(MergingStatsAggregator delegate,
+                       Function<Stats, byte[]> encoder,
+                       Duration tick,
+                       Duration staleness,
+                       TimeSource timeSource) {
+            super(delegate, encoder, tick, staleness, timeSource);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean add(Instant timestamp, Stats partial) {
+            return accepted(delegate.add(timestamp, partial));
+        }
+
+        @Override
+        public Duration getBucketWidth() {
+            return delegate.getBucketWidth();
+        }
+    }
+
+    private static final class Entry {
+
+        private final long tick;
+        private final long version;
+        private final long computedNanos;
+        private final Optional<Stats> stats;
+        // null if there are no stats
+        private final byte[] encoded;
+
+        Entry(long tick, long version, long computedNanos, Optional<Stats> stats, byte[] encoded) {
+            this.tick = tick;
+            this.version = version;
+            this.computedNanos = computedNanos;
+            this.stats = stats;
+            this.encoded = encoded;
+        }
+    }
+
+    @Override
+    public boolean add(Instant timestamp, double value) {
+        return accepted(delegate.add(timestamp, value));
+    }
+
+    // version is changed after value is added, so stats computed for the previous version never hide it
+    boolean accepted(boolean added) {
+        if (added) {
+            version.increment();
+        }
+        return added;
+    }
+
+    @Override
+    public Optional<Stats> getStats() {
+        return get().stats;
+    }
+
+    /**
+     * Get stats of the whole window encoded by encoder.
+     *
+     * @return {@code Optional.empty()} if there are no stats for the window.
+     */
+    public Optional<byte[]> getEncodedStats() {
+        return Optional.ofNullable(get().encoded);
+    }
+
+    private Entry get() {
+        long tick = timeSource.now().toEpochMilli() / tickMillis;
+        Entry cached = entry;
+        if (isValid(cached, tick)) {
+            hits.increment();
+            return cached;
+        }
+        synchronized (refreshLock) {
+            cached = entry;
+            if (isValid(cached, tick)) {
+                hits.increment();
+                return cached;
+            }
+            misses.increment();
+            // version is read before stats, so values added meanwhile make the entry outdated
+            long currentVersion = version.sum();
+            Optional<Stats> stats = delegate.getStats();
+            Entry computed = new Entry(tick, currentVersion, System.nanoTime(), stats,
+                stats.map(encoder).orElse(null));
+            entry = computed;
+            return computed;
+        }
+    }
+
+    private boolean isValid(Entry cached, long tick) {
+        return cached != null
+            && cached.tick == tick
+            && (cached.version == version.sum() || System.nanoTime() - cached.computedNanos < stalenessNanos);
+    }
+
+    /**
+     * Get number of reads served from cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get number of reads which recomputed stats.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public int getDuration() {
+        return delegate.getDuration();
+    }
+
+    @Override
+    public StatsAggregator getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (delegate instanceof AutoCloseable) {
+            ((AutoCloseable) delegate).close();
+        }
+    }
+}
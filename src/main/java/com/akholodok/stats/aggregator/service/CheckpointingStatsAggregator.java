@@ -0,0 +1,215 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import com.akholodok.stats.aggregator.service.BucketStatsAggregator.Bucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Statistics aggregator which periodically writes buckets of {@link ExportingStatsAggregator}
+ * window into a binary checkpoint file and restores them on construction.
+ * <p>
+ * Checkpoint is written into a temporary file, which is forced to disk and atomically
+ * renamed over the previous checkpoint, so a crash leaves either the old or the new one.
+ * File holds {@link BucketSnapshot} followed by {@code [crc32:long]} of the snapshot bytes.
+ * <p>
+ * Buckets which have left the window by the time of loading are discarded.
+ * Checkpoint of a different bucket width, truncated or with a broken checksum is ignored.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * For number of buckets K:
+ * checkpoint - time complexity is O(K), file size is O(K);
+ * {@link CheckpointingStatsAggregator#add(Instant, double)} and
+ * {@link CheckpointingStatsAggregator#getStats()} - complexity of delegate
+ */
+public class CheckpointingStatsAggregator implements ExportingStatsAggregator, DelegatingStatsAggregator, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CheckpointingStatsAggregator.class);
+
+    private final ExportingStatsAggregator delegate;
+    private final Path file;
+    private final Path tempFile;
+    private final ScheduledExecutorService checkpointer;
+
+    private volatile long lastCheckpointNanos;
+    private volatile long lastCheckpointBytes;
+    private volatile long checkpoints;
+
+    public CheckpointingStatsAggregator(ExportingStatsAggregator delegate, Path file, Duration interval) {
+        this.delegate = delegate;
+        this.file = file;
+        this.tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        load();
+
+        this.checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stats-aggregator-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = interval.toMillis();
+        checkpointer.scheduleWithFixedDelay(this::checkpointSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean add(Instant timestamp, double value) {
+        return delegate.add(timestamp, value);
+    }
+
+    @Override
+    public boolean add(Instant timestamp, Stats partial) {
+        return delegate.add(timestamp, partial);
+    }
+
+    @Override
+    public Optional<Stats> getStats() {
+        return delegate.getStats();
+    }
+
+    @Override
+    public int getDuration() {
+        return delegate.getDuration();
+    }
+
+    @Override
+    public StatsAggregator getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public Duration getBucketWidth() {
+        return delegate.getBucketWidth();
+    }
+
+    @Override
+    public BucketSnapshot exportBuckets() {
+        return delegate.exportBuckets();
+    }
+
+    /**
+     * Get duration of the last checkpoint in nanoseconds.
+     */
+    public long getLastCheckpointNanos() {
+        return lastCheckpointNanos;
+    }
+
+    /**
+     * Get size of the last checkpoint file in bytes.
+     */
+    public long getLastCheckpointBytes() {
+        return lastCheckpointBytes;
+    }
+
+    /**
+     * Get number of checkpoints written since start.
+     */
+    public long getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * Write checkpoint of the current window.
+     */
+    public synchronized void checkpoint() throws IOException {
+        long start = System.nanoTime();
+        BucketSnapshot snapshot = delegate.exportBuckets();
+
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileStream = new FileOutputStream(tempFile.toFile())) {
+            DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new CheckedOutputStream(fileStream, crc)));
+            snapshot.writeTo(output);
+            output.flush();
+            new DataOutputStream(fileStream).writeLong(crc.getValue());
+            fileStream.getChannel().force(true);
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        lastCheckpointNanos = System.nanoTime() - start;
+        lastCheckpointBytes = Files.size(file);
+        ++checkpoints;
+        LOG.debug("Checkpoint of {} buckets ({} bytes) written in {} us",
+            snapshot.size(), lastCheckpointBytes, lastCheckpointNanos / 1000);
+    }
+
+    /**
+     * Stop periodic checkpoints and write the final one.
+     */
+    @Override
+    public void close() throws Exception {
+        checkpointer.shutdownNow();
+        checkpointer.awaitTermination(1, TimeUnit.SECONDS);
+        checkpoint();
+        if (delegate instanceof AutoCloseable) {
+            ((AutoCloseable) delegate).close();
+        }
+    }
+
+    private void checkpointSafely() {
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Failed to write checkpoint " + file, e);
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            LOG.info("No checkpoint found at {}", file);
+            return;
+        }
+
+        long start = System.nanoTime();
+        CRC32 crc = new CRC32();
+        int restored = 0;
+        int discarded = 0;
+        try (InputStream fileStream = new BufferedInputStream(Files.newInputStream(file))) {
+            DataInputStream input = new DataInputStream(new CheckedInputStream(fileStream, crc));
+            BucketSnapshot snapshot = BucketSnapshot.readFrom(input);
+            if (new DataInputStream(fileStream).readLong() != crc.getValue()) {
+                LOG.warn("Ignoring checkpoint {} with broken checksum", file);
+                return;
+            }
+            if (!snapshot.getBucketWidth().equals(delegate.getBucketWidth())) {
+                LOG.warn("Ignoring checkpoint {} of {} buckets", file, snapshot.getBucketWidth());
+                return;
+            }
+            // buckets are restored only once the whole file is verified
+            long bucketMillis = snapshot.getBucketWidth().toMillis();
+            for (Bucket bucket : snapshot.getBuckets()) {
+                Instant bucketStart = Instant.ofEpochMilli(bucket.getEpochBucket() * bucketMillis);
+                if (delegate.add(bucketStart, bucket.toStats())) {
+                    ++restored;
+                } else {
+                    ++discarded;
+                }
+            }
+        } catch (IOException e) {
+            // checkpoint only speeds up restart, so a damaged one must not prevent it
+            LOG.warn("Ignoring unreadable checkpoint " + file, e);
+            return;
+        }
+        LOG.info("Restored {} buckets ({} discarded) from checkpoint {} in {} us",
+            restored, discarded, file, (System.nanoTime() - start) / 1000);
+    }
+}
@@ -0,0 +1,235 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import com.akholodok.stats.aggregator.service.BucketStatsAggregator.Bucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Statistics aggregator which serves global stats of several instances,
+ * each of them aggregating its own share of transactions.
+ * <p>
+ * Transactions are added into the local aggregator. Buckets of peers are fetched
+ * from their export endpoints in parallel, merged by epoch bucket with
+ * {@link BucketStatsAggregator#DEFAULT_BUCKET_REDUCER} and cached for at most
+ * {@code staleness}, so global stats lag peers by no more than {@code staleness},
+ * while local buckets are always read fresh. Window is applied on every read,
+ * so cached buckets which have left the window are not counted.
+ * <p>
+ * A peer which fails or does not respond within {@code timeout} is left out
+ * until the next fetch and counted in {@link CoordinatorStatsAggregator#getPeerFailures()}.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * For P peers and number of buckets K:
+ * {@link CoordinatorStatsAggregator#add(Instant, double)} - complexity of the local aggregator;
+ * {@link CoordinatorStatsAggregator#getStats()} - O(K) when cached, otherwise P parallel requests
+ * and O(P * K) to merge them;
+ * memory consumption - O(K)
+ */
+public class CoordinatorStatsAggregator implements ExportingStatsAggregator, DelegatingStatsAggregator, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CoordinatorStatsAggregator.class);
+
+    private final ExportingStatsAggregator local;
+    private final List<URI> peers;
+    private final BucketTimeline timeline;
+    private final long stalenessMillis;
+    private final long timeoutMillis;
+    private final TimeSource timeSource;
+    private final ExecutorService fetcher;
+    private final AtomicLong peerFailures = new AtomicLong();
+
+    private volatile PeerBuckets peerBuckets;
+
+    public CoordinatorStatsAggregator(ExportingStatsAggregator local,
+                                      List<URI> peers,
+                                      Duration staleness,
+                                      Duration timeout,
+                                      TimeSource timeSource) {
+        if (peers.isEmpty()) {
+            throw new IllegalArgumentException("At least one peer should be configured");
+        }
+        this.local = local;
+        this.peers = new ArrayList<>(peers);
+        this.timeline = new BucketTimeline(local.getDuration(), local.getBucketWidth());
+        this.stalenessMillis = staleness.toMillis();
+        this.timeoutMillis = timeout.toMillis();
+        this.timeSource = timeSource;
+        this.fetcher = Executors.newFixedThreadPool(peers.size(), runnable -> {
+            Thread thread = new Thread(runnable, "stats-aggregator-coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class PeerBuckets {
+
+        // epoch millis of the moment fetch has started
+        private final long fetchedAt;
+        private final Map<Long, Bucket> buckets;
+
+        PeerBuckets(long fetchedAt, Map<Long, Bucket> buckets) {
+            this.fetchedAt = fetchedAt;
+            this.buckets = buckets;
+        }
+    }
+
+    @Override
+    public boolean add(Instant timestamp, double value) {
+        return local.add(timestamp, value);
+    }
+
+    @Override
+    public boolean add(Instant timestamp, Stats partial) {
+        return local.add(timestamp, partial);
+    }
+
+    @Override
+    public Optional<Stats> getStats() {
+        Instant now = timeSource.now();
+        long start = timeline.windowStart(now);
+        long end = timeline.windowEnd(now);
+
+        Map<Long, Bucket> buckets = new HashMap<>(getPeerBuckets(now));
+        for (Bucket bucket : local.exportBuckets().getBuckets()) {
+            buckets.merge(bucket.getEpochBucket(), bucket, BucketStatsAggregator.DEFAULT_BUCKET_REDUCER);
+        }
+        return buckets.values().stream()
+            .filter(bucket -> bucket.getEpochBucket() >= start && bucket.getEpochBucket() < end)
+            .reduce(BucketStatsAggregator.DEFAULT_BUCKET_REDUCER)
+            .map(Bucket::toStats);
+    }
+
+    /**
+     * Export buckets of the local aggregator only, so coordinators may be peers of each other
+     * without counting the same transactions twice.
+     */
+    @Override
+    public BucketSnapshot exportBuckets() {
+        return local.exportBuckets();
+    }
+
+    @Override
+    public int getDuration() {
+        return local.getDuration();
+    }
+
+    @Override
+    public StatsAggregator getDelegate() {
+        return local;
+    }
+
+    @Override
+    public Duration getBucketWidth() {
+        return local.getBucketWidth();
+    }
+
+    /**
+     * Get number of failed or timed out peer requests since start.
+     */
+    public long getPeerFailures() {
+        return peerFailures.get();
+    }
+
+    @Override
+    public void close() throws Exception {
+        fetcher.shutdownNow();
+        if (local instanceof AutoCloseable) {
+            ((AutoCloseable) local).close();
+        }
+    }
+
+    private Map<Long, Bucket> getPeerBuckets(Instant now) {
+        PeerBuckets cached = peerBuckets;
+        if (isFresh(cached, now)) {
+            return cached.buckets;
+        }
+        // single flight: concurrent readers wait for the fetch in progress instead of starting their own
+        synchronized (this) {
+            cached = peerBuckets;
+            if (!isFresh(cached, now)) {
+                cached = fetchPeerBuckets(now);
+                peerBuckets = cached;
+            }
+            return cached.buckets;
+        }
+    }
+
+    private boolean isFresh(PeerBuckets cached, Instant now) {
+        return cached != null && now.toEpochMilli() - cached.fetchedAt < stalenessMillis;
+    }
+
+    private PeerBuckets fetchPeerBuckets(Instant now) {
+        List<Future<BucketSnapshot>> snapshots = peers.stream()
+            .map(peer -> fetcher.submit(() -> fetch(peer)))
+            .collect(Collectors.toList());
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Map<Long, Bucket> buckets = new HashMap<>();
+        for (int i = 0; i < peers.size(); ++i) {
+            URI peer = peers.get(i);
+            Future<BucketSnapshot> future = snapshots.get(i);
+            try {
+                BucketSnapshot snapshot = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (!snapshot.getBucketWidth().equals(timeline.getBucketWidth())) {
+                    throw new IOException("Peer bucket width " + snapshot.getBucketWidth()
+                        + " differs from " + timeline.getBucketWidth());
+                }
+                for (Bucket bucket : snapshot.getBuckets()) {
+                    buckets.merge(bucket.getEpochBucket(), bucket, BucketStatsAggregator.DEFAULT_BUCKET_REDUCER);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                snapshots.forEach(snapshot -> snapshot.cancel(true));
+                break;
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                peerFailures.incrementAndGet();
+                LOG.warn("Peer {} did not respond within {}ms", peer, timeoutMillis);
+            } catch (ExecutionException | IOException e) {
+                peerFailures.incrementAndGet();
+                LOG.warn("Failed to fetch buckets of peer " + peer, e instanceof ExecutionException ? e.getCause() : e);
+            }
+        }
+        return new PeerBuckets(now.toEpochMilli(), Collections.unmodifiableMap(buckets));
+    }
+
+    private BucketSnapshot fetch(URI peer) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) peer.toURL().openConnection();
+        connection.setConnectTimeout((int) timeoutMillis);
+        connection.setReadTimeout((int) timeoutMillis);
+        connection.setRequestProperty("Accept", "application/octet-stream");
+        int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            connection.disconnect();
+            throw new IOException("Unexpected response status " + status);
+        }
+        try (InputStream body = new BufferedInputStream(connection.getInputStream())) {
+            return BucketSnapshot.readFrom(new DataInputStream(body));
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.akholodok.stats.aggregator.service;
+
+import java.util.Optional;
+
+/**
+ * {@link StatsAggregator} which decorates another one, e.g. to log or pipeline its input,
+ * so capabilities of the decorated aggregator can still be found.
+ */
+public interface DelegatingStatsAggregator extends StatsAggregator {
+
+    /**
+     * Get decorated aggregator.
+     */
+    StatsAggregator getDelegate();
+
+    /**
+     * Find the first aggregator of decorator chain starting at {@code aggregator}, which has {@code capability}.
+     */
+    static <T> Optional<T> find(StatsAggregator aggregator, Class<T> capability) {
+        while (!capability.isInstance(aggregator) && aggregator instanceof DelegatingStatsAggregator) {
+            aggregator = ((DelegatingStatsAggregator) aggregator).getDelegate();
+        }
+        return Optional.of(aggregator)
+            .filter(capability::isInstance)
+            .map(capability::cast);
+    }
+}
@@ -0,0 +1,13 @@
+package com.akholodok.stats.aggregator.service;
+
+/**
+ * {@link MergingStatsAggregator} which can also export raw buckets of its aggregation window,
+ * e.g. to be merged with buckets of other instances or restored after restart.
+ */
+public interface ExportingStatsAggregator extends MergingStatsAggregator {
+
+    /**
+     * Get snapshot of buckets of the current window.
+     */
+    BucketSnapshot exportBuckets();
+}
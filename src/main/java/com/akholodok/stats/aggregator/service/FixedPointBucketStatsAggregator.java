@@ -0,0 +1,199 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics aggregator which is based on bucketing, same as {@link BucketStatsAggregator},
+ * but keeps amounts as fixed-point longs of configurable scale, e.g. cents for scale 2.
+ * <p>
+ * Amount is converted to a long once per value, rounded half up to the scale. Aggregator does not
+ * merge partial stats, since their sum would be rounded once instead of every amount, so batches
+ * are added value by value.
+ * Bucket fields are independent cells: {@link LongAdder}s for count and sum and
+ * {@link LongAccumulator}s for min and max, so concurrent writers of the same bucket
+ * never retry, contended cells are striped instead. Sum is exact, so there is no
+ * floating-point drift however many values are added. {@link Stats} are returned
+ * with the scale applied.
+ * <p>
+ * Writers share no cell besides the striped ones: writer checks that the slot holds
+ * its bucket, adds the value and checks the slot again. The writer which moves the slot
+ * to a newer bucket marks it as being reset, resets the cells and publishes the new bucket.
+ * A slot is reused only a whole window later, so a writer could race with reset only
+ * with a value of the bucket leaving the window; it sees the slot has moved on and
+ * reports the value as not added, though a part of it may remain in the newer bucket.
+ * <p>
+ * Cells of a bucket are read one by one, so a concurrent read may see a value
+ * in some of them only, e.g. in count but not yet in min, such bucket is skipped.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * Same as for {@link BucketStatsAggregator}.
+ */
+public class FixedPointBucketStatsAggregator implements StatsAggregator {
+
+    public static final int DEFAULT_SCALE = 2;
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final long RESETTING = Long.MAX_VALUE;
+
+    private final BucketTimeline timeline;
+    private final TimeSource timeSource;
+    private final int scale;
+    private final double factor;
+
+    private final AtomicLongArray epochBuckets;
+    private final LongAdder[] counts;
+    private final LongAdder[] sums;
+    private final LongAccumulator[] mins;
+    private final LongAccumulator[] maxs;
+
+    /**
+     * @param scale Number of decimal digits kept after the point, e.g. 2 for cents.
+     */
+    public FixedPointBucketStatsAggregator(int duration,
+                                           Duration bucketWidth,
+                                           int scale,
+                                           TimeSource timeSource) {
+        if (scale < 0 || scale > 9) {
+            throw new IllegalArgumentException("Scale should be between 0 and 9: " + scale);
+        }
+        this.timeline = new BucketTimeline(duration, bucketWidth);
+        this.timeSource = timeSource;
+        this.scale = scale;
+        this.factor = Math.pow(10, scale);
+
+        int buckets = timeline.getBuckets();
+        this.epochBuckets = new AtomicLongArray(buckets);
+        this.counts = new LongAdder[buckets];
+        this.sums = new LongAdder[buckets];
+        this.mins = new LongAccumulator[buckets];
+        this.maxs = new LongAccumulator[buckets];
+        for (int index = 0; index < buckets; ++index) {
+            epochBuckets.set(index, EMPTY);
+            counts[index] = new LongAdder();
+            sums[index] = new LongAdder();
+            mins[index] = new LongAccumulator(Math::min, Long.MAX_VALUE);
+            maxs[index] = new LongAccumulator(Math::max, Long.MIN_VALUE);
+        }
+    }
+
+    public FixedPointBucketStatsAggregator(int duration,
+                                           TimeSource timeSource) {
+        this(duration, BucketTimeline.DEFAULT_BUCKET_WIDTH, DEFAULT_SCALE, timeSource);
+    }
+
+    @Override
+    public boolean add(Instant timestamp, double value) {
+        long scaled = toFixedPoint(value);
+        return add(timestamp, 1, scaled, scaled, scaled);
+    }
+
+    private boolean add(Instant timestamp, long count, long min, long max, long sum) {
+
+        long statEpochBucket = timeline.epochBucket(timestamp);
+        int index = timeline.index(statEpochBucket);
+
+        while (true) {
+            if (!timeline.isValidTimestamp(timeSource.now(), timestamp)) {
+                return false;
+            }
+
+            long slotEpochBucket = epochBuckets.get(index);
+            if (slotEpochBucket == statEpochBucket) {
+                counts[index].add(count);
+                sums[index].add(sum);
+                mins[index].accumulate(min);
+                maxs[index].accumulate(max);
+                // slot has been moved on meanwhile, so the bucket has left the window along with the value
+                return epochBuckets.get(index) == statEpochBucket;
+            }
+
+            if (slotEpochBucket == RESETTING) {
+                Thread.yield();
+            } else if (slotEpochBucket > statEpochBucket) {
+                // slot was taken by a newer bucket meanwhile, so this one has just left the window
+                return false;
+            } else if (epochBuckets.compareAndSet(index, slotEpochBucket, RESETTING)) {
+                counts[index].reset();
+                sums[index].reset();
+                mins[index].reset();
+                maxs[index].reset();
+                epochBuckets.set(index, statEpochBucket);
+            }
+        }
+    }
+
+    @Override
+    public Optional<Stats> getStats() {
+
+        Instant now = timeSource.now();
+        long start = timeline.windowStart(now);
+        long end = timeline.windowEnd(now);
+
+        long count = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long sum = 0;
+        for (int index = 0; index < timeline.getBuckets(); ++index) {
+            long epochBucket = epochBuckets.get(index);
+            if (epochBucket < start || epochBucket >= end) {
+                continue;
+            }
+            long bucketCount = counts[index].sum();
+            long bucketMin = mins[index].get();
+            long bucketMax = maxs[index].get();
+            long bucketSum = sums[index].sum();
+            // bucket has been reset while being read or its values are not in all cells yet
+            if (bucketCount == 0 || bucketMin == Long.MAX_VALUE || bucketMax == Long.MIN_VALUE
+                || epochBuckets.get(index) != epochBucket) {
+                continue;
+            }
+            count += bucketCount;
+            min = Math.min(min, bucketMin);
+            max = Math.max(max, bucketMax);
+            sum += bucketSum;
+        }
+
+        return count == 0
+            ? Optional.empty()
+            : Optional.of(new Stats(count, fromFixedPoint(min), fromFixedPoint(max), fromFixedPoint(sum)));
+    }
+
+    private long toFixedPoint(double value) {
+        double scaled = value * factor;
+        if (Double.isNaN(scaled) || Math.abs(scaled) >= Long.MAX_VALUE) {
+            throw new IllegalArgumentException("Amount does not fit into fixed-point of scale " + scale + ": " + value);
+        }
+        return Math.round(scaled);
+    }
+
+    private double fromFixedPoint(long value) {
+        return value / factor;
+    }
+
+    /**
+     * Get number of decimal digits kept after the point.
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    @Override
+    public int getDuration() {
+        return timeline.getDuration();
+    }
+
+    /**
+     * Get width of a single bucket.
+     */
+    public Duration getBucketWidth() {
+        return timeline.getBucketWidth();
+    }
+}
@@ -0,0 +1,375 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import com.akholodok.stats.aggregator.service.BucketStatsAggregator.Bucket;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BinaryOperator;
+
+/**
+ * Statistics aggregator which is based on bucketing, same as {@link BucketStatsAggregator},
+ * but maintains aggregation of the whole window incrementally, so that
+ * {@link IncrementalStatsAggregator#getStats()} is a constant time read.
+ * <p>
+ * Values are added into the current bucket of the ring. Once per bucket width
+ * ticker thread seals the buckets which have ended: takes them out of the ring,
+ * adds their count and sum into running totals and pushes them into monotonic deques
+ * which keep min and max of the window. Buckets which leave the window are subtracted
+ * from running totals and polled from the deques. Values which arrive for already
+ * sealed buckets are merged directly into window totals and into pending min and max;
+ * deques, which could not be updated in the middle, are rebuilt once by the next tick,
+ * however many late values there were.
+ * <p>
+ * Window state is published as an immutable snapshot, reads combine it with the
+ * current (not yet sealed) bucket. If ticker falls behind, read performs the missing
+ * ticks itself.
+ * <p>
+ * Running sum is recomputed from scratch once per ring rotation, so that
+ * floating point error of repeated additions and subtractions does not accumulate.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * {@link IncrementalStatsAggregator#add(Instant, double)} - complexity is O(1),
+ * values of already sealed buckets take the window lock;
+ * {@link IncrementalStatsAggregator#getStats()} - complexity is O(1);
+ * tick - amortized complexity is O(1), O(K) after late values which have changed
+ * min or max of a sealed bucket, at most once per bucket width;
+ * memory consumption - O(K)
+ */
+public class IncrementalStatsAggregator implements StatsAggregator, AutoCloseable {
+
+    private final BucketTimeline timeline;
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final TimeSource timeSource;
+    private final BinaryOperator<Bucket> bucketReducer;
+
+    private ScheduledExecutorService ticker;
+
+    // window state, guarded by this
+    private final Bucket[] sealed;
+    private final Deque<Bucket> minDeque = new ArrayDeque<>();
+    private final Deque<Bucket> maxDeque = new ArrayDeque<>();
+    private long windowStart = Long.MIN_VALUE;
+    private long sealedEpochBucket = Long.MIN_VALUE;
+    private long count;
+    private double sum;
+    private long ticks;
+    // min and max of late values, not yet in the deques
+    private double lateMin = Double.POSITIVE_INFINITY;
+    private double lateMax = Double.NEGATIVE_INFINITY;
+    private boolean dequesStale;
+
+    private volatile Window window;
+
+    public IncrementalStatsAggregator(int duration,
+                                      Duration bucketWidth,
+                                      TimeSource timeSource,
+                                      BinaryOperator<Bucket> bucketReducer) {
+        this.timeline = new BucketTimeline(duration, bucketWidth);
+        this.buckets = new AtomicReferenceArray<>(timeline.getBuckets());
+        this.sealed = new Bucket[timeline.getBuckets()];
+        this.timeSource = timeSource;
+        this.bucketReducer = bucketReducer;
+    }
+
+    public IncrementalStatsAggregator(int duration,
+                                      Duration bucketWidth,
+                                      TimeSource timeSource) {
+        this(duration, bucketWidth, timeSource, BucketStatsAggregator.DEFAULT_BUCKET_REDUCER);
+    }
+
+    public IncrementalStatsAggregator(int duration,
+                                      TimeSource timeSource) {
+        this(duration, BucketTimeline.DEFAULT_BUCKET_WIDTH, timeSource);
+    }
+
+    private static class Window {
+
+        // last sealed bucket, the next one is the current bucket
+        private final long sealedEpochBucket;
+
+        private final long count;
+        private final double min;
+        private final double max;
+        private final double sum;
+
+        Window(long sealedEpochBucket, long count, double min, double max, double sum) {
+            this.sealedEpochBucket = sealedEpochBucket;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.sum = sum;
+        }
+    }
+
+    /**
+     * Start ticker thread which seals buckets once per bucket width.
+     */
+    public synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stats-aggregator-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long bucketMillis = timeline.getBucketWidth().toMillis();
+        long delay = bucketMillis - timeSource.now().toEpochMilli() % bucketMillis;
+        ticker.scheduleAtFixedRate(this::tick, delay, bucketMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop ticker thread. Reads keep working, but have to perform ticks themselves.
+     */
+    @Override
+    public synchronized void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    @Override
+    public boolean add(Instant timestamp, double value) {
+
+        Bucket oldBucket;
+        Bucket newBucket;
+        int index;
+
+        do {
+            if (!isValidTimestamp(timeSource.now(), timestamp)) {
+                return false;
+            }
+
+            long statEpochBucket = timeline.epochBucket(timestamp);
+            index = timeline.index(statEpochBucket);
+            oldBucket = buckets.get(index);
+
+            newBucket = new Bucket(value, statEpochBucket);
+            if (oldBucket != null && statEpochBucket == oldBucket.getEpochBucket()) {
+                if (isSealed(oldBucket)) {
+                    return addSealed(newBucket);
+                }
+                newBucket = bucketReducer.apply(oldBucket, newBucket);
+            } else if (oldBucket != null && statEpochBucket < oldBucket.getEpochBucket()) {
+                // slot is already taken by a bucket which is newer than the window
+                return false;
+            }
+
+        } while (!buckets.compareAndSet(index, oldBucket, newBucket));
+
+        return true;
+    }
+
+    @Override
+    public Optional<Stats> getStats() {
+
+        long nowEpochBucket = timeline.epochBucket(timeSource.now());
+
+        while (true) {
+            Window current = window;
+            if (current == null || current.sealedEpochBucket + 1 < nowEpochBucket) {
+                tick();
+                continue;
+            }
+
+            long currentEpochBucket = current.sealedEpochBucket + 1;
+            Bucket bucket = buckets.get(timeline.index(currentEpochBucket));
+
+            // current bucket could have been sealed meanwhile, then it is already
+            // a part of the newer window state
+            if (current != window) {
+                continue;
+            }
+
+            long count = current.count;
+            double min = current.min;
+            double max = current.max;
+            double sum = current.sum;
+            if (bucket != null && bucket.getEpochBucket() == currentEpochBucket && !isSealed(bucket)) {
+                count += bucket.getCount();
+                min = Math.min(min, bucket.getMin());
+                max = Math.max(max, bucket.getMax());
+                sum += bucket.getSum();
+            }
+
+            return count > 0
+                ? Optional.of(new Stats(count, min, max, sum))
+                : Optional.empty();
+        }
+    }
+
+    @Override
+    public int getDuration() {
+        return timeline.getDuration();
+    }
+
+    public Duration getBucketWidth() {
+        return timeline.getBucketWidth();
+    }
+
+    /**
+     * Seal all buckets which have ended and expire all buckets which have left the window.
+     */
+    synchronized void tick() {
+
+        Instant now = timeSource.now();
+        long nowEpochBucket = timeline.epochBucket(now);
+        long newWindowStart = timeline.windowStart(now);
+        if (sealedEpochBucket >= nowEpochBucket - 1 && window != null) {
+            return;
+        }
+
+        if (dequesStale) {
+            rebuildDeques();
+        }
+
+        // expire buckets which have left the window
+        if (windowStart == Long.MIN_VALUE || newWindowStart - windowStart >= sealed.length) {
+            Arrays.fill(sealed, null);
+            count = 0;
+            sum = 0.0;
+        } else {
+            for (long epochBucket = windowStart; epochBucket < newWindowStart; ++epochBucket) {
+                int index = timeline.index(epochBucket);
+                Bucket bucket = sealed[index];
+                if (bucket != null && bucket.getEpochBucket() == epochBucket) {
+                    count -= bucket.getCount();
+                    sum -= bucket.getSum();
+                    sealed[index] = null;
+                }
+            }
+        }
+        while (!minDeque.isEmpty() && minDeque.peekFirst().getEpochBucket() < newWindowStart) {
+            minDeque.pollFirst();
+        }
+        while (!maxDeque.isEmpty() && maxDeque.peekFirst().getEpochBucket() < newWindowStart) {
+            maxDeque.pollFirst();
+        }
+        windowStart = newWindowStart;
+
+        // seal buckets which have ended
+        for (long epochBucket = Math.max(sealedEpochBucket + 1, newWindowStart);
+             epochBucket < nowEpochBucket;
+             ++epochBucket) {
+            Bucket bucket = buckets.getAndSet(timeline.index(epochBucket), sealedBucket(epochBucket));
+            if (bucket != null && bucket.getEpochBucket() == epochBucket && !isSealed(bucket)) {
+                sealed[timeline.index(epochBucket)] = bucket;
+                count += bucket.getCount();
+                sum += bucket.getSum();
+                pushMin(bucket);
+                pushMax(bucket);
+            }
+        }
+        sealedEpochBucket = nowEpochBucket - 1;
+
+        if (++ticks % sealed.length == 0 || count == 0) {
+            recomputeSum();
+        }
+        publish();
+    }
+
+    private synchronized boolean addSealed(Bucket valueBucket) {
+
+        long epochBucket = valueBucket.getEpochBucket();
+        if (epochBucket < windowStart) {
+            // bucket has already left the window
+            return false;
+        }
+
+        int index = timeline.index(epochBucket);
+        Bucket oldBucket = sealed[index];
+        if (oldBucket != null && oldBucket.getEpochBucket() == epochBucket) {
+            sealed[index] = bucketReducer.apply(oldBucket, valueBucket);
+        } else {
+            oldBucket = null;
+            sealed[index] = valueBucket;
+        }
+        count += valueBucket.getCount();
+        sum += valueBucket.getSum();
+
+        // deques keep buckets ordered by time, so a bucket in the middle
+        // of the window could be only updated by rebuilding them, which is left to the next tick
+        if (oldBucket == null
+            || valueBucket.getMin() < oldBucket.getMin()
+            || valueBucket.getMax() > oldBucket.getMax()) {
+            lateMin = Math.min(lateMin, valueBucket.getMin());
+            lateMax = Math.max(lateMax, valueBucket.getMax());
+            dequesStale = true;
+        }
+
+        publish();
+        return true;
+    }
+
+    private void rebuildDeques() {
+        minDeque.clear();
+        maxDeque.clear();
+        for (long epochBucket = windowStart; epochBucket <= sealedEpochBucket; ++epochBucket) {
+            Bucket bucket = sealed[timeline.index(epochBucket)];
+            if (bucket != null && bucket.getEpochBucket() == epochBucket) {
+                pushMin(bucket);
+                pushMax(bucket);
+            }
+        }
+        lateMin = Double.POSITIVE_INFINITY;
+        lateMax = Double.NEGATIVE_INFINITY;
+        dequesStale = false;
+    }
+
+    private void pushMin(Bucket bucket) {
+        while (!minDeque.isEmpty() && minDeque.peekLast().getMin() >= bucket.getMin()) {
+            minDeque.pollLast();
+        }
+        minDeque.addLast(bucket);
+    }
+
+    private void pushMax(Bucket bucket) {
+        while (!maxDeque.isEmpty() && maxDeque.peekLast().getMax() <= bucket.getMax()) {
+            maxDeque.pollLast();
+        }
+        maxDeque.addLast(bucket);
+    }
+
+    private void recomputeSum() {
+        sum = 0.0;
+        for (Bucket bucket : sealed) {
+            if (bucket != null) {
+                sum += bucket.getSum();
+            }
+        }
+    }
+
+    private void publish() {
+        window = new Window(
+            sealedEpochBucket,
+            count,
+            Math.min(lateMin, minDeque.isEmpty() ? Double.POSITIVE_INFINITY : minDeque.peekFirst().getMin()),
+            Math.max(lateMax, maxDeque.isEmpty() ? Double.NEGATIVE_INFINITY : maxDeque.peekFirst().getMax()),
+            sum);
+    }
+
+    // sealed bucket is a marker which tells writers that bucket
+    // has been moved into window state, it never has values
+    private static Bucket sealedBucket(long epochBucket) {
+        return new Bucket(epochBucket, 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.0);
+    }
+
+    private static boolean isSealed(Bucket bucket) {
+        return bucket.getCount() == 0;
+    }
+
+    private boolean isValidTimestamp(Instant now, Instant timestamp) {
+        return timeline.isValidTimestamp(now, timestamp);
+    }
+}
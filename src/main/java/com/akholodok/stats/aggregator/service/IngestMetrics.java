@@ -0,0 +1,62 @@
+package com.akholodok.stats.aggregator.service;
+
+/**
+ * Counters of values offered to {@link InstrumentedStatsAggregator} since start
+ * and occupancy of its buckets.
+ */
+public final class IngestMetrics {
+
+    public static final IngestMetrics EMPTY = new IngestMetrics(0, 0, 0, 0, 0, 0);
+
+    private final long accepted;
+    private final long stale;
+    private final long future;
+    private final long casRetries;
+    private final long occupiedBuckets;
+    private final long buckets;
+
+    public IngestMetrics(long accepted, long stale, long future, long casRetries, long occupiedBuckets, long buckets) {
+        this.accepted = accepted;
+        this.stale = stale;
+        this.future = future;
+        this.casRetries = casRetries;
+        this.occupiedBuckets = occupiedBuckets;
+        this.buckets = buckets;
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getStale() {
+        return stale;
+    }
+
+    public long getFuture() {
+        return future;
+    }
+
+    // failed compare-and-set attempts, which had to be repeated because of contention
+    public long getCasRetries() {
+        return casRetries;
+    }
+
+    // buckets of the current window which hold values
+    public long getOccupiedBuckets() {
+        return occupiedBuckets;
+    }
+
+    public long getBuckets() {
+        return buckets;
+    }
+
+    public IngestMetrics plus(IngestMetrics other) {
+        return new IngestMetrics(
+            accepted + other.accepted,
+            stale + other.stale,
+            future + other.future,
+            casRetries + other.casRetries,
+            occupiedBuckets + other.occupiedBuckets,
+            buckets + other.buckets);
+    }
+}
@@ -0,0 +1,12 @@
+package com.akholodok.stats.aggregator.service;
+
+/**
+ * {@link StatsAggregator} which keeps counters of its ingest path.
+ */
+public interface InstrumentedStatsAggregator extends StatsAggregator {
+
+    /**
+     * Get current values of ingest counters.
+     */
+    IngestMetrics getIngestMetrics();
+}
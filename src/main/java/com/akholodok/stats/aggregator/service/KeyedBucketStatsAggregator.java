@@ -0,0 +1,166 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics aggregator which keeps a separate {@link BucketStatsAggregator} ring per key.
+ * <p>
+ * Keys are hashed into 64-bit values and rings are kept in {@link LongKeyedMap},
+ * so lookup does not allocate and does not box. Original key is kept along with the ring
+ * to detect (extremely unlikely) hash collisions, values of colliding key are logged and skipped,
+ * so they are still counted by the global aggregator.
+ * <p>
+ * Key is idle if nothing has been added for it during the whole window, so its ring has no data.
+ * Idle keys are evicted lazily: before segment of the map grows and by a full sweep of the map,
+ * which is run from {@link KeyedBucketStatsAggregator#add(String, Instant, double)}
+ * at most once per window. So memory is proportional to the number of keys active
+ * during the last two windows.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * For number of buckets per window K and number of active keys M:
+ * {@link KeyedBucketStatsAggregator#add(String, Instant, double)} - amortized time complexity is O(1);
+ * {@link KeyedBucketStatsAggregator#getStats(String)} - time complexity is O(K);
+ * memory consumption - O(M * K)
+ */
+public class KeyedBucketStatsAggregator implements KeyedStatsAggregator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KeyedBucketStatsAggregator.class);
+
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    // marks entry which has been evicted from the map
+    private static final long EVICTED = Long.MIN_VALUE;
+
+    private final int duration;
+    private final Duration bucketWidth;
+    private final TimeSource timeSource;
+    private final LongKeyedMap<KeyEntry> entries;
+    private final long idleMillis;
+    private final AtomicLong lastSweepMillis;
+
+    public KeyedBucketStatsAggregator(int duration,
+                                      Duration bucketWidth,
+                                      int segments,
+                                      TimeSource timeSource) {
+        // validates duration and bucket width
+        BucketTimeline timeline = new BucketTimeline(duration, bucketWidth);
+        this.duration = duration;
+        this.bucketWidth = bucketWidth;
+        this.timeSource = timeSource;
+        // ring still keeps data until the whole window after last added bucket is over
+        this.idleMillis = Duration.ofSeconds(duration).plus(timeline.getBucketWidth()).toMillis();
+        this.entries = new LongKeyedMap<>(segments, entry -> entry.tryEvict(timeSource.now().toEpochMilli()));
+        this.lastSweepMillis = new AtomicLong(timeSource.now().toEpochMilli());
+    }
+
+    public KeyedBucketStatsAggregator(int duration, TimeSource timeSource) {
+        this(duration, BucketTimeline.DEFAULT_BUCKET_WIDTH, DEFAULT_SEGMENTS, timeSource);
+    }
+
+    private class KeyEntry {
+
+        private final String key;
+        private final BucketStatsAggregator aggregator;
+        // time of the last add in milliseconds since unix epoch or EVICTED
+        private final AtomicLong lastAccessMillis;
+
+        KeyEntry(String key, long nowMillis) {
+            this.key = key;
+            this.aggregator = new BucketStatsAggregator(duration, bucketWidth, timeSource);
+            this.lastAccessMillis = new AtomicLong(nowMillis);
+        }
+
+        /**
+         * Mark entry as accessed.
+         *
+         * @return {@code false} if entry has been evicted and should not be used for writes.
+         */
+        boolean touch(long nowMillis) {
+            while (true) {
+                long lastAccess = lastAccessMillis.get();
+                if (lastAccess == EVICTED) {
+                    return false;
+                }
+                if (lastAccess >= nowMillis || lastAccessMillis.compareAndSet(lastAccess, nowMillis)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Mark entry as evicted if it is idle. Once evicted entry could not be touched,
+         * so no value could be added into the ring after it has been removed from the map.
+         */
+        boolean tryEvict(long nowMillis) {
+            long lastAccess = lastAccessMillis.get();
+            return lastAccess != EVICTED
+                && nowMillis - lastAccess > idleMillis
+                && lastAccessMillis.compareAndSet(lastAccess, EVICTED);
+        }
+    }
+
+    @Override
+    public boolean add(String key, Instant timestamp, double value) {
+        long nowMillis = timeSource.now().toEpochMilli();
+        long hash = hash(key);
+        while (true) {
+            KeyEntry entry = entries.computeIfAbsent(hash, h -> new KeyEntry(key, nowMillis));
+            if (!entry.key.equals(key)) {
+                LOG.warn("Key '{}' collides with key '{}', its value is not aggregated per key", key, entry.key);
+                return false;
+            }
+            if (entry.touch(nowMillis)) {
+                boolean added = entry.aggregator.add(timestamp, value);
+                sweepIfDue(nowMillis);
+                return added;
+            }
+            // entry has been evicted concurrently, make sure it is removed and create a new one
+            entries.remove(hash, entry);
+        }
+    }
+
+    @Override
+    public Optional<Stats> getStats(String key) {
+        KeyEntry entry = entries.get(hash(key));
+        return entry != null && entry.key.equals(key)
+            ? entry.aggregator.getStats()
+            : Optional.empty();
+    }
+
+    @Override
+    public int getDuration() {
+        return duration;
+    }
+
+    /**
+     * Get number of keys which are kept in memory.
+     */
+    public int getKeysCount() {
+        return entries.size();
+    }
+
+    private void sweepIfDue(long nowMillis) {
+        long lastSweep = lastSweepMillis.get();
+        if (nowMillis - lastSweep > idleMillis && lastSweepMillis.compareAndSet(lastSweep, nowMillis)) {
+            entries.evict();
+        }
+    }
+
+    // 64-bit FNV-1a over UTF-16 chars, zero and Long.MIN_VALUE are reserved by the map
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); ++i) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0L || hash == Long.MIN_VALUE ? 1L : hash;
+    }
+}
@@ -0,0 +1,39 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Aggregation service that consumes {@code [key:timestamp:value]} triples
+ * and aggregates them into {@link Stats} for every key separately
+ * for the last {@link KeyedStatsAggregator#getDuration()} seconds.
+ */
+public interface KeyedStatsAggregator {
+
+    /**
+     * Adds new {@code [timestamp:value]} pair for {@code key}.
+     *
+     * @return {@code true} if value added, otherwise {@code false} if {@code timestamp}
+     * is obsolete or in future, or value could not be kept for {@code key}.
+     * @see StatsAggregator#add(Instant, double)
+     */
+    boolean add(String key, Instant timestamp, double value);
+
+    /**
+     * Get aggregated view of {@code key} for the last {@link KeyedStatsAggregator#getDuration()} seconds.
+     *
+     * @return {@code Optional.of(stats)} in case if there any data received for {@code key}
+     * for the last {@link KeyedStatsAggregator#getDuration()} seconds.
+     * Otherwise return {@code Optional.empty()}
+     */
+    Optional<Stats> getStats(String key);
+
+    /**
+     * Get aggregation window duration in seconds.
+     *
+     * @return Aggregation window duration in seconds.
+     */
+    int getDuration();
+}
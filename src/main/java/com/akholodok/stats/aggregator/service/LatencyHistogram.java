@@ -0,0 +1,72 @@
+package com.akholodok.stats.aggregator.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies with fixed bucket bounds from 50 microseconds to 5 seconds,
+ * which counts into striped {@link LongAdder} cells, so concurrent recording does not contend.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * {@link LatencyHistogram#record(long)} - O(log(B)) for B bounds, no allocation
+ */
+public final class LatencyHistogram {
+
+    private static final double[] BOUNDS_SECONDS = {
+        0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5
+    };
+
+    private final long[] boundsNanos = new long[BOUNDS_SECONDS.length];
+    // one more cell for latencies above the last bound
+    private final LongAdder[] counts = new LongAdder[BOUNDS_SECONDS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BOUNDS_SECONDS.length; ++i) {
+            boundsNanos[i] = (long) (BOUNDS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int lo = 0;
+        int hi = boundsNanos.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (nanos <= boundsNanos[mid]) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        counts[lo].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Get upper bounds of buckets in seconds, the last bucket has no bound.
+     */
+    public double[] getBoundsSeconds() {
+        return BOUNDS_SECONDS.clone();
+    }
+
+    /**
+     * Get cumulative counts of latencies up to each bound and, as the last element, the total count.
+     */
+    public long[] getCumulativeCounts() {
+        long[] cumulative = new long[counts.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            total += counts[i].sum();
+            cumulative[i] = total;
+        }
+        return cumulative;
+    }
+
+    public double getSumSeconds() {
+        return sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,270 @@
+package com.akholodok.stats.aggregator.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+
+/**
+ * Concurrent map with primitive {@code long} keys based on open addressing
+ * with linear probing, so there are no boxed keys and no per-entry nodes.
+ * <p>
+ * Map is split into segments by key hash. Lookups are lock-free, modifications
+ * take the lock of their segment. Removed slots are marked with tombstones,
+ * which are dropped when segment is rehashed.
+ * <p>
+ * Before segment grows, entries which satisfy eviction predicate are removed from it,
+ * so that segment grows only if it is full of live entries. Predicate is also applied
+ * to the whole map by {@link LongKeyedMap#evict()}.
+ * <p>
+ * Key {@code 0} is reserved.
+ *
+ * @param <V> Type of values.
+ */
+public class LongKeyedMap<V> {
+
+    private static final long EMPTY = 0L;
+    private static final long TOMBSTONE = Long.MIN_VALUE;
+
+    private static final int MIN_CAPACITY = 16;
+    // maximum fraction of occupied (live and tombstone) slots
+    private static final double LOAD_FACTOR = 0.5;
+
+    private final Segment<V>[] segments;
+    private final Predicate<? super V> evictable;
+
+    @SuppressWarnings("unchecked")
+    public LongKeyedMap(int segments, Predicate<? super V> evictable) {
+        if (segments < 1 || Integer.bitCount(segments) != 1) {
+            throw new IllegalArgumentException("Segments count should be a power of two: " + segments);
+        }
+        this.segments = (Segment<V>[]) new Segment<?>[segments];
+        for (int i = 0; i < segments; ++i) {
+            this.segments[i] = new Segment<>(MIN_CAPACITY);
+        }
+        this.evictable = evictable;
+    }
+
+    private static class Table<V> {
+
+        private final AtomicLongArray keys;
+        private final AtomicReferenceArray<V> values;
+        private final int mask;
+
+        Table(int capacity) {
+            this.keys = new AtomicLongArray(capacity);
+            this.values = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+    }
+
+    private static class Segment<V> {
+
+        private volatile Table<V> table;
+        // guarded by this
+        private int size;
+        private int tombstones;
+
+        Segment(int capacity) {
+            this.table = new Table<>(capacity);
+        }
+    }
+
+    /**
+     * Get value associated with {@code key}.
+     *
+     * @return Value or {@code null} if there is no value for {@code key}.
+     */
+    public V get(long key) {
+        checkKey(key);
+        long hash = mix(key);
+        Table<V> table = segmentFor(hash).table;
+        for (int i = (int) hash & table.mask; ; i = (i + 1) & table.mask) {
+            long slotKey = table.keys.get(i);
+            if (slotKey == key) {
+                return table.values.get(i);
+            }
+            if (slotKey == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Get value associated with {@code key} or associate it with value created by {@code factory}.
+     */
+    public V computeIfAbsent(long key, LongFunction<? extends V> factory) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+
+        long hash = mix(key);
+        Segment<V> segment = segmentFor(hash);
+        synchronized (segment) {
+            Table<V> table = segment.table;
+            int insertAt = -1;
+            for (int i = (int) hash & table.mask; ; i = (i + 1) & table.mask) {
+                long slotKey = table.keys.get(i);
+                if (slotKey == key) {
+                    return table.values.get(i);
+                }
+                if (slotKey == TOMBSTONE && insertAt < 0) {
+                    insertAt = i;
+                }
+                if (slotKey == EMPTY) {
+                    if (insertAt < 0) {
+                        insertAt = i;
+                    }
+                    break;
+                }
+            }
+
+            value = factory.apply(key);
+            if (table.keys.get(insertAt) == TOMBSTONE) {
+                --segment.tombstones;
+            }
+            // value is published before key, so lock-free readers never see key without value
+            table.values.set(insertAt, value);
+            table.keys.set(insertAt, key);
+            ++segment.size;
+
+            if (segment.size + segment.tombstones > table.capacity() * LOAD_FACTOR) {
+                rehash(segment);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Remove {@code key} if it is associated with {@code value}.
+     *
+     * @return {@code true} if value has been removed.
+     */
+    public boolean remove(long key, V value) {
+        checkKey(key);
+        long hash = mix(key);
+        Segment<V> segment = segmentFor(hash);
+        synchronized (segment) {
+            Table<V> table = segment.table;
+            for (int i = (int) hash & table.mask; ; i = (i + 1) & table.mask) {
+                long slotKey = table.keys.get(i);
+                if (slotKey == key) {
+                    if (table.values.get(i) != value) {
+                        return false;
+                    }
+                    removeAt(segment, table, i);
+                    return true;
+                }
+                if (slotKey == EMPTY) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all values which satisfy eviction predicate.
+     *
+     * @return Number of removed values.
+     */
+    public int evict() {
+        int evicted = 0;
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                evicted += evict(segment);
+                if (segment.size + segment.tombstones > 0
+                    && segment.size < segment.table.capacity() * LOAD_FACTOR / 4) {
+                    rehash(segment);
+                }
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Get number of values.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    // guarded by segment lock
+    private int evict(Segment<V> segment) {
+        int evicted = 0;
+        Table<V> table = segment.table;
+        for (int i = 0; i < table.capacity(); ++i) {
+            long key = table.keys.get(i);
+            if (key != EMPTY && key != TOMBSTONE && evictable.test(table.values.get(i))) {
+                removeAt(segment, table, i);
+                ++evicted;
+            }
+        }
+        return evicted;
+    }
+
+    // guarded by segment lock
+    private void removeAt(Segment<V> segment, Table<V> table, int index) {
+        table.keys.set(index, TOMBSTONE);
+        table.values.set(index, null);
+        --segment.size;
+        ++segment.tombstones;
+    }
+
+    // guarded by segment lock
+    private void rehash(Segment<V> segment) {
+        // try to make room by evicting entries before growing
+        if (segment.size > segment.table.capacity() * LOAD_FACTOR / 2) {
+            evict(segment);
+        }
+
+        int capacity = MIN_CAPACITY;
+        while (segment.size >= capacity * LOAD_FACTOR / 2) {
+            capacity <<= 1;
+        }
+
+        Table<V> oldTable = segment.table;
+        Table<V> newTable = new Table<>(capacity);
+        for (int i = 0; i < oldTable.capacity(); ++i) {
+            long key = oldTable.keys.get(i);
+            if (key != EMPTY && key != TOMBSTONE) {
+                int j = (int) mix(key) & newTable.mask;
+                while (newTable.keys.get(j) != EMPTY) {
+                    j = (j + 1) & newTable.mask;
+                }
+                newTable.values.set(j, oldTable.values.get(i));
+                newTable.keys.set(j, key);
+            }
+        }
+        segment.tombstones = 0;
+        segment.table = newTable;
+    }
+
+    private Segment<V> segmentFor(long hash) {
+        return segments[(int) (hash >>> 32) & (segments.length - 1)];
+    }
+
+    private static void checkKey(long key) {
+        if (key == EMPTY || key == TOMBSTONE) {
+            throw new IllegalArgumentException("Reserved key: " + key);
+        }
+    }
+
+    // keys are usually hashes already, but mixing protects from poorly distributed ones
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+}
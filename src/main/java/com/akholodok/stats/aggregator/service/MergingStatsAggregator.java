@@ -0,0 +1,28 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * {@link StatsAggregator} which also accepts values pre-aggregated into buckets,
+ * so a batch of values costs a single update per bucket.
+ */
+public interface MergingStatsAggregator extends StatsAggregator {
+
+    /**
+     * Adds {@code partial} stats of values which all fall into the bucket of {@code timestamp}.
+     *
+     * @param timestamp Any timestamp of the bucket.
+     * @param partial Stats of values to add.
+     * @return {@code true} if values added, otherwise {@code false} if {@code timestamp}
+     * is obsolete or in future.
+     */
+    boolean add(Instant timestamp, Stats partial);
+
+    /**
+     * Get width of a single bucket.
+     */
+    Duration getBucketWidth();
+}
@@ -0,0 +1,206 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Statistics aggregator which is based on bucketing, same as {@link BucketStatsAggregator},
+ * but keeps buckets off-heap as fixed-width records of a direct {@link ByteBuffer}.
+ * Intended for long windows (hours or days with seconds precision), where
+ * hundreds of thousands of on-heap buckets would put pressure on GC.
+ * <p>
+ * Record layout ({@link OffHeapBucketStatsAggregator#RECORD_SIZE} bytes):
+ * {@code [epochBucket:long][count:long][min:double][max:double][sum:double]}
+ * <p>
+ * Records are split into blocks of {@link OffHeapBucketStatsAggregator#BLOCK_SIZE} records,
+ * each block is guarded by its own {@link StampedLock}. Writers take block write lock,
+ * readers scan the whole block under a single optimistic read stamp and fall back
+ * to read lock only if block was modified during the scan.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * Same as for {@link BucketStatsAggregator}, however memory consumption is
+ * {@link OffHeapBucketStatsAggregator#RECORD_SIZE} bytes per bucket off-heap.
+ */
+public class OffHeapBucketStatsAggregator implements StatsAggregator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapBucketStatsAggregator.class);
+
+    static final int RECORD_SIZE = 40;
+    static final int BLOCK_SIZE = 64;
+
+    private static final int EPOCH_BUCKET = 0;
+    private static final int COUNT = 8;
+    private static final int MIN = 16;
+    private static final int MAX = 24;
+    private static final int SUM = 32;
+
+    private final BucketTimeline timeline;
+    private final ByteBuffer records;
+    private final StampedLock[] locks;
+    private final TimeSource timeSource;
+
+    public OffHeapBucketStatsAggregator(int duration,
+                                        Duration bucketWidth,
+                                        TimeSource timeSource) {
+        this.timeline = new BucketTimeline(duration, bucketWidth);
+        int buckets = timeline.getBuckets();
+        if (buckets > Integer.MAX_VALUE / RECORD_SIZE) {
+            throw new IllegalArgumentException("Too many buckets: " + buckets);
+        }
+        this.records = ByteBuffer.allocateDirect(buckets * RECORD_SIZE).order(ByteOrder.nativeOrder());
+        this.locks = new StampedLock[(buckets + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        for (int i = 0; i < locks.length; ++i) {
+            locks[i] = new StampedLock();
+        }
+        this.timeSource = timeSource;
+
+        LOG.info("Allocated {} bytes off-heap for {} buckets", getMemoryFootprint(), buckets);
+    }
+
+    public OffHeapBucketStatsAggregator(int duration,
+                                        TimeSource timeSource) {
+        this(duration, BucketTimeline.DEFAULT_BUCKET_WIDTH, timeSource);
+    }
+
+    @Override
+    public boolean add(Instant timestamp, double value) {
+
+        if (!isValidTimestamp(timeSource.now(), timestamp)) {
+            return false;
+        }
+
+        long statEpochBucket = timeline.epochBucket(timestamp);
+        int index = timeline.index(statEpochBucket);
+        int offset = index * RECORD_SIZE;
+
+        StampedLock lock = locks[index / BLOCK_SIZE];
+        long stamp = lock.writeLock();
+        try {
+            // time could pass while waiting for the lock
+            if (!isValidTimestamp(timeSource.now(), timestamp)) {
+                return false;
+            }
+
+            // if record has no value yet or it is associated with timestamp
+            // which is older than aggregation duration window - just overwrite it
+            // otherwise - merge value into existing one
+            if (records.getLong(offset + COUNT) == 0 || records.getLong(offset + EPOCH_BUCKET) != statEpochBucket) {
+                records.putLong(offset + EPOCH_BUCKET, statEpochBucket);
+                records.putLong(offset + COUNT, 1);
+                records.putDouble(offset + MIN, value);
+                records.putDouble(offset + MAX, value);
+                records.putDouble(offset + SUM, value);
+            } else {
+                records.putLong(offset + COUNT, records.getLong(offset + COUNT) + 1);
+                records.putDouble(offset + MIN, Math.min(records.getDouble(offset + MIN), value));
+                records.putDouble(offset + MAX, Math.max(records.getDouble(offset + MAX), value));
+                records.putDouble(offset + SUM, records.getDouble(offset + SUM) + value);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return true;
+    }
+
+    @Override
+    public Optional<Stats> getStats() {
+
+        Instant now = timeSource.now();
+        long start = timeline.windowStart(now);
+        long end = timeline.windowEnd(now);
+
+        BlockAccumulator total = new BlockAccumulator();
+        BlockAccumulator block = new BlockAccumulator();
+        total.reset();
+
+        for (int i = 0; i < locks.length; ++i) {
+            StampedLock lock = locks[i];
+            int from = i * BLOCK_SIZE;
+            int to = Math.min(from + BLOCK_SIZE, timeline.getBuckets());
+
+            long stamp = lock.tryOptimisticRead();
+            block.reset();
+            block.accumulate(from, to, start, end);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    block.reset();
+                    block.accumulate(from, to, start, end);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            total.merge(block);
+        }
+
+        return total.count > 0
+            ? Optional.of(new Stats(total.count, total.min, total.max, total.sum))
+            : Optional.empty();
+    }
+
+    @Override
+    public int getDuration() {
+        return timeline.getDuration();
+    }
+
+    /**
+     * Get size of off-heap memory allocated for buckets.
+     *
+     * @return Number of bytes allocated off-heap.
+     */
+    public long getMemoryFootprint() {
+        return records.capacity();
+    }
+
+    public Duration getBucketWidth() {
+        return timeline.getBucketWidth();
+    }
+
+    private boolean isValidTimestamp(Instant now, Instant timestamp) {
+        return timeline.isValidTimestamp(now, timestamp);
+    }
+
+    private class BlockAccumulator {
+
+        private long count;
+        private double min;
+        private double max;
+        private double sum;
+
+        void reset() {
+            count = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+            sum = 0.0;
+        }
+
+        void accumulate(int from, int to, long start, long end) {
+            for (int offset = from * RECORD_SIZE; offset < to * RECORD_SIZE; offset += RECORD_SIZE) {
+                long recordCount = records.getLong(offset + COUNT);
+                long epochBucket = records.getLong(offset + EPOCH_BUCKET);
+                if (recordCount > 0 && epochBucket >= start && epochBucket < end) {
+                    count += recordCount;
+                    min = Math.min(min, records.getDouble(offset + MIN));
+                    max = Math.max(max, records.getDouble(offset + MAX));
+                    sum += records.getDouble(offset + SUM);
+                }
+            }
+        }
+
+        void merge(BlockAccumulator other) {
+            count += other.count;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            sum += other.sum;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.akholodok.stats.aggregator.service;
+
+/**
+ * Thrown by {@link PipelinedStatsAggregator} when its ring buffer is full
+ * and backpressure mode is {@link PipelinedStatsAggregator.Backpressure#DROP}.
+ */
+public class PipelineFullException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public PipelineFullException(int capacity) {
+        super("Ingest pipeline is full, capacity: " + capacity);
+    }
+}
@@ -0,0 +1,216 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.PipelineStatus;
+import com.akholodok.stats.aggregator.model.Stats;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Statistics aggregator which publishes values into a preallocated ring buffer,
+ * a single consumer thread drains the ring and applies values to delegate aggregator.
+ * <p>
+ * Ring follows Disruptor multi-producer design: producer claims a sequence with CAS,
+ * writes the slot and marks it available by storing the sequence into availability array,
+ * consumer reads available slots in order and moves its cursor, which frees slots for producers.
+ * <p>
+ * Timestamp is checked when value is published, so result of
+ * {@link PipelinedStatsAggregator#add(Instant, double)} is the same as for synchronous aggregator.
+ * Consumer drains values in batches with {@link TransactionBatchIngester}, so
+ * {@link MergingStatsAggregator} delegate gets a single uncontended update per bucket
+ * per batch. Values which have become obsolete while waiting in the ring are dropped,
+ * they would have left the window anyway.
+ * <p>
+ * Aggregated stats are eventually consistent: value is visible once it is drained by consumer,
+ * see {@link PipelinedStatsAggregator#getStatus()} for ring depth and lag.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * {@link PipelinedStatsAggregator#add(Instant, double)} - time complexity is O(1) if ring is not full;
+ * {@link PipelinedStatsAggregator#getStats()} - complexity of delegate;
+ * memory consumption - memory of delegate plus O(ring capacity)
+ */
+public class PipelinedStatsAggregator implements DelegatingStatsAggregator, AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private static final int DRAIN_BATCH_SIZE = 1024;
+    private static final long IDLE_PARK_NANOS = 100_000;
+    private static final long FULL_PARK_NANOS = 10_000;
+
+    /**
+     * What producer does when ring is full.
+     */
+    public enum Backpressure {
+        // wait until consumer frees a slot
+        BLOCK,
+        // throw PipelineFullException
+        DROP,
+        // add value to delegate on producer thread
+        CALLER_RUNS
+    }
+
+    private final StatsAggregator delegate;
+    private final BucketTimeline timeline;
+    private final TimeSource timeSource;
+    private final Backpressure backpressure;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] timestamps;
+    private final double[] amounts;
+    private final long[] publishNanos;
+    // sequence stored into slot once it is written
+    private final AtomicLongArray available;
+    // next sequence to claim
+    private final AtomicLong claimed = new AtomicLong();
+    // next sequence to consume, written by consumer only
+    private final AtomicLong consumed = new AtomicLong();
+
+    private final Thread consumer;
+    private volatile boolean running;
+
+    public PipelinedStatsAggregator(StatsAggregator delegate,
+                                    Duration bucketWidth,
+                                    int capacity,
+                                    Backpressure backpressure,
+                                    TimeSource timeSource) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity should be a power of two: " + capacity);
+        }
+        this.delegate = delegate;
+        this.timeline = new BucketTimeline(delegate.getDuration(), bucketWidth);
+        this.timeSource = timeSource;
+        this.backpressure = backpressure;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.timestamps = new long[capacity];
+        this.amounts = new double[capacity];
+        this.publishNanos = new long[capacity];
+        this.available = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; ++i) {
+            available.set(i, -1);
+        }
+
+        this.running = true;
+        this.consumer = new Thread(this::consume, "stats-aggregator-pipeline");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    @Override
+    public boolean add(Instant timestamp, double value) {
+        if (!timeline.isValidTimestamp(timeSource.now(), timestamp)) {
+            return false;
+        }
+
+        long sequence;
+        while (true) {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= capacity) {
+                switch (backpressure) {
+                    case DROP:
+                        throw new PipelineFullException(capacity);
+                    case CALLER_RUNS:
+                        // verdict has been given at publish time, late value is just dropped by delegate
+                        delegate.add(timestamp, value);
+                        return true;
+                    default:
+                        LockSupport.parkNanos(FULL_PARK_NANOS);
+                        continue;
+                }
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+
+        int index = (int) sequence & mask;
+        timestamps[index] = timestamp.toEpochMilli();
+        amounts[index] = value;
+        publishNanos[index] = System.nanoTime();
+        // release store publishes slot fields to consumer
+        available.lazySet(index, sequence);
+        return true;
+    }
+
+    @Override
+    public Optional<Stats> getStats() {
+        return delegate.getStats();
+    }
+
+    @Override
+    public int getDuration() {
+        return delegate.getDuration();
+    }
+
+    @Override
+    public StatsAggregator getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Get ring capacity, number of values waiting in the ring and age of the oldest waiting value,
+     * which is 0 when the ring is empty.
+     */
+    public PipelineStatus getStatus() {
+        long next = consumed.get();
+        long depth = Math.max(0, claimed.get() - next);
+        return new PipelineStatus(capacity, depth, depth == 0 ? 0 : oldestAgeNanos(next) / 1e6);
+    }
+
+    /**
+     * Stop consumer once all published values are drained and close delegate.
+     */
+    @Override
+    public void close() throws Exception {
+        running = false;
+        consumer.join();
+        if (delegate instanceof AutoCloseable) {
+            ((AutoCloseable) delegate).close();
+        }
+    }
+
+    // age of the value at the consumer cursor, 0 if it is claimed but not written yet
+    // or if it was drained and its slot reused while being read
+    private long oldestAgeNanos(long sequence) {
+        int index = (int) sequence & mask;
+        if (available.get(index) != sequence) {
+            return 0;
+        }
+        long published = publishNanos[index];
+        // slot could be reused only after consumer moves past it
+        if (consumed.get() != sequence) {
+            return 0;
+        }
+        return Math.max(0, System.nanoTime() - published);
+    }
+
+    private void consume() {
+        TransactionBatchIngester ingester = new TransactionBatchIngester(delegate, timeSource);
+        TransactionBatch batch = new TransactionBatch(DRAIN_BATCH_SIZE);
+        long next = consumed.get();
+        while (true) {
+            while (!batch.isFull() && available.get((int) next & mask) == next) {
+                int index = (int) next & mask;
+                batch.add(timestamps[index], amounts[index], null);
+                ++next;
+            }
+
+            if (batch.size() > 0) {
+                // slots are copied, so they could be reused by producers
+                consumed.lazySet(next);
+                ingester.ingest(batch);
+                batch.clear();
+            } else if (!running && claimed.get() == next) {
+                return;
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+}
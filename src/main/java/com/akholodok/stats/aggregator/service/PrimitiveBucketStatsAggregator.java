@@ -0,0 +1,157 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics aggregator which is based on bucketing, same as {@link BucketStatsAggregator},
+ * but keeps buckets in a single primitive array instead of immutable bucket objects,
+ * so neither {@link PrimitiveBucketStatsAggregator#add(Instant, double)} nor
+ * {@link PrimitiveBucketStatsAggregator#getStats()} allocate anything apart from the
+ * returned {@link Stats}.
+ * <p>
+ * Each bucket occupies a slot of {@link PrimitiveBucketStatsAggregator#SLOT_SIZE} longs
+ * (one cache line), which is guarded by a sequence lock:
+ * <ul>
+ * <li>writer moves slot sequence from even to odd value with CAS, updates bucket fields
+ * and moves sequence to the next even value</li>
+ * <li>reader reads bucket fields between two reads of slot sequence and retries
+ * if sequence is odd or has changed</li>
+ * </ul>
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * Same as for {@link BucketStatsAggregator}.
+ */
+public class PrimitiveBucketStatsAggregator implements StatsAggregator {
+
+    // slot layout, padded to 64 bytes to avoid false sharing between neighbour slots
+    static final int SLOT_SIZE = 8;
+    private static final int SEQUENCE = 0;
+    private static final int EPOCH_BUCKET = 1;
+    private static final int COUNT = 2;
+    private static final int MIN = 3;
+    private static final int MAX = 4;
+    private static final int SUM = 5;
+
+    private final BucketTimeline timeline;
+    private final AtomicLongArray slots;
+    private final TimeSource timeSource;
+
+    public PrimitiveBucketStatsAggregator(int duration,
+                                          Duration bucketWidth,
+                                          TimeSource timeSource) {
+        this.timeline = new BucketTimeline(duration, bucketWidth);
+        if (timeline.getBuckets() > Integer.MAX_VALUE / SLOT_SIZE) {
+            throw new IllegalArgumentException("Too many buckets: " + timeline.getBuckets());
+        }
+        this.slots = new AtomicLongArray(timeline.getBuckets() * SLOT_SIZE);
+        this.timeSource = timeSource;
+    }
+
+    public PrimitiveBucketStatsAggregator(int duration,
+                                          TimeSource timeSource) {
+        this(duration, BucketTimeline.DEFAULT_BUCKET_WIDTH, timeSource);
+    }
+
+    @Override
+    public boolean add(Instant timestamp, double value) {
+
+        long statEpochBucket = timeline.epochBucket(timestamp);
+        int base = timeline.index(statEpochBucket) * SLOT_SIZE;
+
+        while (true) {
+            if (!isValidTimestamp(timeSource.now(), timestamp)) {
+                return false;
+            }
+
+            long sequence = slots.get(base + SEQUENCE);
+            // odd sequence means that another writer owns the slot
+            if ((sequence & 1) != 0 || !slots.compareAndSet(base + SEQUENCE, sequence, sequence + 1)) {
+                continue;
+            }
+
+            // if slot has no value yet or it is associated with timestamp
+            // which is older than aggregation duration window - just overwrite it
+            // otherwise - merge value into existing one
+            if (slots.get(base + COUNT) == 0 || slots.get(base + EPOCH_BUCKET) != statEpochBucket) {
+                slots.lazySet(base + EPOCH_BUCKET, statEpochBucket);
+                slots.lazySet(base + COUNT, 1);
+                slots.lazySet(base + MIN, Double.doubleToRawLongBits(value));
+                slots.lazySet(base + MAX, Double.doubleToRawLongBits(value));
+                slots.lazySet(base + SUM, Double.doubleToRawLongBits(value));
+            } else {
+                slots.lazySet(base + COUNT, slots.get(base + COUNT) + 1);
+                slots.lazySet(base + MIN, Double.doubleToRawLongBits(
+                    Math.min(Double.longBitsToDouble(slots.get(base + MIN)), value)));
+                slots.lazySet(base + MAX, Double.doubleToRawLongBits(
+                    Math.max(Double.longBitsToDouble(slots.get(base + MAX)), value)));
+                slots.lazySet(base + SUM, Double.doubleToRawLongBits(
+                    Double.longBitsToDouble(slots.get(base + SUM)) + value));
+            }
+
+            slots.lazySet(base + SEQUENCE, sequence + 2);
+            return true;
+        }
+    }
+
+    @Override
+    public Optional<Stats> getStats() {
+
+        Instant now = timeSource.now();
+        long start = timeline.windowStart(now);
+        long end = timeline.windowEnd(now);
+
+        long count = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0.0;
+
+        for (int base = 0; base < slots.length(); base += SLOT_SIZE) {
+
+            long sequence;
+            long epochBucket;
+            long bucketCount;
+            double bucketMin;
+            double bucketMax;
+            double bucketSum;
+
+            do {
+                sequence = slots.get(base + SEQUENCE);
+                epochBucket = slots.get(base + EPOCH_BUCKET);
+                bucketCount = slots.get(base + COUNT);
+                bucketMin = Double.longBitsToDouble(slots.get(base + MIN));
+                bucketMax = Double.longBitsToDouble(slots.get(base + MAX));
+                bucketSum = Double.longBitsToDouble(slots.get(base + SUM));
+            } while ((sequence & 1) != 0 || sequence != slots.get(base + SEQUENCE));
+
+            if (bucketCount > 0 && epochBucket >= start && epochBucket < end) {
+                count += bucketCount;
+                min = Math.min(min, bucketMin);
+                max = Math.max(max, bucketMax);
+                sum += bucketSum;
+            }
+        }
+
+        return count > 0
+            ? Optional.of(new Stats(count, min, max, sum))
+            : Optional.empty();
+    }
+
+    @Override
+    public int getDuration() {
+        return timeline.getDuration();
+    }
+
+    public Duration getBucketWidth() {
+        return timeline.getBucketWidth();
+    }
+
+    private boolean isValidTimestamp(Instant now, Instant timestamp) {
+        return timeline.isValidTimestamp(now, timestamp);
+    }
+}
@@ -0,0 +1,130 @@
+package com.akholodok.stats.aggregator.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Mergeable quantile sketch: log-linear histogram with fixed number of bins,
+ * in the spirit of HDR histogram.
+ * <p>
+ * Each power of two range of absolute values is split into
+ * {@code 2^}{@link QuantileSketch#PRECISION_BITS} bins of equal width, so quantile
+ * is estimated with relative error of at most {@code 1 / 2^(PRECISION_BITS + 1)} (~1.6%).
+ * Absolute values below {@code 2^}{@link QuantileSketch#MIN_EXPONENT} fall into zero bin,
+ * absolute values above {@code 2^}{@link QuantileSketch#MAX_EXPONENT} fall into the outermost bins.
+ * <p>
+ * Bins are ordered by value: negative values in reverse order, zero, positive values.
+ * Recording is a single atomic increment, so sketch could be updated concurrently.
+ * <p>
+ * Memory consumption - {@link QuantileSketch#BINS} longs (~24KB) per sketch.
+ */
+public class QuantileSketch {
+
+    static final int PRECISION_BITS = 5;
+    static final int MIN_EXPONENT = -8;
+    static final int MAX_EXPONENT = 40;
+
+    private static final int SUB_BINS = 1 << PRECISION_BITS;
+    private static final int BINS_PER_SIGN = (MAX_EXPONENT - MIN_EXPONENT) * SUB_BINS;
+    private static final int ZERO_BIN = BINS_PER_SIGN;
+    static final int BINS = 2 * BINS_PER_SIGN + 1;
+
+    private final AtomicLongArray counts;
+
+    public QuantileSketch() {
+        this.counts = new AtomicLongArray(BINS);
+    }
+
+    /**
+     * Record single value.
+     */
+    public void record(double value) {
+        counts.getAndIncrement(bin(value));
+    }
+
+    /**
+     * Merge counts of {@code other} sketch into this one.
+     *
+     * @return This sketch.
+     */
+    public QuantileSketch merge(QuantileSketch other) {
+        for (int i = 0; i < BINS; ++i) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.getAndAdd(i, count);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Get number of recorded values.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BINS; ++i) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Estimate quantiles with nearest rank method.
+     *
+     * @param quantiles Quantiles in ascending order, each in {@code [0, 1]} range.
+     * @return Estimated values, or {@code NaN} for each quantile if sketch is empty.
+     */
+    public double[] getQuantiles(double... quantiles) {
+        long[] snapshot = new long[BINS];
+        long total = 0;
+        for (int i = 0; i < BINS; ++i) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        double[] values = new double[quantiles.length];
+        int bin = 0;
+        long cumulative = snapshot[0];
+        for (int i = 0; i < quantiles.length; ++i) {
+            if (total == 0) {
+                values[i] = Double.NaN;
+                continue;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantiles[i] * total));
+            while (cumulative < rank && bin < BINS - 1) {
+                cumulative += snapshot[++bin];
+            }
+            values[i] = value(bin);
+        }
+        return values;
+    }
+
+    static int bin(double value) {
+        double abs = Math.abs(value);
+        if (!(abs >= Math.scalb(1.0, MIN_EXPONENT))) {
+            return ZERO_BIN;
+        }
+        int offset;
+        if (abs >= Math.scalb(1.0, MAX_EXPONENT)) {
+            offset = BINS_PER_SIGN - 1;
+        } else {
+            int exponent = Math.getExponent(abs);
+            int subBin = (int) (Double.doubleToRawLongBits(abs) >>> (52 - PRECISION_BITS)) & (SUB_BINS - 1);
+            offset = (exponent - MIN_EXPONENT) * SUB_BINS + subBin;
+        }
+        return value > 0
+            ? ZERO_BIN + 1 + offset
+            : ZERO_BIN - 1 - offset;
+    }
+
+    // middle of the bin
+    static double value(int bin) {
+        if (bin == ZERO_BIN) {
+            return 0.0;
+        }
+        int offset = bin > ZERO_BIN ? bin - ZERO_BIN - 1 : ZERO_BIN - 1 - bin;
+        int exponent = offset / SUB_BINS + MIN_EXPONENT;
+        int subBin = offset % SUB_BINS;
+        double abs = Math.scalb(1.0 + (subBin + 0.5) / SUB_BINS, exponent);
+        return bin > ZERO_BIN ? abs : -abs;
+    }
+}
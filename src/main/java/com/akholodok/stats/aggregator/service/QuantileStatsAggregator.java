@@ -0,0 +1,23 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Quantiles;
+
+import java.util.Optional;
+
+/**
+ * Aggregation service which, apart from {@link com.akholodok.stats.aggregator.model.Stats},
+ * estimates quantiles of values for the last {@link StatsAggregator#getDuration()} seconds.
+ */
+public interface QuantileStatsAggregator extends StatsAggregator {
+
+    /**
+     * Estimate quantiles for the last {@link StatsAggregator#getDuration()} seconds.
+     *
+     * @param quantiles Quantiles to estimate, each in {@code [0, 1]} range.
+     * @return {@code Optional.of(quantiles)} in case if there any data received
+     * for the last {@link StatsAggregator#getDuration()} seconds.
+     * Otherwise return {@code Optional.empty()}
+     * @throws IllegalArgumentException if any quantile is out of range.
+     */
+    Optional<Quantiles> getQuantiles(double... quantiles);
+}
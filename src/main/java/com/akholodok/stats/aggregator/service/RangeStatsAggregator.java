@@ -0,0 +1,24 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Aggregation service which keeps history beyond the aggregation window
+ * and could aggregate {@link Stats} for any past time range.
+ */
+public interface RangeStatsAggregator extends StatsAggregator {
+
+    /**
+     * Get aggregated view for buckets which start in {@code [from, to)}.
+     *
+     * @param from Range start, inclusive.
+     * @param to Range end, exclusive, should be after {@code from}.
+     * @return {@code Optional.of(stats)} in case if there any data received
+     * for the range. Otherwise return {@code Optional.empty()}
+     * @throws IllegalArgumentException if range is empty.
+     */
+    Optional<Stats> getStats(Instant from, Instant to);
+}
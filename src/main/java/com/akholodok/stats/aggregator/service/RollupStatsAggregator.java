@@ -0,0 +1,230 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import com.akholodok.stats.aggregator.service.BucketStatsAggregator.Bucket;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BinaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Statistics aggregator which serves several windows of different length
+ * from a chain of bucket rings with increasing resolution, e.g.
+ * 60 buckets of a second, 60 buckets of a minute and 24 buckets of an hour.
+ * <p>
+ * Values are added into the finest ring. When a bucket is evicted from its ring
+ * by a newer bucket, it is rolled up into the bucket of the next (coarser) ring
+ * which covers it. Buckets older than the coarsest ring could hold are dropped.
+ * So each value is kept in exactly one ring at a time, and a window is aggregated
+ * from all rings: recent part of the window comes from fine rings,
+ * older part - from coarse ones.
+ * <p>
+ * A coarse bucket holds only values older than the span of the finer ring,
+ * so it is counted only if it starts within the window: a coarse bucket which
+ * starts before the window is left out rather than counted in full, and values
+ * outside the window are never counted. So a window is answered from the finest
+ * ring which covers it, e.g. the last minute from the ring of seconds alone,
+ * and coarse buckets fill in only its older part. Window precision is the width
+ * of the bucket at its oldest edge: a second for the last minute, up to a minute
+ * for the last hour and up to an hour for the last day, which the window could
+ * be short of. Values are not visible for reads for a short moment while their
+ * bucket is being moved into the next ring.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * For total number of buckets K in all rings:
+ * {@link RollupStatsAggregator#add(Instant, double)} - complexity is O(number of rings);
+ * {@link RollupStatsAggregator#getStats(Duration)} - complexity is O(K);
+ * memory consumption - O(K), independent of the longest window
+ */
+public class RollupStatsAggregator implements WindowedStatsAggregator {
+
+    private final Level[] levels;
+    private final TimeSource timeSource;
+    private final BinaryOperator<Bucket> bucketReducer;
+
+    public RollupStatsAggregator(List<Resolution> resolutions,
+                                 TimeSource timeSource,
+                                 BinaryOperator<Bucket> bucketReducer) {
+        if (resolutions.isEmpty()) {
+            throw new IllegalArgumentException("At least one resolution should be provided");
+        }
+        this.levels = new Level[resolutions.size()];
+        for (int i = 0; i < levels.length; ++i) {
+            levels[i] = new Level(resolutions.get(i));
+            if (i > 0 && (levels[i].bucketMillis <= levels[i - 1].bucketMillis
+                || levels[i].bucketMillis % levels[i - 1].bucketMillis != 0)) {
+                throw new IllegalArgumentException(
+                    "Bucket width of each resolution should be a multiple of the previous one: " + resolutions);
+            }
+        }
+        this.timeSource = timeSource;
+        this.bucketReducer = bucketReducer;
+    }
+
+    public RollupStatsAggregator(List<Resolution> resolutions,
+                                 TimeSource timeSource) {
+        this(resolutions, timeSource, BucketStatsAggregator.DEFAULT_BUCKET_REDUCER);
+    }
+
+    /**
+     * Resolution of a single ring: {@code buckets} buckets of {@code bucketWidth} each.
+     */
+    public static class Resolution {
+
+        private final Duration bucketWidth;
+        private final int buckets;
+
+        public Resolution(Duration bucketWidth, int buckets) {
+            this.bucketWidth = bucketWidth;
+            this.buckets = buckets;
+        }
+
+        public Duration getBucketWidth() {
+            return bucketWidth;
+        }
+
+        public int getBuckets() {
+            return buckets;
+        }
+
+        @Override
+        public String toString() {
+            return bucketWidth + " x " + buckets;
+        }
+    }
+
+    private static class Level {
+
+        private final BucketTimeline timeline;
+        private final AtomicReferenceArray<Bucket> buckets;
+        private final long bucketMillis;
+
+        Level(Resolution resolution) {
+            long bucketMillis = resolution.getBucketWidth().toMillis();
+            long durationMillis = bucketMillis * resolution.getBuckets();
+            if (durationMillis <= 0 || durationMillis % 1000 != 0 || durationMillis / 1000 > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Resolution should cover a whole number of seconds: " + resolution);
+            }
+            this.timeline = new BucketTimeline((int) (durationMillis / 1000), resolution.getBucketWidth());
+            this.buckets = new AtomicReferenceArray<>(timeline.getBuckets());
+            this.bucketMillis = bucketMillis;
+        }
+
+        boolean overlaps(Bucket bucket, long startMillis, long endMillis) {
+            return (bucket.getEpochBucket() + 1) * bucketMillis > startMillis
+                && bucket.getEpochBucket() * bucketMillis < endMillis;
+        }
+
+        boolean startsWithin(Bucket bucket, long startMillis, long endMillis) {
+            long bucketStartMillis = bucket.getEpochBucket() * bucketMillis;
+            return bucketStartMillis >= startMillis && bucketStartMillis < endMillis;
+        }
+    }
+
+    @Override
+    public boolean add(Instant timestamp, double value) {
+        if (!isValidTimestamp(timeSource.now(), timestamp)) {
+            return false;
+        }
+        put(0, new Bucket(value, levels[0].timeline.epochBucket(timestamp)));
+        return true;
+    }
+
+    @Override
+    public Optional<Stats> getStats() {
+        return getStats(Duration.ofSeconds(getDuration()));
+    }
+
+    @Override
+    public Optional<Stats> getStats(Duration window) {
+
+        if (window.isNegative() || window.isZero() || window.compareTo(Duration.ofSeconds(getDuration())) > 0) {
+            throw new IllegalArgumentException("Window should be positive and not longer than "
+                + getDuration() + " seconds: " + window);
+        }
+
+        // window bounds are aligned to the finest buckets,
+        // in the same way as for a single ring of such buckets
+        Level finest = levels[0];
+        long endMillis = finest.timeline.windowEnd(timeSource.now()) * finest.bucketMillis;
+        long startMillis = endMillis - window.toMillis();
+
+        // coarse bucket which starts before the window also holds values older than the window,
+        // those of its values which are within the window are left out, as they could not be told apart
+        return IntStream.range(0, levels.length)
+            .boxed()
+            .flatMap(index -> {
+                Level level = levels[index];
+                return IntStream.range(0, level.buckets.length())
+                    .mapToObj(level.buckets::get)
+                    .filter(Objects::nonNull)
+                    .filter(bucket -> index == 0
+                        ? level.overlaps(bucket, startMillis, endMillis)
+                        : level.startsWithin(bucket, startMillis, endMillis));
+            })
+            .reduce(bucketReducer)
+            .map(Bucket::toStats);
+    }
+
+    /**
+     * Get the longest window duration in seconds, which is the duration of the coarsest ring.
+     *
+     * @return Aggregation window duration in seconds.
+     */
+    @Override
+    public int getDuration() {
+        return levels[levels.length - 1].timeline.getDuration();
+    }
+
+    private void put(int level, Bucket bucket) {
+        while (true) {
+            Level current = levels[level];
+            int index = current.timeline.index(bucket.getEpochBucket());
+            Bucket oldBucket = current.buckets.get(index);
+
+            Bucket evicted;
+            if (oldBucket != null && oldBucket.getEpochBucket() == bucket.getEpochBucket()) {
+                if (current.buckets.compareAndSet(index, oldBucket, bucketReducer.apply(oldBucket, bucket))) {
+                    return;
+                }
+                continue;
+            } else if (oldBucket == null || oldBucket.getEpochBucket() < bucket.getEpochBucket()) {
+                if (!current.buckets.compareAndSet(index, oldBucket, bucket)) {
+                    continue;
+                }
+                if (oldBucket == null) {
+                    return;
+                }
+                evicted = oldBucket;
+            } else {
+                // slot already holds a newer bucket, so this one belongs to the coarser ring
+                evicted = bucket;
+            }
+
+            if (++level == levels.length) {
+                // older than the longest window
+                return;
+            }
+            bucket = rollUp(evicted, levels[level - 1], levels[level]);
+        }
+    }
+
+    private static Bucket rollUp(Bucket bucket, Level from, Level to) {
+        return new Bucket(
+            bucket.getEpochBucket() * from.bucketMillis / to.bucketMillis,
+            bucket.getCount(),
+            bucket.getMin(),
+            bucket.getMax(),
+            bucket.getSum());
+    }
+
+    private boolean isValidTimestamp(Instant now, Instant timestamp) {
+        return levels[levels.length - 1].timeline.isValidTimestamp(now, timestamp);
+    }
+}
@@ -0,0 +1,263 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Statistics aggregator which keeps a ring of buckets as leaves of a segment tree,
+ * so stats of any window ending now (e.g. the last 15 seconds of an hour long ring)
+ * are served from O(log K) precomputed nodes instead of a scan of the ring.
+ * <p>
+ * Leaves are updated with CAS as in {@link BucketStatsAggregator}, afterwards each
+ * ancestor is recomputed from its children and published with CAS. Every ancestor
+ * is refreshed at most twice: if both attempts fail, another refresh which had
+ * read the children after this leaf was updated has already succeeded, so writers
+ * never spin on the root. Nodes keep the range of bucket epochs below them, so nodes
+ * holding buckets which left the window are never used as a whole. Such buckets are
+ * cleared by the writer which moves the newest bucket forward, so queries
+ * descend below the covering nodes only for a short moment after an idle period.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * For number of buckets K:
+ * {@link SegmentTreeStatsAggregator#add(Instant, double)} - complexity is O(log K),
+ * plus O(1) amortized for buckets skipped while nothing was added;
+ * {@link SegmentTreeStatsAggregator#getStats(Duration)} - complexity is O(log K);
+ * memory consumption - O(K)
+ */
+public class SegmentTreeStatsAggregator implements WindowedStatsAggregator, MergingStatsAggregator {
+
+    private final BucketTimeline timeline;
+    private final TimeSource timeSource;
+    // heap layout: root at 1, children of i at 2i and 2i + 1, slot s at leaves + s
+    private final AtomicReferenceArray<Node> tree;
+    private final int leaves;
+    // newest bucket added so far, buckets between it and now are not cleared yet
+    private final AtomicLong newestEpochBucket = new AtomicLong(Long.MIN_VALUE);
+
+    public SegmentTreeStatsAggregator(int duration,
+                                      Duration bucketWidth,
+                                      TimeSource timeSource) {
+        this.timeline = new BucketTimeline(duration, bucketWidth);
+        this.timeSource = timeSource;
+        int buckets = timeline.getBuckets();
+        if (buckets > 1 << 29) {
+            throw new IllegalArgumentException("Too many buckets for a segment tree: " + buckets);
+        }
+        this.leaves = buckets == 1 ? 1 : Integer.highestOneBit(buckets - 1) << 1;
+        this.tree = new AtomicReferenceArray<>(2 * leaves);
+        // inner nodes are never null, so a refresh could not be fooled by null -> node -> null
+        for (int node = 1; node < leaves; ++node) {
+            tree.set(node, Node.EMPTY_INNER.copy());
+        }
+    }
+
+    public SegmentTreeStatsAggregator(int duration,
+                                      TimeSource timeSource) {
+        this(duration, BucketTimeline.DEFAULT_BUCKET_WIDTH, timeSource);
+    }
+
+    private static final class Node {
+
+        private static final Node EMPTY_INNER =
+            new Node(Long.MAX_VALUE, Long.MIN_VALUE, 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.0);
+
+        private final long minEpochBucket;
+        private final long maxEpochBucket;
+        private final long count;
+        private final double min;
+        private final double max;
+        private final double sum;
+
+        Node(long minEpochBucket, long maxEpochBucket, long count, double min, double max, double sum) {
+            this.minEpochBucket = minEpochBucket;
+            this.maxEpochBucket = maxEpochBucket;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.sum = sum;
+        }
+
+        Node copy() {
+            return new Node(minEpochBucket, maxEpochBucket, count, min, max, sum);
+        }
+
+        boolean within(long start, long end) {
+            return minEpochBucket >= start && maxEpochBucket < end;
+        }
+
+        static Node merge(Node left, Node right) {
+            if (left == null || left.count == 0) {
+                return right == null ? EMPTY_INNER.copy() : right.copy();
+            }
+            if (right == null || right.count == 0) {
+                return left.copy();
+            }
+            return new Node(
+                Math.min(left.minEpochBucket, right.minEpochBucket),
+                Math.max(left.maxEpochBucket, right.maxEpochBucket),
+                left.count + right.count,
+                Math.min(left.min, right.min),
+                Math.max(left.max, right.max),
+                left.sum + right.sum);
+        }
+
+        Stats toStats() {
+            return new Stats(count, min, max, sum);
+        }
+    }
+
+    @Override
+    public boolean add(Instant timestamp, double value) {
+        return add(timestamp, 1, value, value, value);
+    }
+
+    @Override
+    public boolean add(Instant timestamp, Stats partial) {
+        return add(timestamp, partial.getCount(), partial.getMin(), partial.getMax(), partial.getSum());
+    }
+
+    private boolean add(Instant timestamp, long count, double min, double max, double sum) {
+
+        Instant now = timeSource.now();
+        if (!timeline.isValidTimestamp(now, timestamp)) {
+            return false;
+        }
+        long epochBucket = timeline.epochBucket(timestamp);
+        int leaf = leaves + timeline.index(epochBucket);
+
+        Node oldLeaf;
+        Node newLeaf;
+        do {
+            oldLeaf = tree.get(leaf);
+            if (oldLeaf != null && oldLeaf.minEpochBucket == epochBucket) {
+                newLeaf = new Node(epochBucket, epochBucket,
+                    oldLeaf.count + count,
+                    Math.min(oldLeaf.min, min),
+                    Math.max(oldLeaf.max, max),
+                    oldLeaf.sum + sum);
+            } else if (oldLeaf == null || oldLeaf.minEpochBucket < epochBucket) {
+                newLeaf = new Node(epochBucket, epochBucket, count, min, max, sum);
+            } else {
+                // slot was taken by a newer bucket meanwhile, so this one has just left the window
+                return false;
+            }
+        } while (!tree.compareAndSet(leaf, oldLeaf, newLeaf));
+        refreshAncestors(leaf);
+
+        advance(epochBucket);
+        return true;
+    }
+
+    // moves the newest bucket forward and clears slots of buckets skipped since the previous one
+    private void advance(long epochBucket) {
+        long newest;
+        do {
+            newest = newestEpochBucket.get();
+            if (newest >= epochBucket) {
+                return;
+            }
+        } while (!newestEpochBucket.compareAndSet(newest, epochBucket));
+
+        if (newest == Long.MIN_VALUE) {
+            return;
+        }
+        long from = Math.max(newest + 1, epochBucket - timeline.getBuckets() + 1);
+        for (long skipped = from; skipped < epochBucket; ++skipped) {
+            int leaf = leaves + timeline.index(skipped);
+            Node node = tree.get(leaf);
+            // a failed CAS means the slot has just got a bucket at least as new as the skipped one
+            if (node != null && node.minEpochBucket < skipped && tree.compareAndSet(leaf, node, null)) {
+                refreshAncestors(leaf);
+            }
+        }
+    }
+
+    private void refreshAncestors(int leaf) {
+        for (int node = leaf >> 1; node >= 1; node >>= 1) {
+            if (!refresh(node)) {
+                refresh(node);
+            }
+        }
+    }
+
+    private boolean refresh(int node) {
+        Node old = tree.get(node);
+        Node updated = Node.merge(tree.get(2 * node), tree.get(2 * node + 1));
+        return tree.compareAndSet(node, old, updated);
+    }
+
+    @Override
+    public Optional<Stats> getStats() {
+        return getStats(Duration.ofSeconds(getDuration()));
+    }
+
+    @Override
+    public Optional<Stats> getStats(Duration window) {
+
+        if (window.isNegative() || window.isZero() || window.compareTo(Duration.ofSeconds(getDuration())) > 0) {
+            throw new IllegalArgumentException("Window should be positive and not longer than "
+                + getDuration() + " seconds: " + window);
+        }
+
+        long bucketMillis = timeline.getBucketWidth().toMillis();
+        long windowBuckets = (window.toMillis() + bucketMillis - 1) / bucketMillis;
+        long end = timeline.windowEnd(timeSource.now());
+        long start = end - windowBuckets;
+        // slots after the newest bucket hold buckets of the previous turn of the ring
+        long queryEnd = Math.min(end, newestEpochBucket.get() + 1);
+        if (queryEnd <= start) {
+            return Optional.empty();
+        }
+
+        int first = timeline.index(start);
+        int length = (int) (queryEnd - start);
+        Node result;
+        if (first + length <= timeline.getBuckets()) {
+            result = query(1, 0, leaves, first, first + length, start, end);
+        } else {
+            result = Node.merge(
+                query(1, 0, leaves, first, timeline.getBuckets(), start, end),
+                query(1, 0, leaves, 0, first + length - timeline.getBuckets(), start, end));
+        }
+        return result == null || result.count == 0
+            ? Optional.empty()
+            : Optional.of(result.toStats());
+    }
+
+    // aggregates buckets of epochs [start, end) held by slots [from, to) below node covering slots [lo, hi)
+    private Node query(int node, int lo, int hi, int from, int to, long start, long end) {
+        if (to <= lo || hi <= from) {
+            return null;
+        }
+        Node value = tree.get(node);
+        if (value == null || value.count == 0) {
+            return null;
+        }
+        if (from <= lo && hi <= to && value.within(start, end)) {
+            return value;
+        }
+        if (hi - lo == 1) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        return Node.merge(
+            query(2 * node, lo, mid, from, to, start, end),
+            query(2 * node + 1, mid, hi, from, to, start, end));
+    }
+
+    @Override
+    public int getDuration() {
+        return timeline.getDuration();
+    }
+
+    @Override
+    public Duration getBucketWidth() {
+        return timeline.getBucketWidth();
+    }
+}
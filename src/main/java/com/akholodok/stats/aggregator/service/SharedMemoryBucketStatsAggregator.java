@@ -0,0 +1,478 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Statistics aggregator which is based on bucketing, same as {@link PrimitiveBucketStatsAggregator},
+ * but keeps the ring in a memory-mapped file, e.g. in {@code /dev/shm}, so that several processes
+ * on the same host add into and read from the same window.
+ * <p>
+ * File layout, in native byte order:
+ * <ul>
+ * <li>header of {@link SharedMemoryBucketStatsAggregator#HEADER_SIZE} bytes:
+ * {@code [magic:int][version:int][bucketMillis:long][buckets:int][slotSize:int]}, zero padded</li>
+ * <li>{@code buckets} slots of {@link SharedMemoryBucketStatsAggregator#SLOT_SIZE} bytes (one cache line):
+ * {@code [sequence:long][epochBucket:long][count:long][min:double][max:double][sum:double]}, zero padded</li>
+ * </ul>
+ * The first process creates the file under a file lock and writes magic last, the others check that
+ * layout version, bucket width and number of buckets match their own configuration.
+ * <p>
+ * Each slot is guarded by a sequence lock, which is taken with a compare-and-set on the mapped memory,
+ * so it is atomic across processes. Slot is reset for a newer bucket under the same lock and readers
+ * retry if slot has changed while being read, so buckets which have left the window are never mixed
+ * with new ones. A slot held for longer than {@link SharedMemoryBucketStatsAggregator#LOCK_TIMEOUT}
+ * is assumed to be abandoned by a killed process and is taken over and reset by either a writer or a reader,
+ * so only the first read after the process is killed waits for it. Owner releases the slot with
+ * a compare-and-set from its own odd sequence, so an owner which has been paused for that long,
+ * rather than killed, does not release the slot of the writer which took it over.
+ * <p>
+ * Memory is accessed through {@code sun.misc.Unsafe}, which is looked up reflectively together with
+ * the address of the mapping, so the class does not depend on internal API at compile time.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * Same as for {@link BucketStatsAggregator}, memory consumption is
+ * {@link SharedMemoryBucketStatsAggregator#SLOT_SIZE} bytes per bucket of shared memory.
+ */
+public class SharedMemoryBucketStatsAggregator implements MergingStatsAggregator, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedMemoryBucketStatsAggregator.class);
+
+    static final int MAGIC = 0x5341474D;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int SLOT_SIZE = 64;
+    static final Duration LOCK_TIMEOUT = Duration.ofSeconds(10);
+
+    // header layout
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int BUCKET_MILLIS_OFFSET = 8;
+    private static final int BUCKETS_OFFSET = 16;
+    private static final int SLOT_SIZE_OFFSET = 20;
+
+    // slot layout
+    private static final int SEQUENCE = 0;
+    private static final int EPOCH_BUCKET = 8;
+    private static final int COUNT = 16;
+    private static final int MIN = 24;
+    private static final int MAX = 32;
+    private static final int SUM = 40;
+
+    private final BucketTimeline timeline;
+    private final TimeSource timeSource;
+    private final Path file;
+    private final FileChannel channel;
+    // kept reachable, so that memory is not unmapped while in use
+    private final MappedByteBuffer buffer;
+    private final long slotsAddress;
+    private final Duration lockTimeout;
+
+    public SharedMemoryBucketStatsAggregator(int duration,
+                                             Duration bucketWidth,
+                                             Path file,
+                                             TimeSource timeSource) {
+        this(duration, bucketWidth, file, timeSource, LOCK_TIMEOUT);
+    }
+
+    SharedMemoryBucketStatsAggregator(int duration,
+                                      Duration bucketWidth,
+                                      Path file,
+                                      TimeSource timeSource,
+                                      Duration lockTimeout) {
+        this.timeline = new BucketTimeline(duration, bucketWidth);
+        this.timeSource = timeSource;
+        this.file = file;
+        this.lockTimeout = lockTimeout;
+        long size = HEADER_SIZE + (long) timeline.getBuckets() * SLOT_SIZE;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many buckets: " + timeline.getBuckets());
+        }
+        try {
+            this.channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try (FileLock ignored = channel.lock()) {
+                boolean created = channel.size() == 0;
+                if (created) {
+                    // pages of extended file are zeroes, i.e. empty slots
+                    channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+                } else if (channel.size() != size) {
+                    throw new IllegalStateException("Shared memory file " + file + " has size " + channel.size()
+                        + " bytes, but " + size + " bytes are expected for " + timeline.getBuckets() + " buckets");
+                }
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                long address = Memory.address(buffer);
+                initHeader(address);
+                this.slotsAddress = address + HEADER_SIZE;
+                LOG.info("{} shared memory ring of {} buckets in {}",
+                    created ? "Created" : "Opened", timeline.getBuckets(), file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map shared memory file " + file, e);
+        }
+    }
+
+    private void initHeader(long address) {
+        long bucketMillis = timeline.getBucketWidth().toMillis();
+        int magic = Memory.getIntVolatile(address + MAGIC_OFFSET);
+        if (magic == 0) {
+            // either a new file or its creator was killed before the header was complete
+            Memory.putInt(address + VERSION_OFFSET, VERSION);
+            Memory.putLong(address + BUCKET_MILLIS_OFFSET, bucketMillis);
+            Memory.putInt(address + BUCKETS_OFFSET, timeline.getBuckets());
+            Memory.putInt(address + SLOT_SIZE_OFFSET, SLOT_SIZE);
+            Memory.putIntVolatile(address + MAGIC_OFFSET, MAGIC);
+            return;
+        }
+        int version = Memory.getInt(address + VERSION_OFFSET);
+        if (magic != MAGIC || version != VERSION) {
+            throw new IllegalStateException("Unknown shared memory layout in " + file + ": " + magic + " v" + version);
+        }
+        if (Memory.getLong(address + BUCKET_MILLIS_OFFSET) != bucketMillis
+            || Memory.getInt(address + BUCKETS_OFFSET) != timeline.getBuckets()
+            || Memory.getInt(address + SLOT_SIZE_OFFSET) != SLOT_SIZE) {
+            throw new IllegalStateException("Shared memory file " + file + " holds "
+                + Memory.getInt(address + BUCKETS_OFFSET) + " buckets of "
+                + Memory.getLong(address + BUCKET_MILLIS_OFFSET) + "ms, but "
+                + timeline.getBuckets() + " buckets of " + bucketMillis + "ms are configured");
+        }
+    }
+
+    public SharedMemoryBucketStatsAggregator(int duration,
+                                             Path file,
+                                             TimeSource timeSource) {
+        this(duration, BucketTimeline.DEFAULT_BUCKET_WIDTH, file, timeSource);
+    }
+
+    @Override
+    public boolean add(Instant timestamp, double value) {
+        return add(timestamp, 1, value, value, value);
+    }
+
+    @Override
+    public boolean add(Instant timestamp, Stats partial) {
+        return add(timestamp, partial.getCount(), partial.getMin(), partial.getMax(), partial.getSum());
+    }
+
+    private boolean add(Instant timestamp, long count, double min, double max, double sum) {
+
+        long statEpochBucket = timeline.epochBucket(timestamp);
+        long slot = slotsAddress + (long) timeline.index(statEpochBucket) * SLOT_SIZE;
+
+        if (!timeline.isValidTimestamp(timeSource.now(), timestamp)) {
+            return false;
+        }
+        long sequence = lock(slot);
+        try {
+            // time could pass while waiting for the lock
+            if (!timeline.isValidTimestamp(timeSource.now(), timestamp)) {
+                return false;
+            }
+            long slotEpochBucket = Memory.getLong(slot + EPOCH_BUCKET);
+            long slotCount = Memory.getLong(slot + COUNT);
+            if (slotCount != 0 && slotEpochBucket > statEpochBucket) {
+                // another process has already moved the slot to a newer bucket
+                return false;
+            }
+            if (slotCount == 0 || slotEpochBucket != statEpochBucket) {
+                // slot has no value yet or holds a bucket which has left the window - reset it
+                Memory.putLong(slot + EPOCH_BUCKET, statEpochBucket);
+                Memory.putLong(slot + COUNT, count);
+                putDouble(slot + MIN, min);
+                putDouble(slot + MAX, max);
+                putDouble(slot + SUM, sum);
+            } else {
+                Memory.putLong(slot + COUNT, slotCount + count);
+                putDouble(slot + MIN, Math.min(getDouble(slot + MIN), min));
+                putDouble(slot + MAX, Math.max(getDouble(slot + MAX), max));
+                putDouble(slot + SUM, getDouble(slot + SUM) + sum);
+            }
+            return true;
+        } finally {
+            if (!Memory.compareAndSwapLong(slot + SEQUENCE, sequence + 1, sequence + 2)) {
+                LOG.warn("Shared memory slot has been taken over while held for more than {}", lockTimeout);
+            }
+        }
+    }
+
+    // moves slot sequence from even to odd value, returns the even one which precedes the owned odd value
+    private long lock(long slot) {
+        long observed = -1;
+        long observedSince = 0;
+        while (true) {
+            long sequence = Memory.getLongVolatile(slot + SEQUENCE);
+            if ((sequence & 1) == 0) {
+                if (Memory.compareAndSwapLong(slot + SEQUENCE, sequence, sequence + 1)) {
+                    return sequence;
+                }
+                continue;
+            }
+            // odd sequence means that another writer, possibly of another process, owns the slot
+            long now = System.nanoTime();
+            if (sequence != observed) {
+                observed = sequence;
+                observedSince = now;
+            } else if (now - observedSince > lockTimeout.toNanos() && takeOver(slot, sequence)) {
+                return sequence + 1;
+            }
+            Thread.yield();
+        }
+    }
+
+    // moves abandoned slot from its odd sequence to the next odd one and drops its bucket,
+    // which could be written partially, the slot is then owned by the caller
+    private boolean takeOver(long slot, long sequence) {
+        if (!Memory.compareAndSwapLong(slot + SEQUENCE, sequence, sequence + 2)) {
+            return false;
+        }
+        LOG.warn("Took over shared memory slot abandoned for more than {}", lockTimeout);
+        Memory.putLong(slot + COUNT, 0);
+        return true;
+    }
+
+    @Override
+    public Optional<Stats> getStats() {
+
+        Instant now = timeSource.now();
+        long start = timeline.windowStart(now);
+        long end = timeline.windowEnd(now);
+
+        long count = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0.0;
+        for (int index = 0; index < timeline.getBuckets(); ++index) {
+            long slot = slotsAddress + (long) index * SLOT_SIZE;
+            long observed = -1;
+            long observedSince = 0;
+            while (true) {
+                long sequence = Memory.getLongVolatile(slot + SEQUENCE);
+                long epochBucket = Memory.getLong(slot + EPOCH_BUCKET);
+                long slotCount = Memory.getLong(slot + COUNT);
+                double slotMin = getDouble(slot + MIN);
+                double slotMax = getDouble(slot + MAX);
+                double slotSum = getDouble(slot + SUM);
+                Memory.loadFence();
+                if ((sequence & 1) == 0 && Memory.getLongVolatile(slot + SEQUENCE) == sequence) {
+                    if (slotCount > 0 && epochBucket >= start && epochBucket < end) {
+                        count += slotCount;
+                        min = Math.min(min, slotMin);
+                        max = Math.max(max, slotMax);
+                        sum += slotSum;
+                    }
+                    break;
+                }
+                // writer of a killed process never releases the slot, so reader takes it over
+                // and releases it empty, later reads do not wait for it
+                long nanos = System.nanoTime();
+                if (sequence != observed) {
+                    observed = sequence;
+                    observedSince = nanos;
+                } else if ((sequence & 1) != 0 && nanos - observedSince > lockTimeout.toNanos()
+                    && takeOver(slot, sequence)) {
+                    Memory.compareAndSwapLong(slot + SEQUENCE, sequence + 2, sequence + 3);
+                    continue;
+                }
+                Thread.yield();
+            }
+        }
+
+        return count > 0
+            ? Optional.of(new Stats(count, min, max, sum))
+            : Optional.empty();
+    }
+
+    private static double getDouble(long address) {
+        return Double.longBitsToDouble(Memory.getLong(address));
+    }
+
+    private static void putDouble(long address, double value) {
+        Memory.putLong(address, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Get the file which holds the ring.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public int getDuration() {
+        return timeline.getDuration();
+    }
+
+    @Override
+    public Duration getBucketWidth() {
+        return timeline.getBucketWidth();
+    }
+
+    /**
+     * Close the file, the ring stays mapped until the aggregator is garbage collected
+     * and stays in the file for other processes.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Plain, volatile and atomic access to memory by address. Method handles of {@code sun.misc.Unsafe}
+     * are constants, so they are inlined by JIT the same way as direct calls.
+     */
+    private static final class Memory {
+
+        private static final MethodHandle GET_INT;
+        private static final MethodHandle PUT_INT;
+        private static final MethodHandle GET_LONG;
+        private static final MethodHandle PUT_LONG;
+        private static final MethodHandle GET_INT_VOLATILE;
+        private static final MethodHandle PUT_INT_VOLATILE;
+        private static final MethodHandle GET_LONG_VOLATILE;
+        private static final MethodHandle COMPARE_AND_SWAP_LONG;
+        private static final MethodHandle LOAD_FENCE;
+        private static final MethodHandle GET_FIELD_LONG;
+        private static final long ADDRESS_OFFSET;
+
+        static {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                Object unsafe = field.get(null);
+
+                GET_INT = find(unsafe, "getInt", int.class, long.class);
+                PUT_INT = find(unsafe, "putInt", void.class, long.class, int.class);
+                GET_LONG = find(unsafe, "getLong", long.class, long.class);
+                PUT_LONG = find(unsafe, "putLong", void.class, long.class, long.class);
+                GET_INT_VOLATILE = find(unsafe, "getIntVolatile", int.class, Object.class, long.class);
+                PUT_INT_VOLATILE = find(unsafe, "putIntVolatile", void.class, Object.class, long.class, int.class);
+                GET_LONG_VOLATILE = find(unsafe, "getLongVolatile", long.class, Object.class, long.class);
+                COMPARE_AND_SWAP_LONG = find(unsafe, "compareAndSwapLong",
+                    boolean.class, Object.class, long.class, long.class, long.class);
+                LOAD_FENCE = find(unsafe, "loadFence", void.class);
+                GET_FIELD_LONG = find(unsafe, "getLong", long.class, Object.class, long.class);
+                // offset rather than the field itself, since the field is not accessible on newer JDKs
+                ADDRESS_OFFSET = (long) find(unsafe, "objectFieldOffset", long.class, Field.class)
+                    .invoke(Buffer.class.getDeclaredField("address"));
+            } catch (Throwable e) {
+                throw new IllegalStateException("Atomic access to shared memory is not available", e);
+            }
+        }
+
+        private static MethodHandle find(Object unsafe, String name, Class<?> returnType, Class<?>... parameterTypes)
+            throws ReflectiveOperationException {
+            return MethodHandles.lookup()
+                .findVirtual(unsafe.getClass(), name, MethodType.methodType(returnType, parameterTypes))
+                .bindTo(unsafe);
+        }
+
+        static long address(ByteBuffer buffer) {
+            try {
+                return (long) GET_FIELD_LONG.invokeExact((Object) buffer, ADDRESS_OFFSET);
+            } catch (Throwable e) {
+                throw propagate(e);
+            }
+        }
+
+        static int getInt(long address) {
+            try {
+                return (int) GET_INT.invokeExact(address);
+            } catch (Throwable e) {
+                throw propagate(e);
+            }
+        }
+
+        static void putInt(long address, int value) {
+            try {
+                PUT_INT.invokeExact(address, value);
+            } catch (Throwable e) {
+                throw propagate(e);
+            }
+        }
+
+        static long getLong(long address) {
+            try {
+                return (long) GET_LONG.invokeExact(address);
+            } catch (Throwable e) {
+                throw propagate(e);
+            }
+        }
+
+        static void putLong(long address, long value) {
+            try {
+                PUT_LONG.invokeExact(address, value);
+            } catch (Throwable e) {
+                throw propagate(e);
+            }
+        }
+
+        static int getIntVolatile(long address) {
+            try {
+                return (int) GET_INT_VOLATILE.invokeExact((Object) null, address);
+            } catch (Throwable e) {
+                throw propagate(e);
+            }
+        }
+
+        static void putIntVolatile(long address, int value) {
+            try {
+                PUT_INT_VOLATILE.invokeExact((Object) null, address, value);
+            } catch (Throwable e) {
+                throw propagate(e);
+            }
+        }
+
+        static long getLongVolatile(long address) {
+            try {
+                return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+            } catch (Throwable e) {
+                throw propagate(e);
+            }
+        }
+
+        static boolean compareAndSwapLong(long address, long expected, long value) {
+            try {
+                return (boolean) COMPARE_AND_SWAP_LONG.invokeExact((Object) null, address, expected, value);
+            } catch (Throwable e) {
+                throw propagate(e);
+            }
+        }
+
+        static void loadFence() {
+            try {
+                LOAD_FENCE.invokeExact();
+            } catch (Throwable e) {
+                throw propagate(e);
+            }
+        }
+
+        private static RuntimeException propagate(Throwable e) {
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+            return e instanceof RuntimeException
+                ? (RuntimeException) e
+                : new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Quantiles;
+import com.akholodok.stats.aggregator.model.Stats;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+/**
+ * Statistics aggregator which delegates {@link Stats} aggregation to another aggregator
+ * and additionally keeps a ring of {@link QuantileSketch} buckets to estimate quantiles.
+ * <p>
+ * Every value accepted by delegate is recorded into the sketch of its bucket with a single
+ * atomic increment, sketches of the window are merged into a new one on read.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * For number of sketch buckets K:
+ * {@link SketchingStatsAggregator#add(Instant, double)} - complexity of delegate plus O(1);
+ * {@link SketchingStatsAggregator#getQuantiles(double...)} - complexity is O(K);
+ * memory consumption - memory of delegate plus O(K) sketches
+ */
+public class SketchingStatsAggregator implements QuantileStatsAggregator, WindowedStatsAggregator, DelegatingStatsAggregator, AutoCloseable {
+
+    private final StatsAggregator delegate;
+    private final BucketTimeline timeline;
+    private final AtomicReferenceArray<SketchBucket> buckets;
+    private final TimeSource timeSource;
+
+    public SketchingStatsAggregator(StatsAggregator delegate,
+                                    Duration bucketWidth,
+                                    TimeSource timeSource) {
+        this.delegate = delegate;
+        this.timeline = new BucketTimeline(delegate.getDuration(), bucketWidth);
+        this.buckets = new AtomicReferenceArray<>(timeline.getBuckets());
+        this.timeSource = timeSource;
+    }
+
+    private static class SketchBucket {
+
+        // number of bucket widths since unix epoch
+        private final long epochBucket;
+        private final QuantileSketch sketch;
+
+        SketchBucket(long epochBucket) {
+            this.epochBucket = epochBucket;
+            this.sketch = new QuantileSketch();
+        }
+    }
+
+    @Override
+    public boolean add(Instant timestamp, double value) {
+        if (!delegate.add(timestamp, value)) {
+            return false;
+        }
+
+        long statEpochBucket = timeline.epochBucket(timestamp);
+        int index = timeline.index(statEpochBucket);
+        SketchBucket bucket = buckets.get(index);
+        while (bucket == null || bucket.epochBucket < statEpochBucket) {
+            SketchBucket newBucket = new SketchBucket(statEpochBucket);
+            bucket = buckets.compareAndSet(index, bucket, newBucket)
+                ? newBucket
+                : buckets.get(index);
+        }
+        // bucket newer than value means that value has already left the window
+        if (bucket.epochBucket == statEpochBucket) {
+            bucket.sketch.record(value);
+        }
+        return true;
+    }
+
+    @Override
+    public Optional<Stats> getStats() {
+        return delegate.getStats();
+    }
+
+    @Override
+    public Optional<Stats> getStats(Duration window) {
+        return DelegatingStatsAggregator.find(delegate, WindowedStatsAggregator.class)
+            .orElseThrow(() -> new IllegalArgumentException("Configured stats aggregator does not support custom windows"))
+            .getStats(window);
+    }
+
+    @Override
+    public Optional<Quantiles> getQuantiles(double... quantiles) {
+
+        for (double quantile : quantiles) {
+            if (!(quantile >= 0.0 && quantile <= 1.0)) {
+                throw new IllegalArgumentException("Quantile should be in [0, 1] range: " + quantile);
+            }
+        }
+
+        Instant now = timeSource.now();
+        long start = timeline.windowStart(now);
+        long end = timeline.windowEnd(now);
+
+        QuantileSketch sketch = IntStream.range(0, buckets.length())
+            .mapToObj(buckets::get)
+            .filter(Objects::nonNull)
+            .filter(bucket -> bucket.epochBucket >= start && bucket.epochBucket < end)
+            .map(bucket -> bucket.sketch)
+            .collect(QuantileSketch::new, QuantileSketch::merge, QuantileSketch::merge);
+
+        return Optional.of(sketch)
+            .filter(merged -> merged.getCount() > 0)
+            .map(merged -> toQuantiles(merged, quantiles));
+    }
+
+    @Override
+    public int getDuration() {
+        return delegate.getDuration();
+    }
+
+    @Override
+    public StatsAggregator getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (delegate instanceof AutoCloseable) {
+            ((AutoCloseable) delegate).close();
+        }
+    }
+
+    private static Quantiles toQuantiles(QuantileSketch sketch, double[] quantiles) {
+        double[] sorted = quantiles.clone();
+        Arrays.sort(sorted);
+        double[] values = sketch.getQuantiles(sorted);
+
+        Map<Double, Double> result = new LinkedHashMap<>();
+        for (double quantile : quantiles) {
+            result.put(quantile, values[Arrays.binarySearch(sorted, quantile)]);
+        }
+        return new Quantiles(sketch.getCount(), result);
+    }
+}
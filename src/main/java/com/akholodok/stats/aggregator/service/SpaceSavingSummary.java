@@ -0,0 +1,150 @@
+package com.akholodok.stats.aggregator.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Weighted Space-Saving summary (Metwally et al.) which tracks heaviest keys
+ * of a stream in a fixed number of counters.
+ * <p>
+ * Counters are kept in a binary min-heap. Weight of a new key which does not fit
+ * into the summary replaces the lightest counter and inherits its weight as an error,
+ * so weight of every counter overestimates true weight of its key by at most
+ * {@link SpaceSavingSummary#getError(int)}, which in turn is at most
+ * {@code total / capacity}. Every key with weight above {@code total / capacity} is kept.
+ * <p>
+ * Summary is not thread-safe.
+ */
+public class SpaceSavingSummary {
+
+    private final int capacity;
+    private final String[] keys;
+    private final double[] weights;
+    private final double[] errors;
+    private final Map<String, Integer> positions;
+    private int size;
+    private double total;
+
+    public SpaceSavingSummary(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity should be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.keys = new String[capacity];
+        this.weights = new double[capacity];
+        this.errors = new double[capacity];
+        this.positions = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Add {@code weight} to {@code key}.
+     *
+     * @param weight Non-negative weight.
+     */
+    public void add(String key, double weight) {
+        if (!(weight >= 0.0)) {
+            throw new IllegalArgumentException("Weight should be non-negative: " + weight);
+        }
+        total += weight;
+
+        Integer position = positions.get(key);
+        if (position != null) {
+            weights[position] += weight;
+            siftDown(position);
+        } else if (size < capacity) {
+            set(size, key, weight, 0.0);
+            siftUp(size++);
+        } else {
+            positions.remove(keys[0]);
+            double min = weights[0];
+            set(0, key, min + weight, min);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Get upper bound of weight of any key which is not kept in the summary.
+     */
+    public double getMinWeight() {
+        return size < capacity ? 0.0 : weights[0];
+    }
+
+    /**
+     * Get sum of all added weights.
+     */
+    public double getTotal() {
+        return total;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get key of counter {@code i}, counters are not ordered.
+     */
+    public String getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * Get estimated weight of counter {@code i}.
+     */
+    public double getWeight(int i) {
+        return weights[i];
+    }
+
+    /**
+     * Get maximum overestimation of weight of counter {@code i}.
+     */
+    public double getError(int i) {
+        return errors[i];
+    }
+
+    private void set(int i, String key, double weight, double error) {
+        keys[i] = key;
+        weights[i] = weight;
+        errors[i] = error;
+        positions.put(key, i);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (weights[parent] <= weights[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && weights[child + 1] < weights[child]) {
+                ++child;
+            }
+            if (weights[i] <= weights[child]) {
+                return;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        String key = keys[i];
+        double weight = weights[i];
+        double error = errors[i];
+        set(i, keys[j], weights[j], errors[j]);
+        set(j, key, weight, error);
+    }
+}
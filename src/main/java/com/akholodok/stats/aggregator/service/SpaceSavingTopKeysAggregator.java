@@ -0,0 +1,171 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.TopKeys;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+
+/**
+ * Statistics aggregator which keeps a ring of buckets, same way as {@link BucketStatsAggregator},
+ * but every bucket holds a pair of {@link SpaceSavingSummary} with fixed number of counters:
+ * one weighted by count and one weighted by value.
+ * <p>
+ * Summaries of the window are merged on read: estimates of a key are summed over buckets,
+ * bucket which does not keep a key contributes its minimum counter to the key error.
+ * For window with total weight N (count or sum) and C counters per bucket,
+ * every reported estimate differs from the true value by at most reported error,
+ * which is at most N / C. Every key with true value above N / C is kept by at least one bucket,
+ * so it is always among the candidates for the top.
+ * <p>
+ * Sum summary is weighted by positive values only, negative values (e.g. refunds)
+ * do not contribute to the ranking by sum.
+ * <p>
+ * Summary is updated under the lock of its bucket, so writes into the same bucket are serialized.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * For number of buckets K and number of counters C:
+ * {@link SpaceSavingTopKeysAggregator#add(String, Instant, double)} - time complexity is O(log C);
+ * {@link SpaceSavingTopKeysAggregator#getTop(int, Measure)} - time complexity is O(K * C);
+ * memory consumption - O(K * C)
+ */
+public class SpaceSavingTopKeysAggregator implements TopKeysAggregator {
+
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final BucketTimeline timeline;
+    private final AtomicReferenceArray<TopBucket> buckets;
+    private final int capacity;
+    private final TimeSource timeSource;
+
+    public SpaceSavingTopKeysAggregator(int duration,
+                                        Duration bucketWidth,
+                                        int capacity,
+                                        TimeSource timeSource) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity should be positive: " + capacity);
+        }
+        this.timeline = new BucketTimeline(duration, bucketWidth);
+        this.buckets = new AtomicReferenceArray<>(timeline.getBuckets());
+        this.capacity = capacity;
+        this.timeSource = timeSource;
+    }
+
+    public SpaceSavingTopKeysAggregator(int duration, TimeSource timeSource) {
+        this(duration, BucketTimeline.DEFAULT_BUCKET_WIDTH, DEFAULT_CAPACITY, timeSource);
+    }
+
+    private static class TopBucket {
+
+        // number of bucket widths since unix epoch
+        private final long epochBucket;
+        // guarded by this
+        private final SpaceSavingSummary byCount;
+        private final SpaceSavingSummary bySum;
+
+        TopBucket(long epochBucket, int capacity) {
+            this.epochBucket = epochBucket;
+            this.byCount = new SpaceSavingSummary(capacity);
+            this.bySum = new SpaceSavingSummary(capacity);
+        }
+
+        synchronized void add(String key, double value) {
+            byCount.add(key, 1.0);
+            if (value > 0.0) {
+                bySum.add(key, value);
+            }
+        }
+
+        synchronized void mergeInto(Map<String, Estimate> estimates, Measure measure, Estimate missing) {
+            SpaceSavingSummary summary = measure == Measure.COUNT ? byCount : bySum;
+            double min = summary.getMinWeight();
+            missing.value += summary.getTotal();
+            missing.error += min;
+            for (int i = 0; i < summary.size(); ++i) {
+                Estimate estimate = estimates.computeIfAbsent(summary.getKey(i), key -> new Estimate());
+                estimate.value += summary.getWeight(i);
+                estimate.error += summary.getError(i);
+                // subtracted from the sum of bucket minimums, which is added to every key at the end
+                estimate.present += min;
+            }
+        }
+    }
+
+    private static class Estimate {
+
+        private double value;
+        private double error;
+        private double present;
+    }
+
+    @Override
+    public boolean add(String key, Instant timestamp, double value) {
+        Instant now = timeSource.now();
+        if (!timeline.isValidTimestamp(now, timestamp)) {
+            return false;
+        }
+
+        long statEpochBucket = timeline.epochBucket(timestamp);
+        int index = timeline.index(statEpochBucket);
+        TopBucket bucket = buckets.get(index);
+        while (bucket == null || bucket.epochBucket < statEpochBucket) {
+            TopBucket newBucket = new TopBucket(statEpochBucket, capacity);
+            bucket = buckets.compareAndSet(index, bucket, newBucket)
+                ? newBucket
+                : buckets.get(index);
+        }
+        // bucket newer than value means that value has already left the window
+        if (bucket.epochBucket == statEpochBucket) {
+            bucket.add(key, value);
+        }
+        return true;
+    }
+
+    @Override
+    public Optional<TopKeys> getTop(int k, Measure measure) {
+        if (k <= 0 || k > capacity) {
+            throw new IllegalArgumentException("Number of keys should be in [1, " + capacity + "] range: " + k);
+        }
+
+        Instant now = timeSource.now();
+        long start = timeline.windowStart(now);
+        long end = timeline.windowEnd(now);
+
+        Map<String, Estimate> estimates = new HashMap<>();
+        // total weight and sum of bucket minimums
+        Estimate window = new Estimate();
+        boolean empty = true;
+        for (int i = 0; i < buckets.length(); ++i) {
+            TopBucket bucket = buckets.get(i);
+            if (bucket != null && bucket.epochBucket >= start && bucket.epochBucket < end) {
+                bucket.mergeInto(estimates, measure, window);
+                empty = false;
+            }
+        }
+        if (empty) {
+            return Optional.empty();
+        }
+
+        List<TopKeys.Entry> top = estimates.entrySet().stream()
+            .map(entry -> new TopKeys.Entry(
+                entry.getKey(),
+                entry.getValue().value,
+                entry.getValue().error + window.error - entry.getValue().present))
+            .sorted(Comparator.comparingDouble(TopKeys.Entry::getValue).reversed())
+            .limit(k)
+            .collect(Collectors.toList());
+        return Optional.of(new TopKeys(window.value, top));
+    }
+
+    @Override
+    public int getDuration() {
+        return timeline.getDuration();
+    }
+}
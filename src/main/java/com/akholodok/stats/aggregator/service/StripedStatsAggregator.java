@@ -0,0 +1,113 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Statistics aggregator which spreads writes over several independent
+ * aggregators (stripes), in the same way as {@link java.util.concurrent.atomic.LongAdder}
+ * spreads increments over cells.
+ * <p>
+ * Each thread always writes into the same stripe, so threads writing
+ * into the same second do not compete for the same bucket unless they
+ * share a stripe. {@link StripedStatsAggregator#getStats()} merges stats of all stripes.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * For S stripes:
+ * {@link StripedStatsAggregator#add(Instant, double)} - same as for a single stripe;
+ * {@link StripedStatsAggregator#getStats()} - S times the complexity of a single stripe;
+ * memory consumption - S times the memory of a single stripe
+ */
+public class StripedStatsAggregator implements InstrumentedStatsAggregator, AutoCloseable {
+
+    public static final BinaryOperator<Stats> DEFAULT_STATS_REDUCER =
+        (s1, s2) -> new Stats(
+            s1.getCount() + s2.getCount(),
+            Math.min(s1.getMin(), s2.getMin()),
+            Math.max(s1.getMax(), s2.getMax()),
+            s1.getSum() + s2.getSum());
+
+    private final StatsAggregator[] stripes;
+
+    public StripedStatsAggregator(int stripes,
+                                  Supplier<? extends StatsAggregator> stripeFactory) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Stripes count should be positive: " + stripes);
+        }
+        this.stripes = new StatsAggregator[stripes];
+        for (int i = 0; i < stripes; ++i) {
+            this.stripes[i] = stripeFactory.get();
+            if (this.stripes[i].getDuration() != this.stripes[0].getDuration()) {
+                throw new IllegalArgumentException("All stripes should have the same duration");
+            }
+        }
+    }
+
+    public StripedStatsAggregator(int duration,
+                                  Duration bucketWidth,
+                                  int stripes,
+                                  TimeSource timeSource) {
+        this(stripes, () -> new BucketStatsAggregator(duration, bucketWidth, timeSource));
+    }
+
+    public StripedStatsAggregator(int duration,
+                                  int stripes,
+                                  TimeSource timeSource) {
+        this(duration, BucketTimeline.DEFAULT_BUCKET_WIDTH, stripes, timeSource);
+    }
+
+    @Override
+    public boolean add(Instant timestamp, double value) {
+        return stripe().add(timestamp, value);
+    }
+
+    @Override
+    public Optional<Stats> getStats() {
+        return Arrays.stream(stripes)
+            .map(StatsAggregator::getStats)
+            .filter(Optional::isPresent)
+            .map(Optional::get)
+            .reduce(DEFAULT_STATS_REDUCER);
+    }
+
+    @Override
+    public int getDuration() {
+        return stripes[0].getDuration();
+    }
+
+    /**
+     * Get sum of ingest counters of all stripes.
+     */
+    @Override
+    public IngestMetrics getIngestMetrics() {
+        return Arrays.stream(stripes)
+            .filter(stripe -> stripe instanceof InstrumentedStatsAggregator)
+            .map(stripe -> ((InstrumentedStatsAggregator) stripe).getIngestMetrics())
+            .reduce(IngestMetrics.EMPTY, IngestMetrics::plus);
+    }
+
+    public int getStripes() {
+        return stripes.length;
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (StatsAggregator stripe : stripes) {
+            if (stripe instanceof AutoCloseable) {
+                ((AutoCloseable) stripe).close();
+            }
+        }
+    }
+
+    private StatsAggregator stripe() {
+        // thread ids are sequential, so threads are spread evenly over stripes
+        return stripes[(int) (Thread.currentThread().getId() % stripes.length)];
+    }
+}
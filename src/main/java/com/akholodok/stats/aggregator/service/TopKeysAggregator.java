@@ -0,0 +1,46 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.TopKeys;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Aggregation service that consumes {@code [key:timestamp:value]} triples
+ * and estimates keys with the highest count or sum of values
+ * for the last {@link TopKeysAggregator#getDuration()} seconds.
+ */
+public interface TopKeysAggregator {
+
+    enum Measure {
+        COUNT,
+        SUM
+    }
+
+    /**
+     * Adds new {@code [timestamp:value]} pair for {@code key}.
+     *
+     * @return {@code true} if value added, otherwise {@code false} if {@code timestamp}
+     * is obsolete or in future.
+     * @see StatsAggregator#add(Instant, double)
+     */
+    boolean add(String key, Instant timestamp, double value);
+
+    /**
+     * Get {@code k} keys with the highest {@code measure} for the last
+     * {@link TopKeysAggregator#getDuration()} seconds.
+     *
+     * @return {@code Optional.of(top)} in case if there any data received
+     * for the last {@link TopKeysAggregator#getDuration()} seconds.
+     * Otherwise return {@code Optional.empty()}
+     * @throws IllegalArgumentException if {@code k} is out of supported range.
+     */
+    Optional<TopKeys> getTop(int k, Measure measure);
+
+    /**
+     * Get aggregation window duration in seconds.
+     *
+     * @return Aggregation window duration in seconds.
+     */
+    int getDuration();
+}
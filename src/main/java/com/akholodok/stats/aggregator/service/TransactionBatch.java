@@ -0,0 +1,64 @@
+package com.akholodok.stats.aggregator.service;
+
+import java.util.Arrays;
+
+/**
+ * Reusable batch of transactions kept in primitive columns.
+ * <p>
+ * Batch is not thread-safe.
+ */
+public class TransactionBatch {
+
+    private final long[] timestamps;
+    private final double[] amounts;
+    private final String[] keys;
+    private int size;
+
+    public TransactionBatch(int capacity) {
+        this.timestamps = new long[capacity];
+        this.amounts = new double[capacity];
+        this.keys = new String[capacity];
+    }
+
+    /**
+     * Add transaction to the batch.
+     *
+     * @param timestamp Milliseconds since Unix Epoch.
+     * @param amount Transaction amount.
+     * @param key Optional key, could be {@code null}.
+     */
+    public void add(long timestamp, double amount, String key) {
+        if (isFull()) {
+            throw new IllegalStateException("Batch is full");
+        }
+        timestamps[size] = timestamp;
+        amounts[size] = amount;
+        keys[size] = key;
+        ++size;
+    }
+
+    public long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    public double getAmount(int i) {
+        return amounts[i];
+    }
+
+    public String getKey(int i) {
+        return keys[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == timestamps.length;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0, size, null);
+        size = 0;
+    }
+}
@@ -0,0 +1,177 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.BatchResult;
+import com.akholodok.stats.aggregator.model.Stats;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Adds {@link TransactionBatch} into aggregators.
+ * <p>
+ * If stats aggregator is a {@link MergingStatsAggregator}, batch is pre-aggregated into
+ * partial buckets of the aggregator bucket width first, then every partial bucket is merged
+ * with a single update. Otherwise transactions are added one by one.
+ * <p>
+ * Transactions with key which have been accepted by stats aggregator are additionally added
+ * one by one into keyed and top keys aggregators, if they are provided, same as single transactions.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * For batch of N transactions which span B buckets:
+ * {@link TransactionBatchIngester#ingest(TransactionBatch)} - time complexity is O(N + B)
+ * plus B updates of merging stats aggregator
+ */
+public class TransactionBatchIngester {
+
+    private final StatsAggregator statsAggregator;
+    private final KeyedStatsAggregator keyedStatsAggregator;
+    private final TopKeysAggregator topKeysAggregator;
+    private final TimeSource timeSource;
+    // timeline of merging stats aggregator, null if aggregator does not merge
+    private final BucketTimeline timeline;
+
+    public TransactionBatchIngester(StatsAggregator statsAggregator,
+                                    KeyedStatsAggregator keyedStatsAggregator,
+                                    TopKeysAggregator topKeysAggregator,
+                                    TimeSource timeSource) {
+        this.statsAggregator = statsAggregator;
+        this.keyedStatsAggregator = keyedStatsAggregator;
+        this.topKeysAggregator = topKeysAggregator;
+        this.timeSource = timeSource;
+        this.timeline = statsAggregator instanceof MergingStatsAggregator
+            ? new BucketTimeline(
+                statsAggregator.getDuration(),
+                ((MergingStatsAggregator) statsAggregator).getBucketWidth())
+            : null;
+    }
+
+    public TransactionBatchIngester(StatsAggregator statsAggregator, TimeSource timeSource) {
+        this(statsAggregator, null, null, timeSource);
+    }
+
+    /**
+     * Add all transactions of {@code batch}.
+     *
+     * @return Number of accepted, stale and future transactions.
+     */
+    public BatchResult ingest(TransactionBatch batch) {
+        Instant now = timeSource.now();
+        // which transactions have been accepted, only needed for keyed aggregators
+        boolean[] accepted = keyedStatsAggregator != null && topKeysAggregator != null
+            ? new boolean[batch.size()]
+            : null;
+        BatchResult result = timeline != null
+            ? merge(batch, now, accepted)
+            : addEach(batch, now, accepted);
+        if (accepted != null) {
+            addKeyed(batch, accepted);
+        }
+        return result;
+    }
+
+    private BatchResult merge(TransactionBatch batch, Instant now, boolean[] accepted) {
+        long nowMillis = now.toEpochMilli();
+        long windowStart = timeline.windowStart(now);
+
+        long stale = 0;
+        long future = 0;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < batch.size(); ++i) {
+            long timestamp = batch.getTimestamp(i);
+            long epochBucket = timeline.epochBucket(timestamp);
+            if (timestamp > nowMillis) {
+                ++future;
+            } else if (epochBucket < windowStart) {
+                ++stale;
+            } else {
+                first = Math.min(first, epochBucket);
+                last = Math.max(last, epochBucket);
+            }
+        }
+        if (first > last) {
+            return new BatchResult(0, stale, future, 0);
+        }
+
+        // partial buckets of [first, last] range, which is at most one window long
+        int buckets = (int) (last - first + 1);
+        long[] counts = new long[buckets];
+        double[] mins = new double[buckets];
+        double[] maxs = new double[buckets];
+        double[] sums = new double[buckets];
+        Arrays.fill(mins, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+        for (int i = 0; i < batch.size(); ++i) {
+            long timestamp = batch.getTimestamp(i);
+            long epochBucket = timeline.epochBucket(timestamp);
+            if (timestamp <= nowMillis && epochBucket >= first) {
+                int index = (int) (epochBucket - first);
+                double amount = batch.getAmount(i);
+                ++counts[index];
+                mins[index] = Math.min(mins[index], amount);
+                maxs[index] = Math.max(maxs[index], amount);
+                sums[index] += amount;
+            }
+        }
+
+        MergingStatsAggregator mergingAggregator = (MergingStatsAggregator) statsAggregator;
+        boolean[] acceptedBuckets = new boolean[buckets];
+        long acceptedCount = 0;
+        for (int index = 0; index < buckets; ++index) {
+            if (counts[index] == 0) {
+                continue;
+            }
+            Stats partial = new Stats(counts[index], mins[index], maxs[index], sums[index]);
+            // bucket could become obsolete while batch is being aggregated
+            if (mergingAggregator.add(timeline.bucketStart(first + index), partial)) {
+                acceptedBuckets[index] = true;
+                acceptedCount += counts[index];
+            } else {
+                stale += counts[index];
+            }
+        }
+        if (accepted != null) {
+            for (int i = 0; i < batch.size(); ++i) {
+                long timestamp = batch.getTimestamp(i);
+                long epochBucket = timeline.epochBucket(timestamp);
+                accepted[i] = timestamp <= nowMillis
+                    && epochBucket >= first
+                    && acceptedBuckets[(int) (epochBucket - first)];
+            }
+        }
+        return new BatchResult(acceptedCount, stale, future, 0);
+    }
+
+    private BatchResult addEach(TransactionBatch batch, Instant now, boolean[] accepted) {
+        long nowMillis = now.toEpochMilli();
+        long acceptedCount = 0;
+        long stale = 0;
+        long future = 0;
+        for (int i = 0; i < batch.size(); ++i) {
+            long timestamp = batch.getTimestamp(i);
+            if (statsAggregator.add(Instant.ofEpochMilli(timestamp), batch.getAmount(i))) {
+                ++acceptedCount;
+                if (accepted != null) {
+                    accepted[i] = true;
+                }
+            } else if (timestamp > nowMillis) {
+                ++future;
+            } else {
+                ++stale;
+            }
+        }
+        return new BatchResult(acceptedCount, stale, future, 0);
+    }
+
+    private void addKeyed(TransactionBatch batch, boolean[] accepted) {
+        for (int i = 0; i < batch.size(); ++i) {
+            String key = batch.getKey(i);
+            if (key != null && accepted[i]) {
+                Instant timestamp = Instant.ofEpochMilli(batch.getTimestamp(i));
+                keyedStatsAggregator.add(key, timestamp, batch.getAmount(i));
+                topKeysAggregator.add(key, timestamp, batch.getAmount(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Aggregation service which, apart from the whole aggregation window,
+ * could aggregate {@link Stats} for any shorter window ending now.
+ */
+public interface WindowedStatsAggregator extends StatsAggregator {
+
+    /**
+     * Get aggregated view for the last {@code window}.
+     *
+     * @param window Window duration, should be positive and not longer
+     * than {@link StatsAggregator#getDuration()} seconds.
+     * @return {@code Optional.of(stats)} in case if there any data received
+     * for the last {@code window}. Otherwise return {@code Optional.empty()}
+     * @throws IllegalArgumentException if {@code window} is out of range.
+     */
+    Optional<Stats> getStats(Duration window);
+}
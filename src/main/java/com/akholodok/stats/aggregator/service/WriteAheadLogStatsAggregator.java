@@ -0,0 +1,354 @@
+package com.akholodok.stats.aggregator.service;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Statistics aggregator which writes every value accepted by delegate aggregator
+ * into a write-ahead log, so that window could be restored after restart.
+ * <p>
+ * Log is a sequence of memory-mapped segment files of fixed size with 16-byte records:
+ * {@code [epochMillis:long][amount:double]}. Writers claim record position with a single
+ * atomic increment and write the record straight into the mapping, zero timestamp marks
+ * a record which has not been written. Segment is rotated once it is full or once it is
+ * older than the window.
+ * <p>
+ * Mapped pages survive process crash without any syncing, {@link FsyncPolicy} defines
+ * how they are forced to disk to survive OS crash or power loss. Forcing a mapping costs
+ * a walk over all of its pages, so {@link FsyncPolicy#ALWAYS} writes every record through
+ * a separate mapping of its page only and forces that page, while {@link FsyncPolicy#PERIODIC}
+ * forces whole segment on maintenance thread and on rotation.
+ * <p>
+ * On start segments are replayed into delegate, which drops values that have left the window,
+ * then the log continues in a new segment. Segment is sealed when the next one is created
+ * and is deleted once it has been sealed for longer than the window, so disk use is bounded
+ * by a few segments. Replayed segment counts as sealed at its newest record.
+ * <p>
+ * <b>Complexity:</b>
+ * <p>
+ * {@link WriteAheadLogStatsAggregator#add(Instant, double)} - complexity of delegate plus O(1),
+ * plus forcing one page for {@link FsyncPolicy#ALWAYS} (and mapping it for the first record of the page);
+ * forcing the segment - O(S / P), where S is segment size and P is page size;
+ * {@link WriteAheadLogStatsAggregator#getStats()} - complexity of delegate;
+ * disk consumption - O(segment size)
+ */
+public class WriteAheadLogStatsAggregator implements DelegatingStatsAggregator, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteAheadLogStatsAggregator.class);
+
+    public static final int RECORD_SIZE = 16;
+    public static final int DEFAULT_SEGMENT_RECORDS = 256 * 1024;
+
+    // records never cross pages since page size is a multiple of record size
+    static final int PAGE_SIZE = 4096;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    public enum FsyncPolicy {
+        // rely on OS to write pages back, survives process crash only
+        NONE,
+        // force current segment once per interval, group commit of all records written meanwhile
+        PERIODIC,
+        // force segment after every record
+        ALWAYS
+    }
+
+    private final StatsAggregator delegate;
+    private final Path directory;
+    private final int segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final TimeSource timeSource;
+    private final long retentionMillis;
+
+    // guarded by this
+    private final List<Segment> segments = new ArrayList<>();
+    private long nextSegmentId;
+    private volatile Segment current;
+
+    private final ScheduledExecutorService maintenance;
+
+    public WriteAheadLogStatsAggregator(StatsAggregator delegate,
+                                        Path directory,
+                                        int segmentRecords,
+                                        FsyncPolicy fsyncPolicy,
+                                        Duration fsyncInterval,
+                                        TimeSource timeSource) {
+        if (segmentRecords <= 0 || segmentRecords > Integer.MAX_VALUE / RECORD_SIZE) {
+            throw new IllegalArgumentException("Invalid number of records per segment: " + segmentRecords);
+        }
+        this.delegate = delegate;
+        this.directory = directory;
+        this.segmentSize = segmentRecords * RECORD_SIZE;
+        this.fsyncPolicy = fsyncPolicy;
+        this.timeSource = timeSource;
+        // values keep being valid until the end of the bucket, one more second covers any bucket width
+        this.retentionMillis = Duration.ofSeconds(delegate.getDuration() + 1).toMillis();
+
+        try {
+            Files.createDirectories(directory);
+            synchronized (this) {
+                replay();
+                rotate();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open write-ahead log in " + directory, e);
+        }
+
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stats-aggregator-wal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long periodMillis = fsyncPolicy == FsyncPolicy.PERIODIC
+            ? Math.max(fsyncInterval.toMillis(), 1)
+            : Math.max(retentionMillis / 10, 1);
+        maintenance.scheduleWithFixedDelay(this::maintain, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public WriteAheadLogStatsAggregator(StatsAggregator delegate, Path directory, TimeSource timeSource) {
+        this(delegate, directory, DEFAULT_SEGMENT_RECORDS, FsyncPolicy.PERIODIC, Duration.ofMillis(100), timeSource);
+    }
+
+    private static class Segment {
+
+        private final Path path;
+        private final long createdMillis;
+        // null for segments which have been replayed
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final AtomicInteger position = new AtomicInteger();
+        // mappings of single pages, created on first record of the page for ALWAYS policy only
+        private final AtomicReferenceArray<MappedByteBuffer> pages;
+        // no value is written after this time, guarded by aggregator
+        private long sealedMillis = Long.MAX_VALUE;
+
+        Segment(Path path, long createdMillis, FileChannel channel, MappedByteBuffer buffer, int pages) {
+            this.path = path;
+            this.createdMillis = createdMillis;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.pages = pages > 0 ? new AtomicReferenceArray<>(pages) : null;
+        }
+
+        MappedByteBuffer page(int index, int segmentSize) throws IOException {
+            MappedByteBuffer page = pages.get(index);
+            if (page == null) {
+                long offset = (long) index * PAGE_SIZE;
+                // concurrent writers of the same page could both map it, the losing mapping is just dropped
+                pages.compareAndSet(index, null, channel.map(FileChannel.MapMode.READ_WRITE,
+                    offset, Math.min(PAGE_SIZE, segmentSize - offset)));
+                page = pages.get(index);
+            }
+            return page;
+        }
+    }
+
+    @Override
+    public boolean add(Instant timestamp, double value) {
+        if (!delegate.add(timestamp, value)) {
+            return false;
+        }
+
+        while (true) {
+            Segment segment = current;
+            int position = segment.position.getAndAdd(RECORD_SIZE);
+            if (position <= segmentSize - RECORD_SIZE) {
+                if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                    writeAndForce(segment, position, timestamp, value);
+                } else {
+                    write(segment.buffer, position, timestamp, value);
+                }
+                return true;
+            }
+            rotateIfCurrent(segment);
+        }
+    }
+
+    private static void write(MappedByteBuffer buffer, int position, Instant timestamp, double value) {
+        // absolute puts do not touch shared buffer state, timestamp is written last
+        // since non-zero timestamp marks written record
+        buffer.putDouble(position + 8, value);
+        buffer.putLong(position, timestamp.toEpochMilli());
+    }
+
+    private void writeAndForce(Segment segment, int position, Instant timestamp, double value) {
+        try {
+            MappedByteBuffer page = segment.page(position / PAGE_SIZE, segmentSize);
+            write(page, position % PAGE_SIZE, timestamp, value);
+            page.force();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map write-ahead log page in " + segment.path, e);
+        }
+    }
+
+    @Override
+    public Optional<Stats> getStats() {
+        return delegate.getStats();
+    }
+
+    @Override
+    public int getDuration() {
+        return delegate.getDuration();
+    }
+
+    @Override
+    public StatsAggregator getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Get number of segment files, including the current one.
+     */
+    public synchronized int getSegmentsCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() throws Exception {
+        maintenance.shutdownNow();
+        maintenance.awaitTermination(1, TimeUnit.SECONDS);
+        synchronized (this) {
+            if (fsyncPolicy == FsyncPolicy.PERIODIC) {
+                current.buffer.force();
+            }
+            for (Segment segment : segments) {
+                if (segment.channel != null) {
+                    segment.channel.close();
+                }
+            }
+        }
+        if (delegate instanceof AutoCloseable) {
+            ((AutoCloseable) delegate).close();
+        }
+    }
+
+    /**
+     * Force, rotate and delete segments according to policy, runs on maintenance thread.
+     */
+    void maintain() {
+        try {
+            Segment segment = current;
+            if (fsyncPolicy == FsyncPolicy.PERIODIC) {
+                segment.buffer.force();
+            }
+            // current segment is never deleted, so it is rotated by age as well
+            if (segment.position.get() > 0
+                && timeSource.now().toEpochMilli() - segment.createdMillis > retentionMillis) {
+                rotateIfCurrent(segment);
+            }
+            deleteExpired();
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Write-ahead log maintenance failed", e);
+        }
+    }
+
+    private void rotateIfCurrent(Segment segment) {
+        synchronized (this) {
+            if (current != segment) {
+                return;
+            }
+            try {
+                rotate();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to rotate write-ahead log in " + directory, e);
+            }
+        }
+        if (fsyncPolicy == FsyncPolicy.PERIODIC) {
+            // writers could still be finishing their records, they are forced with the next segment at worst
+            segment.buffer.force();
+        }
+    }
+
+    // guarded by this
+    private void rotate() throws IOException {
+        long id = nextSegmentId++;
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        long nowMillis = timeSource.now().toEpochMilli();
+        if (current != null) {
+            current.sealedMillis = nowMillis;
+        }
+        Segment segment = new Segment(path, nowMillis, channel, buffer,
+            fsyncPolicy == FsyncPolicy.ALWAYS ? (segmentSize + PAGE_SIZE - 1) / PAGE_SIZE : 0);
+        segments.add(segment);
+        current = segment;
+    }
+
+    private synchronized void deleteExpired() throws IOException {
+        long nowMillis = timeSource.now().toEpochMilli();
+        while (!segments.isEmpty() && segments.get(0) != current
+            && nowMillis - segments.get(0).sealedMillis > retentionMillis) {
+            Segment segment = segments.remove(0);
+            if (segment.channel != null) {
+                segment.channel.close();
+            }
+            Files.deleteIfExists(segment.path);
+        }
+    }
+
+    // guarded by this
+    private void replay() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files
+                .filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+
+        long replayed = 0;
+        for (Path path : paths) {
+            // zero for empty segment, which is deleted right away
+            long newestMillis = 0;
+            String name = path.getFileName().toString();
+            long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                // records are not necessarily written in order, so the whole segment is scanned
+                for (int position = 0; position <= buffer.capacity() - RECORD_SIZE; position += RECORD_SIZE) {
+                    long epochMillis = buffer.getLong(position);
+                    if (epochMillis == 0) {
+                        continue;
+                    }
+                    newestMillis = Math.max(newestMillis, epochMillis);
+                    if (delegate.add(Instant.ofEpochMilli(epochMillis), buffer.getDouble(position + 8))) {
+                        ++replayed;
+                    }
+                }
+            }
+            // replayed segment is kept until its newest value leaves the window,
+            // modification time is not used since it moves on copy or restore from backup
+            Segment segment = new Segment(path, Long.MIN_VALUE, null, null, 0);
+            segment.sealedMillis = newestMillis;
+            segments.add(segment);
+        }
+        LOG.info("Replayed {} values from {} write-ahead log segments in {}", replayed, paths.size(), directory);
+    }
+}
@@ -0,0 +1,235 @@
+package com.akholodok.stats.aggregator.controller;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.akholodok.stats.aggregator.service.BucketStatsAggregator;
+import com.akholodok.stats.aggregator.service.KeyedBucketStatsAggregator;
+import com.akholodok.stats.aggregator.service.SpaceSavingTopKeysAggregator;
+import com.akholodok.stats.aggregator.service.StatsAggregator;
+import com.akholodok.stats.aggregator.service.TimeSource;
+import com.akholodok.stats.aggregator.service.TransactionBatchIngester;
+import com.akholodok.stats.aggregator.service.UTCTimeSource;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.LockSupport;
+
+public class BinaryIngestListenerTests {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryIngestListenerTests.class);
+
+    private static final int SECONDS = 60;
+
+    private final TimeSource timeSource = new UTCTimeSource();
+    private StatsAggregator statsAggregator;
+    private BinaryIngestListener listener;
+
+    @Before
+    public void setUp() {
+        statsAggregator = new BucketStatsAggregator(SECONDS, timeSource);
+    }
+
+    @After
+    public void tearDown() {
+        if (listener != null) {
+            listener.stop();
+        }
+    }
+
+    @Test(timeout = 5_000)
+    public void testUdp() throws Exception {
+        listener = start(BinaryIngestListener.Mode.UDP, 1);
+
+        long now = timeSource.now().toEpochMilli();
+        ByteBuffer datagram = ByteBuffer.allocate(3 * BinaryIngestListener.FRAME_SIZE + 5)
+            .putLong(now).putDouble(1.0)
+            .putLong(now).putDouble(2.0)
+            .putLong(now).putDouble(3.0)
+            .put(new byte[5]);
+        datagram.flip();
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.send(datagram, loopback(listener));
+        }
+
+        awaitCount(3);
+        assertEquals(6.0, statsAggregator.getStats().get().getSum());
+    }
+
+    @Test(timeout = 5_000)
+    public void testTcpAcks() throws Exception {
+        listener = start(BinaryIngestListener.Mode.TCP, 2);
+
+        long now = timeSource.now().toEpochMilli();
+        ByteBuffer frames = ByteBuffer.allocate(5 * BinaryIngestListener.FRAME_SIZE);
+        for (int i = 0; i < 4; ++i) {
+            frames.putLong(now).putDouble(i);
+        }
+        // obsolete frame is received but not accepted
+        frames.putLong(now - SECONDS * 1000L).putDouble(100.0);
+        frames.flip();
+
+        long[] ack;
+        try (SocketChannel channel = SocketChannel.open(loopback(listener))) {
+            while (frames.hasRemaining()) {
+                channel.write(frames);
+            }
+            channel.shutdownOutput();
+            ack = readLastAck(channel);
+        }
+
+        assertEquals(5L, ack[0]);
+        assertEquals(4L, ack[1]);
+        assertEquals(4L, statsAggregator.getStats().get().getCount());
+    }
+
+    @Test(timeout = 30_000)
+    public void testTcpFinalAckAfterBackedUpAcks() throws Exception {
+        listener = start(BinaryIngestListener.Mode.TCP, 1);
+
+        int count = 20_000;
+        long now = timeSource.now().toEpochMilli();
+        ByteBuffer frames = ByteBuffer.allocate(count * BinaryIngestListener.FRAME_SIZE);
+        for (int i = 0; i < count; ++i) {
+            frames.putLong(now).putDouble(1.0);
+        }
+        frames.flip();
+
+        ByteArrayOutputStream acks = new ByteArrayOutputStream();
+        try (SocketChannel channel = SocketChannel.open()) {
+            // acks are not read while frames are sent, so they back up
+            channel.socket().setReceiveBufferSize(1024);
+            channel.connect(loopback(listener));
+            channel.socket().setTcpNoDelay(true);
+            // a frame per write, so that listener acknowledges frames in many small reads
+            ByteBuffer frame = frames.duplicate();
+            while (frames.hasRemaining()) {
+                frame.limit(frames.position() + BinaryIngestListener.FRAME_SIZE).position(frames.position());
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+                frames.position(frame.position());
+                LockSupport.parkNanos(20_000);
+            }
+            channel.shutdownOutput();
+            InputStream input = channel.socket().getInputStream();
+            byte[] buffer = new byte[64 * 1024];
+            for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+                acks.write(buffer, 0, read);
+            }
+        }
+
+        ByteBuffer received = ByteBuffer.wrap(acks.toByteArray());
+        // pending acks have been replaced with newer ones while client was not reading
+        assertTrue(received.remaining() < count * BinaryIngestListener.ACK_SIZE);
+        assertEquals(0, received.remaining() % BinaryIngestListener.ACK_SIZE);
+        long previous = 0;
+        while (received.remaining() > BinaryIngestListener.ACK_SIZE) {
+            long ackReceived = received.getLong();
+            long ackAccepted = received.getLong();
+            assertTrue(ackReceived >= previous && ackReceived <= count);
+            assertEquals(ackReceived, ackAccepted);
+            previous = ackReceived;
+        }
+        assertEquals(count, received.getLong());
+        assertEquals(count, received.getLong());
+    }
+
+    /**
+     * Compares loopback TCP ingest against {@code POST /transactions} dispatched by {@link MockMvc},
+     * which is a lower bound of HTTP cost, since it skips network and HTTP parsing.
+     */
+    @Test(timeout = 60_000)
+    public void testThroughputAgainstHttp() throws Exception {
+        listener = start(BinaryIngestListener.Mode.TCP, 1000);
+
+        int binaryCount = 200_000;
+        long now = timeSource.now().toEpochMilli();
+        ByteBuffer frames = ByteBuffer.allocate(binaryCount * BinaryIngestListener.FRAME_SIZE);
+        for (int i = 0; i < binaryCount; ++i) {
+            frames.putLong(now).putDouble(1.0);
+        }
+        frames.flip();
+
+        long binaryStart = System.nanoTime();
+        try (SocketChannel channel = SocketChannel.open(loopback(listener))) {
+            while (frames.hasRemaining()) {
+                channel.write(frames);
+            }
+            channel.shutdownOutput();
+            assertEquals(binaryCount, readLastAck(channel)[0]);
+        }
+        double binaryRate = binaryCount / ((System.nanoTime() - binaryStart) / 1e9);
+
+        MockMvc mockMvc = MockMvcBuilders
+            .standaloneSetup(new TransactionsRestController(
+                statsAggregator,
+                new KeyedBucketStatsAggregator(SECONDS, timeSource),
+                new SpaceSavingTopKeysAggregator(SECONDS, timeSource),
+                new TransactionBatchIngester(statsAggregator, timeSource),
+                new RequestMetrics()))
+            .build();
+        ObjectMapper mapper = new ObjectMapper();
+        int httpCount = 2_000;
+        long httpStart = System.nanoTime();
+        for (int i = 0; i < httpCount; ++i) {
+            mockMvc.perform(post(TransactionsRestController.PATH)
+                .content(mapper.writeValueAsBytes(new AddTransactionRequest(1.0, timeSource.now().toEpochMilli())))
+                .contentType(MediaType.APPLICATION_JSON_UTF8))
+                .andExpect(status().isOk());
+        }
+        double httpRate = httpCount / ((System.nanoTime() - httpStart) / 1e9);
+
+        // rates depend on the machine and its load, so they are only logged for comparison
+        LOG.info("Binary TCP ingest: {} frames/s, POST /transactions: {} requests/s",
+            String.format("%.0f", binaryRate), String.format("%.0f", httpRate));
+    }
+
+    private BinaryIngestListener start(BinaryIngestListener.Mode mode, int ackEvery) {
+        BinaryIngestListener listener =
+            new BinaryIngestListener(statsAggregator, mode, new InetSocketAddress("127.0.0.1", 0), ackEvery);
+        listener.start();
+        return listener;
+    }
+
+    private static InetSocketAddress loopback(BinaryIngestListener listener) {
+        return new InetSocketAddress("127.0.0.1", listener.getLocalAddress().getPort());
+    }
+
+    // reads acks until the end of stream, returns the last one
+    private static long[] readLastAck(SocketChannel channel) throws IOException {
+        DataInputStream input = new DataInputStream(channel.socket().getInputStream());
+        long[] ack = null;
+        while (true) {
+            try {
+                ack = new long[] {input.readLong(), input.readLong()};
+            } catch (EOFException e) {
+                return ack;
+            }
+        }
+    }
+
+    private void awaitCount(long count) throws InterruptedException {
+        while (!statsAggregator.getStats().isPresent() || statsAggregator.getStats().get().getCount() < count) {
+            Thread.sleep(10);
+        }
+    }
+}
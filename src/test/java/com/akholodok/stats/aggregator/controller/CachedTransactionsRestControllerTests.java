@@ -0,0 +1,75 @@
+package com.akholodok.stats.aggregator.controller;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.akholodok.stats.aggregator.conf.AppConfiguration;
+import com.akholodok.stats.aggregator.model.Stats;
+import com.akholodok.stats.aggregator.service.TimeSource;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+@RunWith(SpringRunner.class)
+@WebAppConfiguration
+@ContextConfiguration(classes = AppConfiguration.class)
+@TestPropertySource(properties = {"stats-aggregator.cache.enabled=true", "stats-aggregator.cache.staleness=0s"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class CachedTransactionsRestControllerTests {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+    @Autowired
+    private TimeSource timeSource;
+
+    @Before
+    public void setup() {
+        this.mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+    }
+
+    @Test(timeout = 5_000)
+    public void testGetCachedStats() throws Exception {
+        this.mockMvc.perform(get(TransactionsRestController.PATH)
+            .accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(status().isNoContent());
+
+        double amount = 10.0;
+        this.mockMvc.perform(
+            post(TransactionsRestController.PATH)
+                .content(mapper.writeValueAsBytes(new AddTransactionRequest(amount, timeSource.now().toEpochMilli())))
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(status().isOk());
+
+        String expectedResponse = mapper.writeValueAsString(new Stats(1, amount, amount, amount));
+        for (int i = 0; i < 2; ++i) {
+            this.mockMvc.perform(get(TransactionsRestController.PATH)
+                .accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andExpect(content().json(expectedResponse));
+        }
+
+        this.mockMvc.perform(get(MetricsRestController.PATH))
+            .andExpect(status().isOk())
+            .andExpect(content().string(containsString("stats_aggregator_stats_cache_reads_total{result=\"hit\"}")));
+    }
+}
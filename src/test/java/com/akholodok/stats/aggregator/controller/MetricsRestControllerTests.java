@@ -0,0 +1,66 @@
+package com.akholodok.stats.aggregator.controller;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.akholodok.stats.aggregator.conf.AppConfiguration;
+import com.akholodok.stats.aggregator.service.TimeSource;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+@RunWith(SpringRunner.class)
+@WebAppConfiguration
+@ContextConfiguration(classes = AppConfiguration.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class MetricsRestControllerTests {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+    @Autowired
+    private TimeSource timeSource;
+
+    @Before
+    public void setup() {
+        this.mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+    }
+
+    @Test(timeout = 5_000)
+    public void testGetMetrics() throws Exception {
+        for (long timestamp : new long[]{timeSource.now().toEpochMilli(), timeSource.now().plusSeconds(10).toEpochMilli()}) {
+            this.mockMvc.perform(
+                post(TransactionsRestController.PATH)
+                    .content(mapper.writeValueAsBytes(new AddTransactionRequest(10.0, timestamp)))
+                    .contentType(MediaType.APPLICATION_JSON_UTF8)
+                    .accept(MediaType.APPLICATION_JSON_UTF8_VALUE));
+        }
+
+        this.mockMvc.perform(get(MetricsRestController.PATH))
+            .andExpect(status().isOk())
+            .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_PLAIN))
+            .andExpect(content().string(containsString("# TYPE stats_aggregator_transactions_total counter\n")))
+            .andExpect(content().string(containsString("stats_aggregator_transactions_total{result=\"accepted\"} 1\n")))
+            .andExpect(content().string(containsString("stats_aggregator_transactions_total{result=\"future\"} 1\n")))
+            .andExpect(content().string(containsString("stats_aggregator_buckets_occupied 1\n")))
+            .andExpect(content().string(containsString("stats_aggregator_request_duration_seconds_count{endpoint=\"add\"} 2\n")))
+            .andExpect(content().string(containsString(
+                "stats_aggregator_request_duration_seconds_bucket{endpoint=\"get\",le=\"+Inf\"} 0\n")));
+    }
+}
@@ -0,0 +1,187 @@
+package com.akholodok.stats.aggregator.controller;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import com.akholodok.stats.aggregator.service.BucketStatsAggregator;
+import com.akholodok.stats.aggregator.service.CachingStatsAggregator;
+import com.akholodok.stats.aggregator.service.KeyedBucketStatsAggregator;
+import com.akholodok.stats.aggregator.service.SpaceSavingTopKeysAggregator;
+import com.akholodok.stats.aggregator.service.TimeSource;
+import com.akholodok.stats.aggregator.service.TransactionBatchIngester;
+import com.akholodok.stats.aggregator.service.UTCTimeSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReactiveTransactionsRestControllerTests {
+
+    private static final int SECONDS = 60;
+
+    private final TimeSource timeSource = new UTCTimeSource();
+    private final BucketStatsAggregator statsAggregator = new BucketStatsAggregator(SECONDS, timeSource);
+    private final KeyedBucketStatsAggregator keyedStatsAggregator = new KeyedBucketStatsAggregator(SECONDS, timeSource);
+    private final SpaceSavingTopKeysAggregator topKeysAggregator = new SpaceSavingTopKeysAggregator(SECONDS, timeSource);
+    private WebTestClient client;
+
+    @Before
+    public void setup() {
+        this.client = WebTestClient
+            .bindToController(new ReactiveTransactionsRestController(
+                statsAggregator,
+                keyedStatsAggregator,
+                topKeysAggregator,
+                new TransactionBatchIngester(statsAggregator, keyedStatsAggregator, topKeysAggregator, timeSource)))
+            .controllerAdvice(new ReactiveRestErrorHandler())
+            .build();
+    }
+
+    @Test(timeout = 5_000)
+    public void testGetStatsEmpty() {
+        client.get().uri(TransactionsRestController.PATH)
+            .accept(MediaType.APPLICATION_JSON_UTF8)
+            .exchange()
+            .expectStatus().isNoContent();
+    }
+
+    @Test(timeout = 5_000)
+    public void testAddStatsAndGetStats() {
+        double amount = 10.0;
+        client.post().uri(TransactionsRestController.PATH)
+            .contentType(MediaType.APPLICATION_JSON_UTF8)
+            .syncBody(new AddTransactionRequest(amount, timeSource.now().toEpochMilli(), "merchant-1"))
+            .exchange()
+            .expectStatus().isOk();
+
+        Stats expectedResponse = new Stats(1, amount, amount, amount);
+        client.get().uri(TransactionsRestController.PATH)
+            .accept(MediaType.APPLICATION_JSON_UTF8)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.count").isEqualTo(expectedResponse.getCount())
+            .jsonPath("$.sum").isEqualTo(expectedResponse.getSum());
+
+        client.get().uri(TransactionsRestController.PATH + "/merchant-1")
+            .accept(MediaType.APPLICATION_JSON_UTF8)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.count").isEqualTo(1);
+    }
+
+    @Test(timeout = 5_000)
+    public void testAddStatsInFuture() {
+        client.post().uri(TransactionsRestController.PATH)
+            .contentType(MediaType.APPLICATION_JSON_UTF8)
+            .syncBody(new AddTransactionRequest(10.0, timeSource.now().plusSeconds(10).toEpochMilli()))
+            .exchange()
+            .expectStatus().isNoContent();
+    }
+
+    @Test(timeout = 5_000)
+    public void testAddStatsMissingAmount() {
+        client.post().uri(TransactionsRestController.PATH)
+            .contentType(MediaType.APPLICATION_JSON_UTF8)
+            .syncBody(new AddTransactionRequest(null, timeSource.now().toEpochMilli()))
+            .exchange()
+            .expectStatus().isBadRequest()
+            .expectBody()
+            .jsonPath("$.status").isEqualTo(400)
+            .jsonPath("$.errors.amount[0]").isEqualTo("'amount' should be provided");
+    }
+
+    @Test(timeout = 5_000)
+    public void testAddStatsMalformed() {
+        client.post().uri(TransactionsRestController.PATH)
+            .contentType(MediaType.APPLICATION_JSON_UTF8)
+            .syncBody("{\"amount\": ")
+            .exchange()
+            .expectStatus().isBadRequest()
+            .expectBody()
+            .jsonPath("$.status").isEqualTo(400);
+    }
+
+    @Test(timeout = 5_000)
+    public void testGetStatsWindowNotSupported() {
+        client.get().uri(TransactionsRestController.PATH + "?window=10s")
+            .accept(MediaType.APPLICATION_JSON_UTF8)
+            .exchange()
+            .expectStatus().isBadRequest()
+            .expectBody()
+            .jsonPath("$.message").isEqualTo("Configured stats aggregator does not support custom windows");
+    }
+
+    @Test(timeout = 5_000)
+    public void testAddBatchAndGetTop() {
+        long now = timeSource.now().toEpochMilli();
+        client.post().uri(TransactionsRestController.PATH + TransactionsRestController.BATCH_PATH)
+            .contentType(MediaType.APPLICATION_JSON_UTF8)
+            .syncBody("[{\"amount\": 1.5, \"timestamp\": " + now + ", \"key\": \"merchant-1\"},"
+                + " {\"amount\": 2.5, \"timestamp\": " + (now + 10_000) + "}]")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.accepted").isEqualTo(1)
+            .jsonPath("$.future").isEqualTo(1);
+
+        client.get().uri(TransactionsRestController.PATH + TransactionsRestController.TOP_PATH + "?k=1")
+            .accept(MediaType.APPLICATION_JSON_UTF8)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.keys[0].key").isEqualTo("merchant-1");
+    }
+
+    @Test(timeout = 5_000)
+    public void testAddBatchMalformed() {
+        client.post().uri(TransactionsRestController.PATH + TransactionsRestController.BATCH_PATH)
+            .contentType(MediaType.APPLICATION_JSON_UTF8)
+            .syncBody("[{\"amount\": 1.0,")
+            .exchange()
+            .expectStatus().isBadRequest()
+            .expectBody()
+            .jsonPath("$.status").isEqualTo(400)
+            .jsonPath("$.message").isNotEmpty();
+    }
+
+    @Test(timeout = 5_000)
+    public void testExportBuckets() {
+        client.post().uri(TransactionsRestController.PATH)
+            .contentType(MediaType.APPLICATION_JSON_UTF8)
+            .syncBody(new AddTransactionRequest(10.0, timeSource.now().toEpochMilli()))
+            .exchange()
+            .expectStatus().isOk();
+
+        client.get().uri(TransactionsRestController.PATH + TransactionsRestController.BUCKETS_PATH)
+            .accept(MediaType.APPLICATION_OCTET_STREAM)
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentType(MediaType.APPLICATION_OCTET_STREAM);
+    }
+
+    @Test(timeout = 5_000)
+    public void testCapabilityEndpointsNotSupported() {
+        for (String path : new String[] {
+            TransactionsRestController.QUANTILES_PATH + "?q=0.5",
+            TransactionsRestController.PIPELINE_PATH,
+            TransactionsRestController.STATS_PATH + "?from=0&to=1000"}) {
+            client.get().uri(TransactionsRestController.PATH + path)
+                .accept(MediaType.APPLICATION_JSON_UTF8)
+                .exchange()
+                .expectStatus().isBadRequest();
+        }
+    }
+
+    @Test
+    public void testBlockingDecoratorsDetected() {
+        assertFalse(ReactiveTransactionsRestController.isBlocking(statsAggregator));
+        CachingStatsAggregator cache = mock(CachingStatsAggregator.class);
+        when(cache.getDelegate()).thenReturn(statsAggregator);
+        assertTrue(ReactiveTransactionsRestController.isBlocking(cache));
+    }
+}
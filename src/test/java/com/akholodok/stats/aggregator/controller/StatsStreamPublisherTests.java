@@ -0,0 +1,229 @@
+package com.akholodok.stats.aggregator.controller;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import com.akholodok.stats.aggregator.service.StatsAggregator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class StatsStreamPublisherTests {
+
+    private StatsAggregator statsAggregator;
+    private StatsStreamPublisher publisher;
+
+    @Before
+    public void setUp() {
+        statsAggregator = mock(StatsAggregator.class);
+        when(statsAggregator.getStats()).thenReturn(Optional.empty());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (publisher != null) {
+            publisher.close();
+        }
+    }
+
+    @Test(timeout = 5_000)
+    public void testSnapshotSharedBySubscribers() throws Exception {
+        publisher = create(true, 10);
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+        assertEquals(StatsStreamPublisher.EMPTY_EVENT, first.next().getEvent());
+        assertEquals(StatsStreamPublisher.EMPTY_EVENT, second.next().getEvent());
+
+        when(statsAggregator.getStats()).thenReturn(Optional.of(new Stats(1, 10.0, 10.0, 10.0)));
+        publisher.publish();
+        StatsStreamPublisher.Snapshot snapshot = first.next();
+        assertEquals(StatsStreamPublisher.STATS_EVENT, snapshot.getEvent());
+        assertEquals(1, new ObjectMapper().readTree(snapshot.getData()).get("count").asLong());
+        assertSame(snapshot, second.next());
+        assertEquals(2, publisher.getSubscribers());
+    }
+
+    @Test(timeout = 5_000)
+    public void testChangesOnly() throws Exception {
+        publisher = create(true, 10);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        publisher.publish();
+        assertEquals(StatsStreamPublisher.EMPTY_EVENT, subscriber.next().getEvent());
+
+        // the same stats are not published again
+        publisher.publish();
+        assertNull(subscriber.received.poll(100, TimeUnit.MILLISECONDS));
+
+        when(statsAggregator.getStats()).thenReturn(Optional.of(new Stats(1, 10.0, 10.0, 10.0)));
+        publisher.publish();
+        assertEquals(StatsStreamPublisher.STATS_EVENT, subscriber.next().getEvent());
+    }
+
+    @Test(timeout = 5_000)
+    public void testEveryTick() throws Exception {
+        publisher = create(false, 10);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.next();
+        for (int i = 0; i < 2; ++i) {
+            publisher.publish();
+            assertEquals(StatsStreamPublisher.EMPTY_EVENT, subscriber.next().getEvent());
+        }
+    }
+
+    @Test(timeout = 5_000)
+    public void testSlowSubscriberGetsLatestSnapshot() throws Exception {
+        publisher = create(true, 10);
+        RecordingSubscriber slow = new RecordingSubscriber();
+        slow.blocked = new CountDownLatch(1);
+        publisher.subscribe(slow);
+        // the first snapshot is being sent
+        assertEquals(StatsStreamPublisher.EMPTY_EVENT, slow.next().getEvent());
+
+        for (int count = 1; count <= 5; ++count) {
+            when(statsAggregator.getStats()).thenReturn(Optional.of(new Stats(count, 1.0, 1.0, count)));
+            publisher.publish();
+        }
+        slow.blocked.countDown();
+
+        StatsStreamPublisher.Snapshot latest = slow.next();
+        assertEquals(5, new ObjectMapper().readTree(latest.getData()).get("count").asLong());
+        assertNull(slow.received.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, publisher.getDropped());
+    }
+
+    @Test(timeout = 5_000)
+    public void testSlowSubscriberDropped() throws Exception {
+        publisher = create(true, 2);
+        RecordingSubscriber slow = new RecordingSubscriber();
+        slow.blocked = new CountDownLatch(1);
+        RecordingSubscriber fast = new RecordingSubscriber();
+        publisher.subscribe(slow);
+        publisher.subscribe(fast);
+        slow.next();
+        fast.next();
+
+        for (int count = 1; count <= 4; ++count) {
+            when(statsAggregator.getStats()).thenReturn(Optional.of(new Stats(count, 1.0, 1.0, count)));
+            publisher.publish();
+            fast.next();
+        }
+        assertEquals(1, publisher.getDropped());
+        assertEquals(1, publisher.getSubscribers());
+
+        // closed by the dropping thread while its send is still blocked
+        assertTrue(slow.closed.await(1, TimeUnit.SECONDS));
+        slow.blocked.countDown();
+        assertNull(slow.received.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(timeout = 5_000)
+    public void testSlowSubscribersDoNotStarveHealthyOne() throws Exception {
+        publisher = create(true, 2);
+        // slow subscribers block both senders
+        List<RecordingSubscriber> slow = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            subscriber.blocked = new CountDownLatch(1);
+            publisher.subscribe(subscriber);
+            subscriber.next();
+            slow.add(subscriber);
+        }
+        RecordingSubscriber healthy = new RecordingSubscriber();
+        publisher.subscribe(healthy);
+
+        for (int count = 1; count <= 4; ++count) {
+            when(statsAggregator.getStats()).thenReturn(Optional.of(new Stats(count, 1.0, 1.0, count)));
+            publisher.publish();
+        }
+        for (RecordingSubscriber subscriber : slow) {
+            assertTrue(subscriber.closed.await(1, TimeUnit.SECONDS));
+        }
+        assertEquals(2, publisher.getDropped());
+        assertEquals(1, publisher.getSubscribers());
+
+        // healthy subscriber gets the latest snapshot once senders are free
+        slow.forEach(subscriber -> subscriber.blocked.countDown());
+        StatsStreamPublisher.Snapshot snapshot = healthy.next();
+        while (!snapshot.getData().contains("\"count\":4")) {
+            snapshot = healthy.next();
+        }
+        assertEquals(1, healthy.closed.getCount());
+    }
+
+    @Test(timeout = 5_000)
+    public void testFailedSubscriberDropped() throws Exception {
+        publisher = create(true, 10);
+        RecordingSubscriber failing = new RecordingSubscriber();
+        failing.failure = new IOException("Broken pipe");
+        publisher.subscribe(failing);
+        assertTrue(failing.closed.await(1, TimeUnit.SECONDS));
+        assertEquals(1, publisher.getDropped());
+        assertEquals(0, publisher.getSubscribers());
+    }
+
+    @Test(timeout = 5_000)
+    public void testUnsubscribe() throws Exception {
+        publisher = create(false, 10);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        Runnable unsubscribe = publisher.subscribe(subscriber);
+        subscriber.next();
+        unsubscribe.run();
+        publisher.publish();
+        assertNull(subscriber.received.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, publisher.getSubscribers());
+        assertEquals(0, publisher.getDropped());
+    }
+
+    private StatsStreamPublisher create(boolean changesOnly, int maxSkipped) {
+        // published by tests only
+        return new StatsStreamPublisher(statsAggregator, new ObjectMapper(), Duration.ofHours(1), changesOnly, maxSkipped, 2);
+    }
+
+    private static class RecordingSubscriber implements StatsStreamPublisher.Subscriber {
+
+        private final BlockingQueue<StatsStreamPublisher.Snapshot> received = new LinkedBlockingQueue<>();
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private volatile CountDownLatch blocked;
+        private volatile Exception failure;
+
+        @Override
+        public void send(StatsStreamPublisher.Snapshot snapshot) throws Exception {
+            if (failure != null) {
+                throw failure;
+            }
+            received.add(snapshot);
+            if (blocked != null) {
+                blocked.await();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+        StatsStreamPublisher.Snapshot next() throws InterruptedException {
+            return received.take();
+        }
+    }
+}
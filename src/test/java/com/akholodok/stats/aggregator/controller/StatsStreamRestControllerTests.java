@@ -0,0 +1,70 @@
+package com.akholodok.stats.aggregator.controller;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.akholodok.stats.aggregator.conf.AppConfiguration;
+import com.akholodok.stats.aggregator.model.Stats;
+import com.akholodok.stats.aggregator.service.TimeSource;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+@RunWith(SpringRunner.class)
+@WebAppConfiguration
+@ContextConfiguration(classes = AppConfiguration.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class StatsStreamRestControllerTests {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+    @Autowired
+    private TimeSource timeSource;
+
+    @Before
+    public void setup() {
+        this.mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+    }
+
+    @Test(timeout = 5_000)
+    public void testStreamStats() throws Exception {
+        double amount = 10.0;
+        this.mockMvc.perform(
+            post(TransactionsRestController.PATH)
+                .content(mapper.writeValueAsBytes(new AddTransactionRequest(amount, timeSource.now().toEpochMilli())))
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(status().isOk());
+
+        MvcResult result = this.mockMvc.perform(
+            get(TransactionsRestController.PATH + TransactionsRestController.STREAM_PATH)
+                .accept(MediaType.TEXT_EVENT_STREAM))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        String expectedEvent = "event:" + StatsStreamPublisher.STATS_EVENT + "\n"
+            + "data:" + mapper.writeValueAsString(new Stats(1, amount, amount, amount)) + "\n\n";
+        while (!result.getResponse().getContentAsString().contains(expectedEvent)) {
+            Thread.sleep(10);
+        }
+        assertTrue(result.getResponse().getContentType().startsWith(MediaType.TEXT_EVENT_STREAM_VALUE));
+    }
+}
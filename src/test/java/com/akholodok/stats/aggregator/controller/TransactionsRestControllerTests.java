@@ -1,5 +1,6 @@
 package com.akholodok.stats.aggregator.controller;
 
+import static junit.framework.TestCase.assertEquals;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -7,6 +8,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 import com.akholodok.stats.aggregator.conf.AppConfiguration;
 import com.akholodok.stats.aggregator.model.Stats;
+import com.akholodok.stats.aggregator.service.BucketSnapshot;
 import com.akholodok.stats.aggregator.service.TimeSource;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Before;
@@ -22,6 +24,9 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+
 @RunWith(SpringRunner.class)
 @WebAppConfiguration
 @ContextConfiguration(classes = AppConfiguration.class)
@@ -109,4 +114,161 @@ public class TransactionsRestControllerTests {
             .andExpect(status().isBadRequest())
             .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE));
     }
+
+    @Test(timeout = 5_000)
+    public void testGetStatsWindowNotSupported() throws Exception {
+        this.mockMvc.perform(get(TransactionsRestController.PATH)
+            .param("window", "10s")
+            .accept(MediaType.parseMediaType(MediaType.APPLICATION_JSON_UTF8_VALUE)))
+            .andExpect(status().isBadRequest())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE));
+    }
+
+    @Test(timeout = 5_000)
+    public void testGetStatsLastNotSupported() throws Exception {
+        this.mockMvc.perform(get(TransactionsRestController.PATH)
+            .param("last", "15")
+            .accept(MediaType.parseMediaType(MediaType.APPLICATION_JSON_UTF8_VALUE)))
+            .andExpect(status().isBadRequest())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE));
+    }
+
+    @Test(timeout = 5_000)
+    public void testGetQuantilesNotSupported() throws Exception {
+        this.mockMvc.perform(get(TransactionsRestController.PATH + TransactionsRestController.QUANTILES_PATH)
+            .param("q", "0.5,0.99")
+            .accept(MediaType.parseMediaType(MediaType.APPLICATION_JSON_UTF8_VALUE)))
+            .andExpect(status().isBadRequest())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE));
+    }
+
+    @Test(timeout = 5_000)
+    public void testGetTopKeys() throws Exception {
+
+        for (String key : new String[] {"merchant-1", "merchant-2", "merchant-2"}) {
+            AddTransactionRequest request = new AddTransactionRequest(10.0, timeSource.now().toEpochMilli(), key);
+            this.mockMvc.perform(
+                post(TransactionsRestController.PATH)
+                    .content(mapper.writeValueAsBytes(request))
+                    .contentType(MediaType.parseMediaType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                    .accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andExpect(status().isOk());
+        }
+
+        this.mockMvc.perform(
+            get(TransactionsRestController.PATH + TransactionsRestController.TOP_PATH)
+                .param("k", "1")
+                .param("by", "count")
+                .accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(status().isOk())
+            .andExpect(content().json("{\"total\": 3.0, \"keys\": [{\"key\": \"merchant-2\", \"value\": 2.0, \"error\": 0.0}]}"));
+
+        this.mockMvc.perform(
+            get(TransactionsRestController.PATH + TransactionsRestController.TOP_PATH)
+                .param("by", "avg")
+                .accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test(timeout = 5_000)
+    public void testAddBatchJsonArray() throws Exception {
+        long now = timeSource.now().toEpochMilli();
+        String body = "[" +
+            "{\"amount\": 10.0, \"timestamp\": " + now + "}," +
+            "{\"amount\": 20.0, \"timestamp\": " + now + ", \"key\": \"merchant-1\", \"extra\": {\"a\": [1]}}," +
+            "{\"amount\": 30.0, \"timestamp\": " + (now - 120_000) + "}," +
+            "{\"amount\": 40.0, \"timestamp\": " + (now + 10_000) + "}," +
+            "{\"timestamp\": " + now + "}" +
+            "]";
+
+        this.mockMvc.perform(
+            post(TransactionsRestController.PATH + TransactionsRestController.BATCH_PATH)
+                .content(body)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(status().isOk())
+            .andExpect(content().json("{\"accepted\": 2, \"stale\": 1, \"future\": 1, \"invalid\": 1}"));
+
+        Stats expectedResponse = new Stats(2, 10.0, 20.0, 30.0);
+        this.mockMvc.perform(
+            get(TransactionsRestController.PATH)
+                .accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(status().isOk())
+            .andExpect(content().json(mapper.writeValueAsString(expectedResponse)));
+    }
+
+    @Test(timeout = 5_000)
+    public void testAddBatchNdjson() throws Exception {
+        long now = timeSource.now().toEpochMilli();
+        StringBuilder body = new StringBuilder();
+        int count = 10_000;
+        for (int i = 0; i < count; ++i) {
+            body.append("{\"amount\": 1.0, \"timestamp\": ").append(now).append("}\n");
+        }
+
+        this.mockMvc.perform(
+            post(TransactionsRestController.PATH + TransactionsRestController.BATCH_PATH)
+                .content(body.toString())
+                .contentType(MediaType.parseMediaType(TransactionsRestController.NDJSON_VALUE))
+                .accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(status().isOk())
+            .andExpect(content().json("{\"accepted\": " + count + ", \"stale\": 0, \"future\": 0, \"invalid\": 0}"));
+
+        Stats expectedResponse = new Stats(count, 1.0, 1.0, count);
+        this.mockMvc.perform(
+            get(TransactionsRestController.PATH)
+                .accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(status().isOk())
+            .andExpect(content().json(mapper.writeValueAsString(expectedResponse)));
+    }
+
+    @Test(timeout = 5_000)
+    public void testAddBatchMalformed() throws Exception {
+        this.mockMvc.perform(
+            post(TransactionsRestController.PATH + TransactionsRestController.BATCH_PATH)
+                .content("[{\"amount\": 1.0,")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(status().isBadRequest())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE));
+    }
+
+    @Test(timeout = 5_000)
+    public void testGetPipelineStatusNotEnabled() throws Exception {
+        this.mockMvc.perform(get(TransactionsRestController.PATH + TransactionsRestController.PIPELINE_PATH)
+            .accept(MediaType.parseMediaType(MediaType.APPLICATION_JSON_UTF8_VALUE)))
+            .andExpect(status().isBadRequest())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE));
+    }
+
+    @Test(timeout = 5_000)
+    public void testExportBuckets() throws Exception {
+
+        AddTransactionRequest request = new AddTransactionRequest(10.0, timeSource.now().toEpochMilli());
+        this.mockMvc.perform(
+            post(TransactionsRestController.PATH)
+                .content(mapper.writeValueAsBytes(request))
+                .contentType(MediaType.parseMediaType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+            .andExpect(status().isOk());
+
+        byte[] body = this.mockMvc.perform(get(TransactionsRestController.PATH + TransactionsRestController.BUCKETS_PATH)
+            .accept(MediaType.APPLICATION_OCTET_STREAM))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_OCTET_STREAM))
+            .andReturn().getResponse().getContentAsByteArray();
+
+        BucketSnapshot snapshot = BucketSnapshot.readFrom(new DataInputStream(new ByteArrayInputStream(body)));
+        assertEquals(1, snapshot.size());
+    }
+
+    @Test(timeout = 5_000)
+    public void testGetRangeStatsNotEnabled() throws Exception {
+        this.mockMvc.perform(get(TransactionsRestController.PATH + TransactionsRestController.STATS_PATH)
+            .param("from", "2018-07-01T14:00:00Z")
+            .param("to", "2018-07-01T14:05:00Z")
+            .accept(MediaType.parseMediaType(MediaType.APPLICATION_JSON_UTF8_VALUE)))
+            .andExpect(status().isBadRequest())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE));
+    }
 }
@@ -0,0 +1,164 @@
+package com.akholodok.stats.aggregator.service;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+public class ArchivingStatsAggregatorTests {
+
+    private static final int SECONDS = 60;
+    private static final List<Duration> ROLLUPS = Arrays.asList(Duration.ofMinutes(1), Duration.ofHours(1));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TimeSource timeSource;
+    private Instant start;
+    private Path directory;
+
+    @Before
+    public void setUp() {
+        timeSource = mock(TimeSource.class);
+        start = Instant.now().truncatedTo(ChronoUnit.HOURS).minus(Duration.ofDays(1));
+        when(timeSource.now()).thenReturn(start);
+        directory = folder.getRoot().toPath();
+    }
+
+    @Test
+    public void testArchiveIdleBuckets() throws Exception {
+        ArchivingStatsAggregator aggregator = open();
+        assertTrue(aggregator.add(start, 1.0));
+        aggregator.archive();
+        assertEquals(0, aggregator.getArchive().getRows());
+
+        // nothing overwrites the bucket, so it is archived once it leaves the window
+        when(timeSource.now()).thenReturn(start.plusSeconds(SECONDS + 1));
+        aggregator.archive();
+        assertEquals(1, aggregator.getArchive().getRows());
+        assertFalse(aggregator.getStats().isPresent());
+        assertStats(aggregator.getStats(start, start.plusSeconds(1)), 1, 1.0, 1.0, 1.0);
+        aggregator.close();
+    }
+
+    @Test
+    public void testRangeStats() throws Exception {
+        ArchivingStatsAggregator aggregator = open();
+        List<Instant> timestamps = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        Instant now = start;
+        // three hours of values every 7 seconds, two values per timestamp
+        for (int i = 0; i < 3 * 3600 / 7; ++i) {
+            now = start.plusSeconds(i * 7L);
+            when(timeSource.now()).thenReturn(now);
+            for (double value : new double[]{i % 97, 1000 - i % 89}) {
+                assertTrue(aggregator.add(now, value));
+                timestamps.add(now);
+                values.add(value);
+            }
+            if (i % 13 == 0) {
+                aggregator.archive();
+            }
+        }
+        aggregator.archive();
+
+        Instant end = now.plusSeconds(1);
+        List<Instant[]> ranges = Arrays.asList(
+            new Instant[]{start, end},
+            new Instant[]{start.plusSeconds(59), start.plusSeconds(7261)},
+            new Instant[]{start.plusSeconds(3600), start.plusSeconds(7200)},
+            new Instant[]{start.plusSeconds(1234), start.plusSeconds(1240)},
+            // partly within the current window
+            new Instant[]{start.plusSeconds(7000), end},
+            new Instant[]{now.minusSeconds(30), end},
+            new Instant[]{start.minusSeconds(3600), start});
+        for (Instant[] range : ranges) {
+            assertRange(expected(timestamps, values, range[0], range[1]), aggregator.getStats(range[0], range[1]));
+        }
+        aggregator.close();
+
+        // buckets of the window are archived on close, rollups which were not complete are rebuilt on reopen
+        aggregator = open();
+        assertFalse(aggregator.getStats().isPresent());
+        for (Instant[] range : ranges) {
+            assertRange(expected(timestamps, values, range[0], range[1]), aggregator.getStats(range[0], range[1]));
+        }
+        aggregator.close();
+    }
+
+    @Test
+    public void testCloseArchivesWindow() throws Exception {
+        ArchivingStatsAggregator aggregator = open();
+        when(timeSource.now()).thenReturn(start.plusSeconds(30));
+        assertTrue(aggregator.add(start.plusSeconds(30), 2.0));
+        assertTrue(aggregator.add(start.plusSeconds(10), 3.0));
+        assertTrue(aggregator.add(start.plusSeconds(10), 4.0));
+        aggregator.close();
+        assertEquals(2, aggregator.getArchive().getRows());
+
+        aggregator = open();
+        assertStats(aggregator.getStats(start, start.plusSeconds(11)), 2, 3.0, 4.0, 7.0);
+        assertStats(aggregator.getStats(start, start.plusSeconds(31)), 3, 2.0, 4.0, 9.0);
+        aggregator.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyRange() throws Exception {
+        try (ArchivingStatsAggregator aggregator = open()) {
+            aggregator.getStats(start, start);
+        }
+    }
+
+    private ArchivingStatsAggregator open() {
+        return new ArchivingStatsAggregator(
+            SECONDS,
+            Duration.ofSeconds(1),
+            new BucketArchive(directory, Duration.ofSeconds(1), ROLLUPS),
+            Duration.ofHours(1),
+            timeSource);
+    }
+
+    // Stats has no equals, so compare their string form
+    private static String expected(List<Instant> timestamps, List<Double> values, Instant from, Instant to) {
+        Optional<Stats> stats = Optional.empty();
+        for (int i = 0; i < timestamps.size(); ++i) {
+            if (!timestamps.get(i).isBefore(from) && timestamps.get(i).isBefore(to)) {
+                Stats value = new Stats(1, values.get(i), values.get(i), values.get(i));
+                stats = Optional.of(stats.map(s -> StripedStatsAggregator.DEFAULT_STATS_REDUCER.apply(s, value)).orElse(value));
+            }
+        }
+        return stats.map(ArchivingStatsAggregatorTests::format).orElse("empty");
+    }
+
+    private static void assertRange(String expected, Optional<Stats> actual) {
+        assertEquals(expected, actual.map(ArchivingStatsAggregatorTests::format).orElse("empty"));
+    }
+
+    private static String format(Stats stats) {
+        return stats.getCount() + "/" + stats.getMin() + "/" + stats.getMax() + "/" + stats.getSum();
+    }
+
+    private static void assertStats(Optional<Stats> actual, long count, double min, double max, double sum) {
+        assertTrue(actual.isPresent());
+        assertEquals(count, actual.get().getCount());
+        assertEquals(min, actual.get().getMin());
+        assertEquals(max, actual.get().getMax());
+        assertEquals(sum, actual.get().getSum());
+    }
+}
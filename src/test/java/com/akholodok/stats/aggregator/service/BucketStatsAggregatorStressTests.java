@@ -10,6 +10,7 @@ import com.akholodok.stats.aggregator.model.Stats;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
@@ -26,17 +27,51 @@ public class BucketStatsAggregatorStressTests {
     private static final int OPS_PER_ROUND = 300;
     private static final int WORKERS_COUNT = Math.max(Runtime.getRuntime().availableProcessors(), 2);
 
-    private StatsAggregator aggregator;
     private TimeSource timeSource;
 
     @Before
     public void setUp() {
         timeSource = mock(TimeSource.class);
-        aggregator = new BucketStatsAggregator(SECONDS, timeSource);
     }
 
     @Test(timeout = 5_000)
     public void testParallel() {
+        testParallel(new BucketStatsAggregator(SECONDS, timeSource));
+    }
+
+    @Test(timeout = 5_000)
+    public void testParallelStriped() {
+        testParallel(new StripedStatsAggregator(SECONDS, WORKERS_COUNT, timeSource));
+    }
+
+    @Test(timeout = 5_000)
+    public void testParallelStripedContended() {
+        // fewer stripes than workers, so some workers still share stripes
+        testParallel(new StripedStatsAggregator(SECONDS, Math.max(WORKERS_COUNT / 2, 1), timeSource));
+    }
+
+    @Test(timeout = 5_000)
+    public void testParallelPrimitive() {
+        testParallel(new PrimitiveBucketStatsAggregator(SECONDS, timeSource));
+    }
+
+    @Test(timeout = 5_000)
+    public void testParallelOffHeap() {
+        testParallel(new OffHeapBucketStatsAggregator(SECONDS, timeSource));
+    }
+
+    @Test(timeout = 5_000)
+    public void testParallelIncremental() {
+        testParallel(new IncrementalStatsAggregator(SECONDS, timeSource));
+    }
+
+    @Test(timeout = 5_000)
+    public void testParallelSketching() {
+        testParallel(new SketchingStatsAggregator(
+            new BucketStatsAggregator(SECONDS, timeSource), Duration.ofSeconds(1), timeSource));
+    }
+
+    private void testParallel(StatsAggregator aggregator) {
 
         //
         // Run N worker threads in parallel each performing K operations rounds.
@@ -10,6 +10,7 @@ import com.akholodok.stats.aggregator.model.Stats;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Optional;
@@ -87,4 +88,75 @@ public class BucketStatsAggregatorTests {
         Optional<Stats> statsOpt = aggregator.getStats();
         assertFalse(statsOpt.isPresent());
     }
+
+    @Test
+    public void testAddObsoleteTimestampSubSecondBuckets() {
+        StatsAggregator aggregator = new BucketStatsAggregator(2, Duration.ofMillis(100), timeSource);
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+
+        // 2 seconds window is split into 20 buckets of 100ms
+        Instant oldest = now.truncatedTo(ChronoUnit.MILLIS)
+            .minusMillis(now.toEpochMilli() % 100)
+            .minusMillis(19 * 100);
+        assertFalse(aggregator.add(oldest.minusMillis(1L), 10.0));
+        assertTrue(aggregator.add(oldest, 10.0));
+    }
+
+    @Test
+    public void testGetStatsSubSecondBuckets() {
+        StatsAggregator aggregator = new BucketStatsAggregator(2, Duration.ofMillis(100), timeSource);
+        Instant now = Instant.ofEpochMilli(Instant.now().toEpochMilli() / 100 * 100);
+        when(timeSource.now()).thenReturn(now);
+        assertTrue(aggregator.add(now.minusMillis(500L), 5.0));
+        assertTrue(aggregator.add(now, 10.0));
+
+        // bucket of the first value has left the window, bucket of the second one has not
+        when(timeSource.now()).thenReturn(now.plusMillis(1600L));
+        Optional<Stats> statsOpt = aggregator.getStats();
+        assertTrue(statsOpt.isPresent());
+
+        Stats stats = statsOpt.get();
+        assertEquals(1L, stats.getCount());
+        assertEquals(10.0, stats.getSum());
+
+        when(timeSource.now()).thenReturn(now.plusMillis(2000L));
+        assertFalse(aggregator.getStats().isPresent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBucketWidthNotDividingDuration() {
+        new BucketStatsAggregator(1, Duration.ofMillis(300), timeSource);
+    }
+
+    @Test
+    public void testIngestMetrics() {
+        BucketStatsAggregator aggregator = new BucketStatsAggregator(SECONDS, timeSource);
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        when(timeSource.now()).thenReturn(now);
+
+        assertTrue(aggregator.add(now, 1.0));
+        assertTrue(aggregator.add(now, 2.0));
+        assertTrue(aggregator.add(now.minusSeconds(10), 3.0));
+        assertFalse(aggregator.add(now.minusSeconds(SECONDS), 4.0));
+        assertFalse(aggregator.add(now.plusSeconds(1), 5.0));
+
+        IngestMetrics metrics = aggregator.getIngestMetrics();
+        assertEquals(3L, metrics.getAccepted());
+        assertEquals(1L, metrics.getStale());
+        assertEquals(1L, metrics.getFuture());
+        assertEquals(0L, metrics.getCasRetries());
+        assertEquals(2L, metrics.getOccupiedBuckets());
+        assertEquals((long) SECONDS, metrics.getBuckets());
+
+        // values of overwritten and expired buckets stay counted
+        now = now.plusSeconds(SECONDS);
+        when(timeSource.now()).thenReturn(now);
+        assertTrue(aggregator.add(now, 6.0));
+        assertEquals(1, aggregator.expire());
+
+        metrics = aggregator.getIngestMetrics();
+        assertEquals(4L, metrics.getAccepted());
+        assertEquals(1L, metrics.getOccupiedBuckets());
+    }
 }
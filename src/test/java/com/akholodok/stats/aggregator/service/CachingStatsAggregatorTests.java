@@ -0,0 +1,153 @@
+package com.akholodok.stats.aggregator.service;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+public class CachingStatsAggregatorTests {
+
+    private static final Function<Stats, byte[]> ENCODER =
+        stats -> Long.toString(stats.getCount()).getBytes(StandardCharsets.UTF_8);
+
+    private TimeSource timeSource;
+    private Instant now;
+
+    @Before
+    public void setUp() {
+        timeSource = mock(TimeSource.class);
+        now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        when(timeSource.now()).thenReturn(now);
+    }
+
+    @Test
+    public void testGetStatsEmpty() {
+        CachingStatsAggregator aggregator = create(new BucketStatsAggregator(60, timeSource), Duration.ZERO);
+        assertFalse(aggregator.getStats().isPresent());
+        assertFalse(aggregator.getEncodedStats().isPresent());
+    }
+
+    @Test
+    public void testAcceptedValueChangesVersion() {
+        CachingStatsAggregator aggregator = create(new BucketStatsAggregator(60, timeSource), Duration.ZERO);
+        assertTrue(aggregator.add(now, 10.0));
+        assertEncoded(aggregator, "1");
+        assertEquals(1, aggregator.getMisses());
+
+        assertTrue(aggregator.add(now, 20.0));
+        assertEncoded(aggregator, "2");
+        assertEquals(2, aggregator.getStats().get().getCount());
+        assertEquals(2, aggregator.getMisses());
+        assertEquals(1, aggregator.getHits());
+
+        // rejected value does not change stats
+        assertFalse(aggregator.add(now.plusSeconds(1), 30.0));
+        assertEncoded(aggregator, "2");
+        assertEquals(2, aggregator.getMisses());
+    }
+
+    @Test
+    public void testServedWithinStalenessBound() {
+        CachingStatsAggregator aggregator = create(new BucketStatsAggregator(60, timeSource), Duration.ofHours(1));
+        assertTrue(aggregator.add(now, 10.0));
+        assertEncoded(aggregator, "1");
+        assertTrue(aggregator.add(now, 20.0));
+        assertEncoded(aggregator, "1");
+
+        // window moves with the next tick
+        when(timeSource.now()).thenReturn(now.plusSeconds(1));
+        assertEncoded(aggregator, "2");
+        assertEquals(2, aggregator.getMisses());
+    }
+
+    @Test
+    public void testRecomputedOnTick() {
+        StatsAggregator delegate = mock(StatsAggregator.class);
+        when(delegate.getStats()).thenReturn(Optional.of(new Stats(1, 1.0, 1.0, 1.0)));
+        CachingStatsAggregator aggregator = create(delegate, Duration.ZERO);
+
+        assertEncoded(aggregator, "1");
+        assertEncoded(aggregator, "1");
+        verify(delegate, times(1)).getStats();
+
+        when(timeSource.now()).thenReturn(now.plusMillis(999));
+        assertEncoded(aggregator, "1");
+        verify(delegate, times(1)).getStats();
+
+        when(timeSource.now()).thenReturn(now.plusSeconds(1));
+        assertEncoded(aggregator, "1");
+        verify(delegate, times(2)).getStats();
+    }
+
+    @Test(timeout = 10_000)
+    public void testSingleFlightRecomputation() throws Exception {
+        CountDownLatch computing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StatsAggregator delegate = mock(StatsAggregator.class);
+        when(delegate.getStats()).thenAnswer(invocation -> {
+            computing.countDown();
+            release.await();
+            return Optional.of(new Stats(1, 1.0, 1.0, 1.0));
+        });
+        CachingStatsAggregator aggregator = create(delegate, Duration.ZERO);
+
+        int readers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        List<Future<Optional<byte[]>>> futures = new ArrayList<>();
+        for (int i = 0; i < readers; ++i) {
+            futures.add(executor.submit(aggregator::getEncodedStats));
+        }
+        computing.await();
+        release.countDown();
+
+        byte[] first = futures.get(0).get().get();
+        for (Future<Optional<byte[]>> future : futures) {
+            assertSame(first, future.get().get());
+        }
+        executor.shutdown();
+        verify(delegate, times(1)).getStats();
+        assertEquals(1, aggregator.getMisses());
+        assertEquals(readers - 1, aggregator.getHits());
+    }
+
+    @Test
+    public void testKeepsMergingCapability() {
+        CachingStatsAggregator aggregator = create(new BucketStatsAggregator(60, timeSource), Duration.ZERO);
+        assertTrue(aggregator instanceof MergingStatsAggregator);
+        assertTrue(((MergingStatsAggregator) aggregator).add(now, new Stats(3, 1.0, 2.0, 4.0)));
+        assertEncoded(aggregator, "3");
+
+        assertFalse(create(mock(StatsAggregator.class), Duration.ZERO) instanceof MergingStatsAggregator);
+    }
+
+    private CachingStatsAggregator create(StatsAggregator delegate, Duration staleness) {
+        return CachingStatsAggregator.of(delegate, ENCODER, Duration.ofSeconds(1), staleness, timeSource);
+    }
+
+    private static void assertEncoded(CachingStatsAggregator aggregator, String expected) {
+        Optional<byte[]> encoded = aggregator.getEncodedStats();
+        assertTrue(encoded.isPresent());
+        assertEquals(expected, new String(encoded.get(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,118 @@
+package com.akholodok.stats.aggregator.service;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+public class CheckpointingStatsAggregatorTests {
+
+    private static final int SECONDS = 60;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TimeSource timeSource;
+    private Instant now;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        timeSource = mock(TimeSource.class);
+        now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        when(timeSource.now()).thenReturn(now);
+        file = folder.getRoot().toPath().resolve("stats.checkpoint");
+    }
+
+    @Test
+    public void testRestore() throws Exception {
+        CheckpointingStatsAggregator aggregator = open(Duration.ofSeconds(1));
+        assertTrue(aggregator.add(now.minusSeconds(30), 1.0));
+        assertTrue(aggregator.add(now.minusSeconds(10), 2.0));
+        assertTrue(aggregator.add(now.minusSeconds(10), 5.0));
+        assertTrue(aggregator.add(now, 3.0));
+        aggregator.close();
+
+        assertTrue(Files.exists(file));
+        assertEquals(Files.size(file), aggregator.getLastCheckpointBytes());
+        assertFalse(Files.exists(file.resolveSibling("stats.checkpoint.tmp")));
+
+        // restart 40 seconds later, the oldest bucket has left the window
+        now = now.plusSeconds(40);
+        when(timeSource.now()).thenReturn(now);
+        aggregator = open(Duration.ofSeconds(1));
+
+        Stats stats = aggregator.getStats().get();
+        assertEquals(3L, stats.getCount());
+        assertEquals(2.0, stats.getMin());
+        assertEquals(5.0, stats.getMax());
+        assertEquals(10.0, stats.getSum());
+        aggregator.close();
+    }
+
+    @Test
+    public void testCheckpointReplacesPrevious() throws Exception {
+        CheckpointingStatsAggregator aggregator = open(Duration.ofSeconds(1));
+        assertTrue(aggregator.add(now, 1.0));
+        aggregator.checkpoint();
+        long size = aggregator.getLastCheckpointBytes();
+
+        assertTrue(aggregator.add(now.minusSeconds(5), 2.0));
+        aggregator.checkpoint();
+        assertEquals(2L, aggregator.getCheckpoints());
+        // one more 40-byte bucket record
+        assertEquals(size + 40, aggregator.getLastCheckpointBytes());
+        aggregator.close();
+
+        aggregator = open(Duration.ofSeconds(1));
+        assertEquals(3.0, aggregator.getStats().get().getSum());
+        aggregator.close();
+    }
+
+    @Test
+    public void testIgnoreDifferentBucketWidth() throws Exception {
+        CheckpointingStatsAggregator aggregator = open(Duration.ofSeconds(1));
+        assertTrue(aggregator.add(now, 1.0));
+        aggregator.close();
+
+        aggregator = open(Duration.ofSeconds(2));
+        assertFalse(aggregator.getStats().isPresent());
+        aggregator.close();
+    }
+
+    @Test
+    public void testIgnoreBrokenChecksum() throws Exception {
+        CheckpointingStatsAggregator aggregator = open(Duration.ofSeconds(1));
+        assertTrue(aggregator.add(now, 1.0));
+        aggregator.close();
+
+        byte[] bytes = Files.readAllBytes(file);
+        // corrupt sum of the only bucket
+        bytes[bytes.length - 9] ^= 1;
+        Files.write(file, bytes);
+
+        aggregator = open(Duration.ofSeconds(1));
+        assertFalse(aggregator.getStats().isPresent());
+        aggregator.close();
+    }
+
+    private CheckpointingStatsAggregator open(Duration bucketWidth) {
+        return new CheckpointingStatsAggregator(
+            new BucketStatsAggregator(SECONDS, bucketWidth, timeSource),
+            file,
+            Duration.ofHours(1));
+    }
+}
@@ -0,0 +1,126 @@
+package com.akholodok.stats.aggregator.service;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.StatsAggregatorApplication;
+import com.akholodok.stats.aggregator.controller.AddTransactionRequest;
+import com.akholodok.stats.aggregator.controller.TransactionsRestController;
+import com.akholodok.stats.aggregator.model.Stats;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+public class CoordinatorStatsAggregatorTests {
+
+    private static final int SECONDS = 60;
+
+    // two independent instances on localhost, each aggregating its own share of transactions
+    private static ConfigurableApplicationContext peer1;
+    private static ConfigurableApplicationContext peer2;
+
+    private final RestTemplate restTemplate = new RestTemplate();
+
+    private TimeSource timeSource;
+    private Instant now;
+
+    @BeforeClass
+    public static void startPeers() {
+        peer1 = startPeer();
+        peer2 = startPeer();
+    }
+
+    @AfterClass
+    public static void stopPeers() {
+        peer1.close();
+        peer2.close();
+    }
+
+    @Before
+    public void setUp() {
+        timeSource = mock(TimeSource.class);
+        now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+    }
+
+    @Test(timeout = 10_000)
+    public void testMergePeers() throws Exception {
+        BucketStatsAggregator local = new BucketStatsAggregator(SECONDS, timeSource);
+        try (CoordinatorStatsAggregator coordinator = new CoordinatorStatsAggregator(
+            local, Arrays.asList(bucketsUri(peer1), bucketsUri(peer2)), Duration.ofSeconds(1), Duration.ofSeconds(2), timeSource)) {
+
+            post(peer1, 1.0);
+            post(peer1, 4.0);
+            post(peer2, 2.0);
+            assertEquals(true, coordinator.add(now.minusSeconds(1), 3.0));
+            assertStats(coordinator.getStats(), 4, 1.0, 4.0, 10.0);
+
+            // peers are cached for staleness interval, local aggregator is always read fresh
+            post(peer2, 5.0);
+            assertEquals(true, coordinator.add(now.minusSeconds(1), 0.5));
+            assertStats(coordinator.getStats(), 5, 0.5, 4.0, 10.5);
+
+            now = now.plusSeconds(1);
+            when(timeSource.now()).thenReturn(now);
+            assertStats(coordinator.getStats(), 6, 0.5, 5.0, 15.5);
+            assertEquals(0L, coordinator.getPeerFailures());
+
+            // only local buckets are exported
+            assertEquals(1, coordinator.exportBuckets().size());
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testSkipFailedPeer() throws Exception {
+        BucketStatsAggregator local = new BucketStatsAggregator(SECONDS, timeSource);
+        URI unavailable = URI.create("http://localhost:1" + TransactionsRestController.PATH + TransactionsRestController.BUCKETS_PATH);
+        try (CoordinatorStatsAggregator coordinator = new CoordinatorStatsAggregator(
+            local, Collections.singletonList(unavailable), Duration.ofSeconds(1), Duration.ofSeconds(2), timeSource)) {
+
+            assertEquals(true, coordinator.add(now.minusSeconds(1), 3.0));
+            assertStats(coordinator.getStats(), 1, 3.0, 3.0, 3.0);
+            assertEquals(1L, coordinator.getPeerFailures());
+        }
+    }
+
+    private void post(ConfigurableApplicationContext peer, double amount) {
+        restTemplate.postForEntity(
+            baseUri(peer) + TransactionsRestController.PATH,
+            new AddTransactionRequest(amount, now.minusSeconds(1).toEpochMilli()),
+            Void.class);
+    }
+
+    private static ConfigurableApplicationContext startPeer() {
+        return new SpringApplicationBuilder(StatsAggregatorApplication.class)
+            .properties("server.port=0")
+            .run();
+    }
+
+    private static String baseUri(ConfigurableApplicationContext peer) {
+        return "http://localhost:" + peer.getEnvironment().getProperty("local.server.port");
+    }
+
+    private static URI bucketsUri(ConfigurableApplicationContext peer) {
+        return URI.create(baseUri(peer) + TransactionsRestController.PATH + TransactionsRestController.BUCKETS_PATH);
+    }
+
+    private static void assertStats(Optional<Stats> actual, long count, double min, double max, double sum) {
+        assertEquals(true, actual.isPresent());
+        assertEquals(count, actual.get().getCount());
+        assertEquals(min, actual.get().getMin());
+        assertEquals(max, actual.get().getMax());
+        assertEquals(sum, actual.get().getSum());
+    }
+}
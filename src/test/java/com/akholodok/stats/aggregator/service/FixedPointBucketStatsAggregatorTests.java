@@ -0,0 +1,178 @@
+package com.akholodok.stats.aggregator.service;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class FixedPointBucketStatsAggregatorTests {
+
+    private TimeSource timeSource;
+    private FixedPointBucketStatsAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        timeSource = mock(TimeSource.class);
+        aggregator = new FixedPointBucketStatsAggregator(60, timeSource);
+    }
+
+    @Test
+    public void testAddObsoleteTimestamp() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        assertFalse(aggregator.add(now.truncatedTo(ChronoUnit.SECONDS).minusSeconds(59).minusMillis(1L), 10.0));
+    }
+
+    @Test
+    public void testAddTimestampInFuture() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        assertFalse(aggregator.add(now.plusMillis(1L), 10.0));
+    }
+
+    @Test
+    public void testGetStatsEmpty() {
+        when(timeSource.now()).thenReturn(Instant.now());
+        assertFalse(aggregator.getStats().isPresent());
+    }
+
+    @Test
+    public void testGetStats() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        assertTrue(aggregator.add(now, 10.25));
+        assertTrue(aggregator.add(now.minusSeconds(10), -3.5));
+        assertTrue(aggregator.add(now.minusSeconds(30), 7.0));
+        assertStats(aggregator.getStats(), 3, -3.5, 10.25, 13.75);
+    }
+
+    @Test
+    public void testSumIsExact() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        double doubleSum = 0.0;
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(aggregator.add(now.minusMillis(i * 50), 0.1));
+            doubleSum += 0.1;
+        }
+        // double arithmetic drifts, fixed-point does not
+        assertFalse(doubleSum == 100.0);
+        assertStats(aggregator.getStats(), 1000, 0.1, 0.1, 100.0);
+    }
+
+    @Test
+    public void testAmountRoundedToScale() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        assertTrue(aggregator.add(now, 1.005));
+        assertTrue(aggregator.add(now, 2.994));
+        assertStats(aggregator.getStats(), 2, 1.0, 2.99, 3.99);
+
+        FixedPointBucketStatsAggregator whole = new FixedPointBucketStatsAggregator(60, Duration.ofSeconds(1), 0, timeSource);
+        assertTrue(whole.add(now, 2.5));
+        assertStats(whole.getStats(), 1, 3.0, 3.0, 3.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAmountOutOfRange() {
+        when(timeSource.now()).thenReturn(Instant.now());
+        aggregator.add(timeSource.now(), 1e18);
+    }
+
+    @Test
+    public void testBatchSameAsSingleAdds() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        // every half-cent amount is rounded up on its own, not their sum
+        assertTrue(aggregator.add(now, 0.005));
+        assertTrue(aggregator.add(now, 0.005));
+        assertStats(aggregator.getStats(), 2, 0.01, 0.01, 0.02);
+
+        FixedPointBucketStatsAggregator batched = new FixedPointBucketStatsAggregator(60, timeSource);
+        TransactionBatch batch = new TransactionBatch(2);
+        batch.add(now.toEpochMilli(), 0.005, null);
+        batch.add(now.toEpochMilli(), 0.005, null);
+        assertEquals(2L, new TransactionBatchIngester(batched, timeSource).ingest(batch).getAccepted());
+        assertStats(batched.getStats(), 2, 0.01, 0.01, 0.02);
+    }
+
+    @Test
+    public void testBucketReusedForNewerBucket() {
+        Instant start = Instant.now().truncatedTo(ChronoUnit.MINUTES);
+        when(timeSource.now()).thenReturn(start);
+        assertTrue(aggregator.add(start, 5.0));
+
+        // the same slot a window later
+        Instant later = start.plusSeconds(60);
+        when(timeSource.now()).thenReturn(later);
+        assertStats(aggregator.getStats(), 0, 0, 0, 0);
+        assertTrue(aggregator.add(later, 1.0));
+        assertStats(aggregator.getStats(), 1, 1.0, 1.0, 1.0);
+        assertFalse(aggregator.add(start, 5.0));
+    }
+
+    @Test(timeout = 10_000)
+    public void testConcurrentAddsAcrossBuckets() throws Exception {
+        Instant start = Instant.now().truncatedTo(ChronoUnit.MINUTES);
+        AtomicReference<Instant> now = new AtomicReference<>(start);
+        when(timeSource.now()).thenAnswer(invocation -> now.get());
+
+        // writers keep adding into the current second while it moves, so slots are reused under them
+        int threads = 4;
+        int adds = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            futures.add(executor.submit(() -> {
+                int added = 0;
+                for (int i = 0; i < adds; ++i) {
+                    if (aggregator.add(now.get(), 0.01)) {
+                        ++added;
+                    }
+                }
+                return added;
+            }));
+        }
+        for (int second = 1; second <= 30; ++second) {
+            Thread.sleep(5);
+            now.set(start.plusSeconds(second));
+        }
+        long added = 0;
+        for (Future<Integer> future : futures) {
+            added += future.get();
+        }
+        executor.shutdown();
+
+        Optional<Stats> stats = aggregator.getStats();
+        assertStats(stats, added, 0.01, 0.01, added / 100.0);
+    }
+
+    private static void assertStats(Optional<Stats> statsOpt, long count, double min, double max, double sum) {
+        if (count == 0) {
+            assertFalse(statsOpt.isPresent());
+            return;
+        }
+        assertTrue(statsOpt.isPresent());
+        Stats stats = statsOpt.get();
+        assertEquals(count, stats.getCount());
+        assertEquals(min, stats.getMin());
+        assertEquals(max, stats.getMax());
+        assertEquals(sum, stats.getSum());
+    }
+}
@@ -0,0 +1,142 @@
+package com.akholodok.stats.aggregator.service;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+
+public class IncrementalStatsAggregatorTests {
+
+    private static final int SECONDS = 60;
+
+    private TimeSource timeSource;
+    private IncrementalStatsAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        timeSource = mock(TimeSource.class);
+        aggregator = new IncrementalStatsAggregator(SECONDS, timeSource);
+    }
+
+    @Test
+    public void testAddObsoleteTimestamp() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        Instant timestamp = now.minusSeconds(SECONDS - 1).truncatedTo(ChronoUnit.SECONDS).minusMillis(1L);
+        assertFalse(aggregator.add(timestamp, 10.0));
+    }
+
+    @Test
+    public void testAddTimestampInFuture() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        assertFalse(aggregator.add(now.plusMillis(1L), 10.0));
+    }
+
+    @Test
+    public void testGetStatsEmpty() {
+        when(timeSource.now()).thenReturn(Instant.now());
+        assertFalse(aggregator.getStats().isPresent());
+    }
+
+    @Test
+    public void testGetStatsCurrentAndSealedBuckets() {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        when(timeSource.now()).thenReturn(now);
+        assertTrue(aggregator.add(now, 10.0));
+        aggregator.tick();
+
+        when(timeSource.now()).thenReturn(now.plusSeconds(1));
+        aggregator.tick();
+        assertTrue(aggregator.add(now.plusSeconds(1), 5.0));
+        assertStats(aggregator.getStats(), 2, 5.0, 10.0, 15.0);
+    }
+
+    @Test
+    public void testAddIntoSealedBucket() {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        when(timeSource.now()).thenReturn(now);
+        assertTrue(aggregator.add(now, 10.0));
+
+        when(timeSource.now()).thenReturn(now.plusSeconds(5));
+        aggregator.tick();
+
+        // bucket of 'now' is sealed, late values are merged into window state
+        assertTrue(aggregator.add(now.plusMillis(500L), 20.0));
+        assertTrue(aggregator.add(now.minusSeconds(10), 1.0));
+        assertStats(aggregator.getStats(), 3, 1.0, 20.0, 31.0);
+    }
+
+    @Test
+    public void testGetStatsExpiresBuckets() {
+        Instant start = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        for (int i = 0; i < SECONDS * 2; ++i) {
+            Instant now = start.plusSeconds(i);
+            when(timeSource.now()).thenReturn(now);
+            assertTrue(aggregator.add(now, i));
+            aggregator.tick();
+        }
+        assertStats(aggregator.getStats(), SECONDS, SECONDS, 2 * SECONDS - 1, SECONDS * (3 * SECONDS - 1) / 2);
+
+        // ticker has stopped, read catches up by itself
+        when(timeSource.now()).thenReturn(start.plusSeconds(3 * SECONDS - 2));
+        assertStats(aggregator.getStats(), 1, 2 * SECONDS - 1, 2 * SECONDS - 1, 2 * SECONDS - 1);
+
+        when(timeSource.now()).thenReturn(start.plusSeconds(10 * SECONDS));
+        assertFalse(aggregator.getStats().isPresent());
+    }
+
+    @Test
+    public void testMinMaxAfterExpiration() {
+        Instant start = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        when(timeSource.now()).thenReturn(start);
+        assertTrue(aggregator.add(start, 100.0));
+        assertTrue(aggregator.add(start, -100.0));
+
+        when(timeSource.now()).thenReturn(start.plusSeconds(1));
+        assertTrue(aggregator.add(start.plusSeconds(1), 1.0));
+        assertStats(aggregator.getStats(), 3, -100.0, 100.0, 1.0);
+
+        when(timeSource.now()).thenReturn(start.plusSeconds(SECONDS));
+        assertStats(aggregator.getStats(), 1, 1.0, 1.0, 1.0);
+    }
+
+    @Test
+    public void testLateMinMaxAfterExpiration() {
+        Instant start = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        when(timeSource.now()).thenReturn(start.plusSeconds(2));
+        assertTrue(aggregator.add(start.plusSeconds(1), 1.0));
+        aggregator.tick();
+
+        // late values of sealed buckets are visible right away, deques are rebuilt by the next tick
+        assertTrue(aggregator.add(start, -100.0));
+        assertTrue(aggregator.add(start, 100.0));
+        assertTrue(aggregator.add(start.plusSeconds(1), 50.0));
+        assertStats(aggregator.getStats(), 4, -100.0, 100.0, 51.0);
+
+        when(timeSource.now()).thenReturn(start.plusSeconds(3));
+        assertStats(aggregator.getStats(), 4, -100.0, 100.0, 51.0);
+
+        // the bucket of late min and max leaves the window
+        when(timeSource.now()).thenReturn(start.plusSeconds(SECONDS));
+        assertStats(aggregator.getStats(), 2, 1.0, 50.0, 51.0);
+    }
+
+    private static void assertStats(Optional<Stats> statsOpt, long count, double min, double max, double sum) {
+        assertTrue(statsOpt.isPresent());
+        Stats stats = statsOpt.get();
+        assertEquals(count, stats.getCount());
+        assertEquals(min, stats.getMin());
+        assertEquals(max, stats.getMax());
+        assertEquals(sum, stats.getSum());
+    }
+}
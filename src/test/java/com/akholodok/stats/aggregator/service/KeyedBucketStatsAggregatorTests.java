@@ -0,0 +1,125 @@
+package com.akholodok.stats.aggregator.service;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+
+public class KeyedBucketStatsAggregatorTests {
+
+    private static final int SECONDS = 60;
+
+    private TimeSource timeSource;
+    private KeyedBucketStatsAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        timeSource = mock(TimeSource.class);
+        when(timeSource.now()).thenReturn(Instant.now().truncatedTo(ChronoUnit.SECONDS));
+        aggregator = new KeyedBucketStatsAggregator(SECONDS, timeSource);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertFalse(aggregator.getStats("merchant").isPresent());
+        assertEquals(0, aggregator.getKeysCount());
+    }
+
+    @Test
+    public void testKeysAreAggregatedSeparately() {
+        Instant now = timeSource.now();
+        assertTrue(aggregator.add("first", now, 1.0));
+        assertTrue(aggregator.add("first", now.minusSeconds(1), 3.0));
+        assertTrue(aggregator.add("second", now, 10.0));
+        assertFalse(aggregator.add("second", now.minusSeconds(SECONDS), 10.0));
+
+        assertStats(aggregator.getStats("first"), 2, 1.0, 3.0, 4.0);
+        assertStats(aggregator.getStats("second"), 1, 10.0, 10.0, 10.0);
+        assertFalse(aggregator.getStats("third").isPresent());
+        assertEquals(2, aggregator.getKeysCount());
+    }
+
+    @Test
+    public void testIdleKeysAreEvicted() {
+        Instant now = timeSource.now();
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(aggregator.add("key-" + i, now, i));
+        }
+        assertEquals(1000, aggregator.getKeysCount());
+
+        // keys become idle once their data is out of window, next add sweeps them
+        now = now.plusSeconds(SECONDS + 2);
+        when(timeSource.now()).thenReturn(now);
+        assertTrue(aggregator.add("active", now, 1.0));
+
+        assertEquals(1, aggregator.getKeysCount());
+        assertFalse(aggregator.getStats("key-0").isPresent());
+        assertStats(aggregator.getStats("active"), 1, 1.0, 1.0, 1.0);
+
+        // evicted key is created again on the next add
+        assertTrue(aggregator.add("key-0", now, 5.0));
+        assertStats(aggregator.getStats("key-0"), 1, 5.0, 5.0, 5.0);
+        assertEquals(2, aggregator.getKeysCount());
+    }
+
+    @Test
+    public void testActiveKeysAreNotEvicted() {
+        Instant now = timeSource.now();
+        assertTrue(aggregator.add("active", now, 1.0));
+        assertTrue(aggregator.add("idle", now, 1.0));
+
+        now = now.plusSeconds(SECONDS / 2);
+        when(timeSource.now()).thenReturn(now);
+        assertTrue(aggregator.add("active", now, 2.0));
+
+        now = now.plusSeconds(SECONDS / 2 + 2);
+        when(timeSource.now()).thenReturn(now);
+        assertTrue(aggregator.add("other", now, 3.0));
+
+        assertEquals(2, aggregator.getKeysCount());
+        assertStats(aggregator.getStats("active"), 1, 2.0, 2.0, 2.0);
+    }
+
+    @Test
+    public void testMapGrowsAndShrinks() {
+        LongKeyedMap<String> map = new LongKeyedMap<>(4, value -> value.startsWith("evictable"));
+        for (long key = 1; key <= 10_000; ++key) {
+            String value = (key % 2 == 0 ? "evictable-" : "live-") + key;
+            assertEquals(value, map.computeIfAbsent(key, k -> value));
+        }
+        // evictable values are dropped when segments grow
+        assertTrue(map.size() < 10_000);
+        for (long key = 1; key <= 10_000; key += 2) {
+            assertEquals("live-" + key, map.get(key));
+        }
+
+        map.evict();
+        assertEquals(5_000, map.size());
+
+        for (long key = 1; key <= 10_000; key += 2) {
+            assertTrue(map.remove(key, map.get(key)));
+        }
+        assertEquals(0, map.size());
+        assertNull(map.get(1L));
+        assertEquals("new", map.computeIfAbsent(1L, k -> "new"));
+    }
+
+    private static void assertStats(Optional<Stats> statsOpt, long count, double min, double max, double sum) {
+        assertTrue(statsOpt.isPresent());
+        Stats stats = statsOpt.get();
+        assertEquals(count, stats.getCount());
+        assertEquals(min, stats.getMin());
+        assertEquals(max, stats.getMax());
+        assertEquals(sum, stats.getSum());
+    }
+}
@@ -0,0 +1,210 @@
+package com.akholodok.stats.aggregator.service;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PipelinedStatsAggregatorTests {
+
+    private static final int SECONDS = 60;
+    private static final int CAPACITY = 16;
+
+    private TimeSource timeSource;
+    private Instant now;
+    private PipelinedStatsAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        timeSource = mock(TimeSource.class);
+        now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        when(timeSource.now()).thenReturn(now);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (aggregator != null) {
+            aggregator.close();
+        }
+    }
+
+    @Test(timeout = 5_000)
+    public void testVerdictAtPublishTime() throws Exception {
+        aggregator = pipeline(new BucketStatsAggregator(SECONDS, timeSource),
+            PipelinedStatsAggregator.Backpressure.BLOCK);
+
+        assertTrue(aggregator.add(now, 1.0));
+        assertTrue(aggregator.add(now.minusSeconds(SECONDS - 1), 2.0));
+        assertFalse(aggregator.add(now.minusSeconds(SECONDS), 3.0));
+        assertFalse(aggregator.add(now.plusMillis(1), 4.0));
+
+        awaitDrained();
+        Stats stats = aggregator.getStats().get();
+        assertEquals(2L, stats.getCount());
+        assertEquals(3.0, stats.getSum());
+    }
+
+    @Test(timeout = 5_000)
+    public void testDropWhenFull() throws Exception {
+        BlockingStatsAggregator delegate = new BlockingStatsAggregator();
+        aggregator = pipeline(delegate, PipelinedStatsAggregator.Backpressure.DROP);
+
+        // consumer is blocked on the first value, the rest fill the ring
+        assertTrue(aggregator.add(now, 0.0));
+        delegate.awaitBlocked();
+        for (int i = 0; i < CAPACITY; ++i) {
+            assertTrue(aggregator.add(now, i));
+        }
+        assertEquals(CAPACITY, aggregator.getStatus().getDepth());
+        try {
+            aggregator.add(now, 100.0);
+            fail();
+        } catch (PipelineFullException e) {
+            // expected
+        }
+
+        delegate.unblock();
+        awaitDrained();
+        assertEquals(CAPACITY + 1L, delegate.getCount());
+    }
+
+    @Test(timeout = 5_000)
+    public void testCallerRunsWhenFull() throws Exception {
+        BlockingStatsAggregator delegate = new BlockingStatsAggregator();
+        aggregator = pipeline(delegate, PipelinedStatsAggregator.Backpressure.CALLER_RUNS);
+
+        assertTrue(aggregator.add(now, 0.0));
+        delegate.awaitBlocked();
+        for (int i = 0; i < CAPACITY; ++i) {
+            assertTrue(aggregator.add(now, i));
+        }
+        // applied on the caller thread, which is not blocked by delegate
+        assertTrue(aggregator.add(now, 100.0));
+        assertEquals(2L, delegate.getCount());
+
+        delegate.unblock();
+        awaitDrained();
+        assertEquals(CAPACITY + 2L, delegate.getCount());
+    }
+
+    @Test(timeout = 5_000)
+    public void testBlockWhenFull() throws Exception {
+        BlockingStatsAggregator delegate = new BlockingStatsAggregator();
+        aggregator = pipeline(delegate, PipelinedStatsAggregator.Backpressure.BLOCK);
+
+        assertTrue(aggregator.add(now, 0.0));
+        delegate.awaitBlocked();
+        for (int i = 0; i < CAPACITY; ++i) {
+            assertTrue(aggregator.add(now, i));
+        }
+        Thread unblocker = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delegate.unblock();
+        });
+        unblocker.start();
+        // waits until consumer frees a slot
+        assertTrue(aggregator.add(now, 100.0));
+        unblocker.join();
+
+        awaitDrained();
+        assertEquals(CAPACITY + 2L, delegate.getCount());
+    }
+
+    @Test(timeout = 5_000)
+    public void testLagIsAgeOfOldestWaitingValue() throws Exception {
+        BlockingStatsAggregator delegate = new BlockingStatsAggregator();
+        aggregator = pipeline(delegate, PipelinedStatsAggregator.Backpressure.BLOCK);
+        assertEquals(0.0, aggregator.getStatus().getLagMillis());
+
+        // the first value is drained, the second one waits behind blocked consumer
+        assertTrue(aggregator.add(now, 0.0));
+        delegate.awaitBlocked();
+        assertTrue(aggregator.add(now, 1.0));
+        Thread.sleep(50);
+        double lagMillis = aggregator.getStatus().getLagMillis();
+        assertTrue(lagMillis >= 50);
+        Thread.sleep(10);
+        assertTrue(aggregator.getStatus().getLagMillis() > lagMillis);
+
+        delegate.unblock();
+        while (aggregator.getStatus().getDepth() > 0) {
+            Thread.sleep(1);
+        }
+        // nothing is waiting, so lag does not stay at the last drained value
+        assertEquals(0.0, aggregator.getStatus().getLagMillis());
+    }
+
+    private PipelinedStatsAggregator pipeline(StatsAggregator delegate,
+                                              PipelinedStatsAggregator.Backpressure backpressure) {
+        return new PipelinedStatsAggregator(delegate, Duration.ofSeconds(1), CAPACITY, backpressure, timeSource);
+    }
+
+    private void awaitDrained() throws Exception {
+        while (aggregator.getStatus().getDepth() > 0) {
+            Thread.sleep(1);
+        }
+        // the last drained batch could still be being applied
+        aggregator.close();
+    }
+
+    // counts values, the first add blocks until unblocked
+    private static class BlockingStatsAggregator implements StatsAggregator {
+
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch unblocked = new CountDownLatch(1);
+        private final AtomicLong count = new AtomicLong();
+
+        @Override
+        public boolean add(Instant timestamp, double value) {
+            if (count.getAndIncrement() == 0) {
+                blocked.countDown();
+                try {
+                    unblocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Optional<Stats> getStats() {
+            return Optional.empty();
+        }
+
+        @Override
+        public int getDuration() {
+            return SECONDS;
+        }
+
+        void awaitBlocked() throws InterruptedException {
+            blocked.await();
+        }
+
+        void unblock() {
+            unblocked.countDown();
+        }
+
+        long getCount() {
+            return count.get();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.akholodok.stats.aggregator.service;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Optional;
+
+public class RollupStatsAggregatorTests {
+
+    private TimeSource timeSource;
+    private WindowedStatsAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        timeSource = mock(TimeSource.class);
+        aggregator = new RollupStatsAggregator(
+            Arrays.asList(
+                new RollupStatsAggregator.Resolution(Duration.ofSeconds(1), 60),
+                new RollupStatsAggregator.Resolution(Duration.ofMinutes(1), 60),
+                new RollupStatsAggregator.Resolution(Duration.ofHours(1), 24)),
+            timeSource);
+    }
+
+    @Test
+    public void testDuration() {
+        assertEquals(24 * 60 * 60, aggregator.getDuration());
+    }
+
+    @Test
+    public void testAddObsoleteTimestamp() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        Instant timestamp = now.truncatedTo(ChronoUnit.HOURS).minus(23, ChronoUnit.HOURS).minusMillis(1L);
+        assertFalse(aggregator.add(timestamp, 10.0));
+    }
+
+    @Test
+    public void testAddTimestampInFuture() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        assertFalse(aggregator.add(now.plusMillis(1L), 10.0));
+    }
+
+    @Test
+    public void testGetStatsEmpty() {
+        when(timeSource.now()).thenReturn(Instant.now());
+        assertFalse(aggregator.getStats(Duration.ofMinutes(1)).isPresent());
+        assertFalse(aggregator.getStats().isPresent());
+    }
+
+    @Test
+    public void testGetStatsForWindows() {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        when(timeSource.now()).thenReturn(now);
+        assertTrue(aggregator.add(now, 1.0));
+        assertTrue(aggregator.add(now.minusSeconds(30), 2.0));
+        assertTrue(aggregator.add(now.minus(30, ChronoUnit.MINUTES), 4.0));
+        assertTrue(aggregator.add(now.minus(12, ChronoUnit.HOURS), 8.0));
+
+        assertStats(aggregator.getStats(Duration.ofSeconds(10)), 1, 1.0, 1.0, 1.0);
+        assertStats(aggregator.getStats(Duration.ofMinutes(1)), 2, 1.0, 2.0, 3.0);
+        assertStats(aggregator.getStats(Duration.ofHours(1)), 3, 1.0, 4.0, 7.0);
+        assertStats(aggregator.getStats(Duration.ofHours(24)), 4, 1.0, 8.0, 15.0);
+        assertStats(aggregator.getStats(), 4, 1.0, 8.0, 15.0);
+    }
+
+    @Test
+    public void testWindowEndsMidCoarseBucket() {
+        Instant minute = Instant.now().truncatedTo(ChronoUnit.HOURS).plus(4, ChronoUnit.MINUTES);
+        when(timeSource.now()).thenReturn(minute);
+        assertTrue(aggregator.add(minute, 100.0));
+
+        // a minute later the value is evicted from its slot and rolled up into the minute bucket
+        Instant nextMinute = minute.plusSeconds(60);
+        when(timeSource.now()).thenReturn(nextMinute);
+        assertTrue(aggregator.add(nextMinute, 1.0));
+
+        // the last minute starts in the middle of the minute bucket, so it is left out
+        when(timeSource.now()).thenReturn(nextMinute.plusSeconds(30));
+        assertStats(aggregator.getStats(Duration.ofMinutes(1)), 1, 1.0, 1.0, 1.0);
+        assertStats(aggregator.getStats(Duration.ofSeconds(61)), 1, 1.0, 1.0, 1.0);
+        assertStats(aggregator.getStats(Duration.ofSeconds(91)), 2, 1.0, 100.0, 101.0);
+        assertStats(aggregator.getStats(Duration.ofHours(1)), 2, 1.0, 100.0, 101.0);
+    }
+
+    @Test
+    public void testEvictedBucketsAreRolledUp() {
+        Instant start = Instant.now().truncatedTo(ChronoUnit.HOURS);
+
+        // every second of two minutes, so the first minute is evicted from the seconds ring
+        for (int i = 0; i < 120; ++i) {
+            Instant now = start.plusSeconds(i);
+            when(timeSource.now()).thenReturn(now);
+            assertTrue(aggregator.add(now, i));
+        }
+
+        assertStats(aggregator.getStats(Duration.ofMinutes(1)), 60, 60.0, 119.0, 60 * (60 + 119) / 2);
+        assertStats(aggregator.getStats(Duration.ofMinutes(5)), 120, 0.0, 119.0, 120 * 119 / 2);
+
+        // a day later everything is rolled up into the hours ring
+        Instant later = start.plus(23, ChronoUnit.HOURS);
+        when(timeSource.now()).thenReturn(later);
+        assertTrue(aggregator.add(later, 1000.0));
+        assertStats(aggregator.getStats(Duration.ofMinutes(1)), 1, 1000.0, 1000.0, 1000.0);
+        assertStats(aggregator.getStats(Duration.ofHours(24)), 121, 0.0, 1000.0, 120 * 119 / 2 + 1000.0);
+
+        // buckets which partially overlap the window are included, so wait for the whole two minutes
+        when(timeSource.now()).thenReturn(start.plus(24, ChronoUnit.HOURS).plus(2, ChronoUnit.MINUTES));
+        assertStats(aggregator.getStats(Duration.ofHours(24)), 1, 1000.0, 1000.0, 1000.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWindowLongerThanDuration() {
+        when(timeSource.now()).thenReturn(Instant.now());
+        aggregator.getStats(Duration.ofHours(25));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testResolutionsNotMultiple() {
+        new RollupStatsAggregator(
+            Arrays.asList(
+                new RollupStatsAggregator.Resolution(Duration.ofSeconds(7), 60),
+                new RollupStatsAggregator.Resolution(Duration.ofMinutes(1), 60)),
+            timeSource);
+    }
+
+    private static void assertStats(Optional<Stats> statsOpt, long count, double min, double max, double sum) {
+        assertTrue(statsOpt.isPresent());
+        Stats stats = statsOpt.get();
+        assertEquals(count, stats.getCount());
+        assertEquals(min, stats.getMin());
+        assertEquals(max, stats.getMax());
+        assertEquals(sum, stats.getSum());
+    }
+}
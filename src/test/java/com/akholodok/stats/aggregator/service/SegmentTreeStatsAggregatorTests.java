@@ -0,0 +1,188 @@
+package com.akholodok.stats.aggregator.service;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class SegmentTreeStatsAggregatorTests {
+
+    private TimeSource timeSource;
+    private SegmentTreeStatsAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        timeSource = mock(TimeSource.class);
+        aggregator = new SegmentTreeStatsAggregator(60, timeSource);
+    }
+
+    @Test
+    public void testAddObsoleteTimestamp() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        assertFalse(aggregator.add(now.truncatedTo(ChronoUnit.SECONDS).minusSeconds(59).minusMillis(1L), 10.0));
+    }
+
+    @Test
+    public void testAddTimestampInFuture() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        assertFalse(aggregator.add(now.plusMillis(1L), 10.0));
+    }
+
+    @Test
+    public void testGetStatsEmpty() {
+        when(timeSource.now()).thenReturn(Instant.now());
+        assertFalse(aggregator.getStats(Duration.ofSeconds(15)).isPresent());
+        assertFalse(aggregator.getStats().isPresent());
+    }
+
+    @Test
+    public void testGetStatsForWindows() {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        when(timeSource.now()).thenReturn(now);
+        assertTrue(aggregator.add(now, 1.0));
+        assertTrue(aggregator.add(now.minusSeconds(10), 2.0));
+        assertTrue(aggregator.add(now.minusSeconds(30), 4.0));
+        assertTrue(aggregator.add(now.minusSeconds(59), 8.0));
+
+        assertStats(aggregator.getStats(Duration.ofSeconds(1)), 1, 1.0, 1.0, 1.0);
+        assertStats(aggregator.getStats(Duration.ofSeconds(11)), 2, 1.0, 2.0, 3.0);
+        assertStats(aggregator.getStats(Duration.ofSeconds(31)), 3, 1.0, 4.0, 7.0);
+        assertStats(aggregator.getStats(), 4, 1.0, 8.0, 15.0);
+    }
+
+    @Test
+    public void testMergePartialStats() {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        when(timeSource.now()).thenReturn(now);
+        assertTrue(aggregator.add(now, new Stats(3, 1.0, 5.0, 9.0)));
+        assertTrue(aggregator.add(now, 7.0));
+        assertStats(aggregator.getStats(Duration.ofSeconds(5)), 4, 1.0, 7.0, 16.0);
+    }
+
+    @Test
+    public void testBucketsLeaveWindowAfterIdlePeriod() {
+        Instant start = Instant.now().truncatedTo(ChronoUnit.MINUTES);
+        for (int i = 0; i < 60; ++i) {
+            when(timeSource.now()).thenReturn(start.plusSeconds(i));
+            assertTrue(aggregator.add(start.plusSeconds(i), i));
+        }
+
+        // nothing is added for 45 seconds, slots of those seconds still hold the previous minute
+        when(timeSource.now()).thenReturn(start.plusSeconds(104));
+        assertFalse(aggregator.getStats(Duration.ofSeconds(45)).isPresent());
+        assertStats(aggregator.getStats(Duration.ofSeconds(46)), 1, 59.0, 59.0, 59.0);
+        assertStats(aggregator.getStats(), 15, 45.0, 59.0, 15 * (45 + 59) / 2);
+
+        // a single value overwrites one slot and clears the skipped ones
+        assertTrue(aggregator.add(start.plusSeconds(104), 100.0));
+        assertStats(aggregator.getStats(Duration.ofSeconds(1)), 1, 100.0, 100.0, 100.0);
+        assertStats(aggregator.getStats(), 16, 45.0, 100.0, 15 * (45 + 59) / 2 + 100.0);
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        int duration = 300;
+        SegmentTreeStatsAggregator aggregator = new SegmentTreeStatsAggregator(duration, timeSource);
+        Random random = new Random(42);
+        Instant start = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        List<Instant> timestamps = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+
+        Instant now = start;
+        for (int step = 0; step < 5_000; ++step) {
+            // mostly small steps, sometimes idle periods longer than the whole window
+            now = now.plusMillis(random.nextInt(10) == 0 ? random.nextInt(2 * duration * 1000) : random.nextInt(500));
+            when(timeSource.now()).thenReturn(now);
+
+            Instant timestamp = now.minusMillis(random.nextInt(duration * 1000));
+            double value = random.nextInt(1000);
+            if (aggregator.add(timestamp, value)) {
+                timestamps.add(timestamp);
+                values.add(value);
+            }
+
+            int last = 1 + random.nextInt(duration);
+            long end = now.toEpochMilli() / 1000 + 1;
+            Stats expected = null;
+            for (int i = 0; i < timestamps.size(); ++i) {
+                long epochBucket = timestamps.get(i).toEpochMilli() / 1000;
+                if (epochBucket >= end - last && epochBucket < end) {
+                    double v = values.get(i);
+                    expected = expected == null
+                        ? new Stats(1, v, v, v)
+                        : new Stats(expected.getCount() + 1, Math.min(expected.getMin(), v),
+                            Math.max(expected.getMax(), v), expected.getSum() + v);
+                }
+            }
+            Optional<Stats> actual = aggregator.getStats(Duration.ofSeconds(last));
+            if (expected == null) {
+                assertFalse(actual.isPresent());
+            } else {
+                assertStats(actual, expected.getCount(), expected.getMin(), expected.getMax(), expected.getSum());
+            }
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testConcurrentAdds() throws Exception {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        when(timeSource.now()).thenReturn(now);
+        int threads = 4;
+        int adds = 6_000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < adds; ++i) {
+                    assertTrue(aggregator.add(now.minusSeconds(i % 60), 1.0));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        assertStats(aggregator.getStats(), threads * adds, 1.0, 1.0, threads * adds);
+        int lastSeconds = 15;
+        long perSecond = threads * adds / 60;
+        assertStats(aggregator.getStats(Duration.ofSeconds(lastSeconds)),
+            lastSeconds * perSecond, 1.0, 1.0, lastSeconds * perSecond);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWindowLongerThanDuration() {
+        when(timeSource.now()).thenReturn(Instant.now());
+        aggregator.getStats(Duration.ofSeconds(61));
+    }
+
+    private static void assertStats(Optional<Stats> statsOpt, long count, double min, double max, double sum) {
+        assertTrue(statsOpt.isPresent());
+        Stats stats = statsOpt.get();
+        assertEquals(count, stats.getCount());
+        assertEquals(min, stats.getMin());
+        assertEquals(max, stats.getMax());
+        assertEquals(sum, stats.getSum());
+    }
+}
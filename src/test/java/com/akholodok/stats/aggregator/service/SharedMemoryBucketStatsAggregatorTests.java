@@ -0,0 +1,237 @@
+package com.akholodok.stats.aggregator.service;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SharedMemoryBucketStatsAggregatorTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TimeSource timeSource;
+    private Path file;
+    private List<SharedMemoryBucketStatsAggregator> opened;
+
+    @Before
+    public void setUp() {
+        timeSource = mock(TimeSource.class);
+        file = folder.getRoot().toPath().resolve("ring");
+        opened = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (SharedMemoryBucketStatsAggregator aggregator : opened) {
+            aggregator.close();
+        }
+    }
+
+    @Test
+    public void testAddObsoleteTimestamp() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        assertFalse(open(60).add(now.truncatedTo(ChronoUnit.SECONDS).minusSeconds(59).minusMillis(1L), 10.0));
+    }
+
+    @Test
+    public void testAddTimestampInFuture() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        assertFalse(open(60).add(now.plusMillis(1L), 10.0));
+    }
+
+    @Test
+    public void testGetStatsEmpty() {
+        when(timeSource.now()).thenReturn(Instant.now());
+        assertFalse(open(60).getStats().isPresent());
+    }
+
+    @Test
+    public void testGetStats() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        SharedMemoryBucketStatsAggregator aggregator = open(60);
+        assertTrue(aggregator.add(now, 10.0));
+        assertTrue(aggregator.add(now.minusSeconds(10), -3.5));
+        assertTrue(aggregator.add(now.minusSeconds(30), new Stats(2, 1.0, 6.5, 7.5)));
+        assertStats(aggregator.getStats(), 4, -3.5, 10.0, 14.0);
+    }
+
+    @Test
+    public void testInstancesShareWindow() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        // separate mappings of the same file, as in different processes
+        SharedMemoryBucketStatsAggregator first = open(60);
+        SharedMemoryBucketStatsAggregator second = open(60);
+        assertTrue(first.add(now, 10.0));
+        assertTrue(second.add(now, 20.0));
+        assertTrue(second.add(now.minusSeconds(5), 30.0));
+        assertStats(first.getStats(), 3, 10.0, 30.0, 60.0);
+        assertStats(second.getStats(), 3, 10.0, 30.0, 60.0);
+    }
+
+    @Test
+    public void testReopenKeepsWindow() throws Exception {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        SharedMemoryBucketStatsAggregator aggregator = open(60);
+        assertTrue(aggregator.add(now, 10.0));
+        aggregator.close();
+        assertStats(open(60).getStats(), 1, 10.0, 10.0, 10.0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLayoutMismatch() {
+        open(60);
+        open(30);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownFile() throws Exception {
+        Files.write(file, new byte[SharedMemoryBucketStatsAggregator.HEADER_SIZE
+            + 60 * SharedMemoryBucketStatsAggregator.SLOT_SIZE]);
+        Files.write(file, new byte[] {1, 2, 3, 4}, StandardOpenOption.WRITE);
+        open(60);
+    }
+
+    @Test
+    public void testStaleBucketReset() {
+        Instant start = Instant.now().truncatedTo(ChronoUnit.MINUTES);
+        when(timeSource.now()).thenReturn(start);
+        SharedMemoryBucketStatsAggregator first = open(60);
+        SharedMemoryBucketStatsAggregator second = open(60);
+        assertTrue(first.add(start, 5.0));
+
+        // the same slot a window later, e.g. after all processes were idle
+        Instant later = start.plusSeconds(60);
+        when(timeSource.now()).thenReturn(later);
+        assertStats(second.getStats(), 0, 0, 0, 0);
+        assertTrue(second.add(later, 1.0));
+        assertStats(first.getStats(), 1, 1.0, 1.0, 1.0);
+        assertFalse(first.add(start, 5.0));
+    }
+
+    @Test(timeout = 10_000)
+    public void testConcurrentAddsAcrossInstances() throws Exception {
+        Instant start = Instant.now().truncatedTo(ChronoUnit.MINUTES);
+        AtomicReference<Instant> now = new AtomicReference<>(start);
+        when(timeSource.now()).thenAnswer(invocation -> now.get());
+
+        // writers of separate mappings keep adding into the current second while it moves
+        int threads = 4;
+        int adds = 20_000;
+        List<SharedMemoryBucketStatsAggregator> aggregators = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            aggregators.add(open(60));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (SharedMemoryBucketStatsAggregator aggregator : aggregators) {
+            futures.add(executor.submit(() -> {
+                int added = 0;
+                for (int i = 0; i < adds; ++i) {
+                    if (aggregator.add(now.get(), 1.0)) {
+                        ++added;
+                    }
+                }
+                return added;
+            }));
+        }
+        for (int second = 1; second <= 30; ++second) {
+            Thread.sleep(5);
+            now.set(start.plusSeconds(second));
+        }
+        long added = 0;
+        for (Future<Integer> future : futures) {
+            added += future.get();
+        }
+        executor.shutdown();
+
+        assertStats(aggregators.get(0).getStats(), added, 1.0, 1.0, added);
+    }
+
+    @Test(timeout = 10_000)
+    public void testReaderTakesOverAbandonedSlot() throws Exception {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        when(timeSource.now()).thenReturn(now);
+        Duration lockTimeout = Duration.ofMillis(100);
+        SharedMemoryBucketStatsAggregator aggregator =
+            new SharedMemoryBucketStatsAggregator(60, Duration.ofSeconds(1), file, timeSource, lockTimeout);
+        opened.add(aggregator);
+        assertTrue(aggregator.add(now.minusSeconds(1), 7.0));
+        assertTrue(aggregator.add(now, 5.0));
+
+        // writer of a killed process has locked the slot of the current second and never releases it
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer slots = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size())
+                .order(ByteOrder.nativeOrder());
+            for (int slot = SharedMemoryBucketStatsAggregator.HEADER_SIZE; slot < slots.capacity();
+                 slot += SharedMemoryBucketStatsAggregator.SLOT_SIZE) {
+                // [sequence][epochBucket][count][min][max][sum]
+                if (slots.getDouble(slot + 40) == 5.0) {
+                    slots.putLong(slot, slots.getLong(slot) + 1);
+                }
+            }
+        }
+
+        // the first read waits for the lock timeout and drops the partially written bucket
+        long start = System.nanoTime();
+        assertStats(aggregator.getStats(), 1, 7.0, 7.0, 7.0);
+        assertTrue(System.nanoTime() - start >= lockTimeout.toNanos());
+
+        // the slot is released, so later reads and writes do not wait for it
+        start = System.nanoTime();
+        assertStats(aggregator.getStats(), 1, 7.0, 7.0, 7.0);
+        assertTrue(aggregator.add(now, 1.0));
+        assertStats(aggregator.getStats(), 2, 1.0, 7.0, 8.0);
+        assertTrue(System.nanoTime() - start < lockTimeout.toNanos());
+    }
+
+    private SharedMemoryBucketStatsAggregator open(int duration) {
+        SharedMemoryBucketStatsAggregator aggregator =
+            new SharedMemoryBucketStatsAggregator(duration, Duration.ofSeconds(1), file, timeSource);
+        opened.add(aggregator);
+        return aggregator;
+    }
+
+    private static void assertStats(Optional<Stats> statsOpt, long count, double min, double max, double sum) {
+        if (count == 0) {
+            assertFalse(statsOpt.isPresent());
+            return;
+        }
+        assertTrue(statsOpt.isPresent());
+        Stats stats = statsOpt.get();
+        assertEquals(count, stats.getCount());
+        assertEquals(min, stats.getMin());
+        assertEquals(max, stats.getMax());
+        assertEquals(sum, stats.getSum());
+    }
+}
@@ -0,0 +1,141 @@
+package com.akholodok.stats.aggregator.service;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.model.Quantiles;
+import com.akholodok.stats.aggregator.model.Stats;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+
+public class SketchingStatsAggregatorTests {
+
+    private static final int SECONDS = 60;
+
+    // relative error of sketch is at most 1 / 2^(PRECISION_BITS + 1)
+    private static final double PRECISION = 1.0 / (1 << (QuantileSketch.PRECISION_BITS + 1));
+
+    private TimeSource timeSource;
+    private SketchingStatsAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        timeSource = mock(TimeSource.class);
+        aggregator = new SketchingStatsAggregator(
+            new BucketStatsAggregator(SECONDS, timeSource),
+            Duration.ofSeconds(1),
+            timeSource);
+    }
+
+    @Test
+    public void testSketchBinsAreOrdered() {
+        double[] values = {-1e13, -1000.0, -1.5, -1.0, 0.0, 0.01, 1.0, 1.5, 1000.0, 1e13};
+        for (int i = 1; i < values.length; ++i) {
+            assertTrue(QuantileSketch.bin(values[i - 1]) < QuantileSketch.bin(values[i]));
+        }
+        assertEquals(0, QuantileSketch.bin(Double.NEGATIVE_INFINITY));
+        assertEquals(QuantileSketch.BINS - 1, QuantileSketch.bin(Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void testSketchQuantiles() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 1; i <= 1000; ++i) {
+            sketch.record(i);
+        }
+        double[] values = sketch.getQuantiles(0.0, 0.5, 0.99, 1.0);
+        assertEquals(1.0, values[0], 1.0 * PRECISION);
+        assertEquals(500.0, values[1], 500.0 * PRECISION);
+        assertEquals(990.0, values[2], 990.0 * PRECISION);
+        assertEquals(1000.0, values[3], 1000.0 * PRECISION);
+    }
+
+    @Test
+    public void testSketchMerge() {
+        QuantileSketch first = new QuantileSketch();
+        QuantileSketch second = new QuantileSketch();
+        for (int i = 1; i <= 100; ++i) {
+            first.record(-i);
+            second.record(i);
+        }
+        QuantileSketch merged = new QuantileSketch().merge(first).merge(second);
+        assertEquals(200L, merged.getCount());
+        assertEquals(100L, first.getCount());
+
+        double[] values = merged.getQuantiles(0.25, 0.75);
+        assertEquals(-51.0, values[0], 51.0 * PRECISION);
+        assertEquals(50.0, values[1], 50.0 * PRECISION);
+    }
+
+    @Test
+    public void testGetQuantilesEmpty() {
+        when(timeSource.now()).thenReturn(Instant.now());
+        assertFalse(aggregator.getQuantiles(0.5).isPresent());
+    }
+
+    @Test
+    public void testGetQuantiles() {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        when(timeSource.now()).thenReturn(now);
+        for (int i = 1; i <= 100; ++i) {
+            assertTrue(aggregator.add(now.minusSeconds(i % SECONDS), i));
+        }
+        assertFalse(aggregator.add(now.plusSeconds(1), 1000.0));
+
+        Optional<Stats> statsOpt = aggregator.getStats();
+        assertTrue(statsOpt.isPresent());
+        assertEquals(100L, statsOpt.get().getCount());
+
+        Optional<Quantiles> quantilesOpt = aggregator.getQuantiles(0.99, 0.5);
+        assertTrue(quantilesOpt.isPresent());
+
+        Quantiles quantiles = quantilesOpt.get();
+        assertEquals(100L, quantiles.getCount());
+        assertEquals(50.0, quantiles.getQuantiles().get(0.5), 50.0 * PRECISION);
+        assertEquals(99.0, quantiles.getQuantiles().get(0.99), 99.0 * PRECISION);
+    }
+
+    @Test
+    public void testGetQuantilesObsolete() {
+        Instant now = Instant.now();
+        when(timeSource.now()).thenReturn(now);
+        assertTrue(aggregator.add(now, 10.0));
+
+        when(timeSource.now()).thenReturn(now.plusSeconds(SECONDS));
+        assertFalse(aggregator.getQuantiles(0.5).isPresent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetQuantilesOutOfRange() {
+        when(timeSource.now()).thenReturn(Instant.now());
+        aggregator.getQuantiles(1.5);
+    }
+
+    @Test
+    public void testGetStatsWindowThroughDecorator() {
+        WindowedStatsAggregator windowed = mock(WindowedStatsAggregator.class);
+        when(windowed.getDuration()).thenReturn(SECONDS);
+        when(windowed.getStats(Duration.ofSeconds(10))).thenReturn(Optional.of(new Stats(1, 2.0, 2.0, 2.0)));
+        // e.g. pipeline or write-ahead log in between
+        DelegatingStatsAggregator decorator = mock(DelegatingStatsAggregator.class);
+        when(decorator.getDuration()).thenReturn(SECONDS);
+        when(decorator.getDelegate()).thenReturn(windowed);
+
+        SketchingStatsAggregator sketching = new SketchingStatsAggregator(decorator, Duration.ofSeconds(1), timeSource);
+        assertEquals(1, sketching.getStats(Duration.ofSeconds(10)).get().getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetStatsWindowNotSupported() {
+        when(timeSource.now()).thenReturn(Instant.now());
+        aggregator.getStats(Duration.ofSeconds(10));
+    }
+}
@@ -0,0 +1,112 @@
+package com.akholodok.stats.aggregator.service;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.model.TopKeys;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Random;
+
+public class SpaceSavingTopKeysAggregatorTests {
+
+    private static final int SECONDS = 60;
+    private static final int CAPACITY = 10;
+
+    private TimeSource timeSource;
+    private SpaceSavingTopKeysAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        timeSource = mock(TimeSource.class);
+        when(timeSource.now()).thenReturn(Instant.now().truncatedTo(ChronoUnit.SECONDS));
+        aggregator = new SpaceSavingTopKeysAggregator(SECONDS, Duration.ofSeconds(1), CAPACITY, timeSource);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertFalse(aggregator.getTop(5, TopKeysAggregator.Measure.SUM).isPresent());
+    }
+
+    @Test
+    public void testExactWhenKeysFit() {
+        Instant now = timeSource.now();
+        assertTrue(aggregator.add("a", now, 1.0));
+        assertTrue(aggregator.add("a", now.minusSeconds(1), 1.0));
+        assertTrue(aggregator.add("a", now.minusSeconds(2), 1.0));
+        assertTrue(aggregator.add("b", now, 100.0));
+        assertTrue(aggregator.add("c", now.minusSeconds(3), 10.0));
+        assertTrue(aggregator.add("c", now, -5.0));
+        assertFalse(aggregator.add("d", now.minusSeconds(SECONDS), 1000.0));
+
+        List<TopKeys.Entry> byCount = aggregator.getTop(2, TopKeysAggregator.Measure.COUNT).get().getKeys();
+        assertEquals(2, byCount.size());
+        assertEntry(byCount.get(0), "a", 3.0, 0.0);
+        assertEntry(byCount.get(1), "c", 2.0, 0.0);
+
+        TopKeys bySum = aggregator.getTop(5, TopKeysAggregator.Measure.SUM).get();
+        assertEquals(113.0, bySum.getTotal());
+        assertEquals(3, bySum.getKeys().size());
+        assertEntry(bySum.getKeys().get(0), "b", 100.0, 0.0);
+        assertEntry(bySum.getKeys().get(1), "c", 10.0, 0.0);
+        assertEntry(bySum.getKeys().get(2), "a", 3.0, 0.0);
+    }
+
+    @Test
+    public void testHeavyHittersWithinErrorBound() {
+        Instant now = timeSource.now();
+        Random random = new Random(42);
+        int total = 0;
+        int[] heavy = new int[3];
+        for (int second = 0; second < SECONDS; ++second) {
+            for (int i = 0; i < 100; ++i) {
+                // 3 heavy keys take a half of all transactions, the rest are spread over 1000 keys
+                int heavyKey = random.nextInt(6);
+                String key = heavyKey < 3 ? "heavy-" + heavyKey : "light-" + random.nextInt(1000);
+                if (heavyKey < 3) {
+                    ++heavy[heavyKey];
+                }
+                assertTrue(aggregator.add(key, now.minusSeconds(second), 1.0));
+                ++total;
+            }
+        }
+
+        TopKeys top = aggregator.getTop(3, TopKeysAggregator.Measure.COUNT).get();
+        assertEquals((double) total, top.getTotal());
+        assertEquals(3, top.getKeys().size());
+        for (TopKeys.Entry entry : top.getKeys()) {
+            assertTrue(entry.getKey().startsWith("heavy-"));
+            double exact = heavy[Integer.parseInt(entry.getKey().substring("heavy-".length()))];
+            assertTrue(entry.getError() <= (double) total / CAPACITY);
+            assertTrue(Math.abs(entry.getValue() - exact) <= entry.getError());
+        }
+    }
+
+    @Test
+    public void testObsoleteBucketsAreIgnored() {
+        Instant now = timeSource.now();
+        assertTrue(aggregator.add("a", now, 1.0));
+
+        when(timeSource.now()).thenReturn(now.plusSeconds(SECONDS));
+        assertFalse(aggregator.getTop(1, TopKeysAggregator.Measure.COUNT).isPresent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyKeysRequested() {
+        aggregator.getTop(CAPACITY + 1, TopKeysAggregator.Measure.COUNT);
+    }
+
+    private static void assertEntry(TopKeys.Entry entry, String key, double value, double error) {
+        assertEquals(key, entry.getKey());
+        assertEquals(value, entry.getValue());
+        assertEquals(error, entry.getError());
+    }
+}
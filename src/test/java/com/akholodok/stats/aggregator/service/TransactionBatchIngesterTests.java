@@ -0,0 +1,119 @@
+package com.akholodok.stats.aggregator.service;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.model.BatchResult;
+import com.akholodok.stats.aggregator.model.Stats;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+
+public class TransactionBatchIngesterTests {
+
+    private static final int SECONDS = 60;
+
+    private TimeSource timeSource;
+    private Instant now;
+    private KeyedBucketStatsAggregator keyedAggregator;
+
+    @Before
+    public void setUp() {
+        timeSource = mock(TimeSource.class);
+        now = Instant.now().truncatedTo(ChronoUnit.SECONDS).plusMillis(500);
+        when(timeSource.now()).thenReturn(now);
+        keyedAggregator = new KeyedBucketStatsAggregator(SECONDS, timeSource);
+    }
+
+    @Test
+    public void testMergingAggregator() {
+        BucketStatsAggregator aggregator = new BucketStatsAggregator(SECONDS, Duration.ofMillis(100), timeSource);
+        BatchResult result = ingester(aggregator).ingest(batch());
+
+        assertResult(result, 4, 1, 1);
+        assertStats(aggregator.getStats(), 4, -1.0, 5.0, 9.0);
+        assertStats(keyedAggregator.getStats("merchant"), 2, 2.0, 3.0, 5.0);
+    }
+
+    @Test
+    public void testNonMergingAggregator() {
+        PrimitiveBucketStatsAggregator aggregator = new PrimitiveBucketStatsAggregator(SECONDS, timeSource);
+        BatchResult result = ingester(aggregator).ingest(batch());
+
+        assertResult(result, 4, 1, 1);
+        assertStats(aggregator.getStats(), 4, -1.0, 5.0, 9.0);
+    }
+
+    @Test
+    public void testMergeIsSameAsAdd() {
+        BucketStatsAggregator merged = new BucketStatsAggregator(SECONDS, timeSource);
+        BucketStatsAggregator added = new BucketStatsAggregator(SECONDS, timeSource);
+        TransactionBatch batch = new TransactionBatch(1000);
+        for (int i = 0; i < 1000; ++i) {
+            Instant timestamp = now.minusMillis(i * 37);
+            batch.add(timestamp.toEpochMilli(), i, null);
+            assertTrue(added.add(timestamp, i));
+        }
+        assertResult(ingester(merged).ingest(batch), 1000, 0, 0);
+
+        Stats expected = added.getStats().get();
+        assertStats(merged.getStats(), expected.getCount(), expected.getMin(), expected.getMax(), expected.getSum());
+    }
+
+    @Test
+    public void testKeyedOnlyIfAccepted() {
+        // e.g. pipeline which rejects under backpressure
+        StatsAggregator rejecting = mock(StatsAggregator.class);
+        when(rejecting.getDuration()).thenReturn(SECONDS);
+        assertResult(ingester(rejecting).ingest(batch()), 0, 5, 1);
+        assertFalse(keyedAggregator.getStats("merchant").isPresent());
+
+        MergingStatsAggregator rejectingMerging = mock(MergingStatsAggregator.class);
+        when(rejectingMerging.getDuration()).thenReturn(SECONDS);
+        when(rejectingMerging.getBucketWidth()).thenReturn(Duration.ofSeconds(1));
+        assertResult(ingester(rejectingMerging).ingest(batch()), 0, 5, 1);
+        assertFalse(keyedAggregator.getStats("merchant").isPresent());
+    }
+
+    private TransactionBatchIngester ingester(StatsAggregator aggregator) {
+        return new TransactionBatchIngester(
+            aggregator,
+            keyedAggregator,
+            new SpaceSavingTopKeysAggregator(SECONDS, timeSource),
+            timeSource);
+    }
+
+    private TransactionBatch batch() {
+        TransactionBatch batch = new TransactionBatch(16);
+        batch.add(now.toEpochMilli(), 2.0, "merchant");
+        batch.add(now.minusMillis(50).toEpochMilli(), 3.0, "merchant");
+        batch.add(now.minusSeconds(10).toEpochMilli(), 5.0, null);
+        batch.add(now.minusSeconds(SECONDS - 1).toEpochMilli(), -1.0, null);
+        batch.add(now.minusSeconds(SECONDS + 1).toEpochMilli(), 100.0, "merchant");
+        batch.add(now.plusSeconds(1).toEpochMilli(), 100.0, null);
+        return batch;
+    }
+
+    private static void assertResult(BatchResult result, long accepted, long stale, long future) {
+        assertEquals(accepted, result.getAccepted());
+        assertEquals(stale, result.getStale());
+        assertEquals(future, result.getFuture());
+        assertEquals(0, result.getInvalid());
+    }
+
+    private static void assertStats(Optional<Stats> statsOpt, long count, double min, double max, double sum) {
+        assertTrue(statsOpt.isPresent());
+        Stats stats = statsOpt.get();
+        assertEquals(count, stats.getCount());
+        assertEquals(min, stats.getMin());
+        assertEquals(max, stats.getMax());
+        assertEquals(sum, stats.getSum());
+    }
+}
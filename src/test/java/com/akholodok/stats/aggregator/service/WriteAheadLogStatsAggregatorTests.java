@@ -0,0 +1,137 @@
+package com.akholodok.stats.aggregator.service;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.akholodok.stats.aggregator.model.Stats;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+public class WriteAheadLogStatsAggregatorTests {
+
+    private static final int SECONDS = 60;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TimeSource timeSource;
+    private Instant now;
+
+    @Before
+    public void setUp() {
+        timeSource = mock(TimeSource.class);
+        now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        when(timeSource.now()).thenReturn(now);
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        WriteAheadLogStatsAggregator aggregator = open(16, WriteAheadLogStatsAggregator.FsyncPolicy.PERIODIC);
+        assertTrue(aggregator.add(now.minusSeconds(30), 1.0));
+        assertTrue(aggregator.add(now.minusSeconds(10), 2.0));
+        assertTrue(aggregator.add(now, 3.0));
+        // rejected values are not logged
+        assertFalse(aggregator.add(now.plusSeconds(1), 100.0));
+        aggregator.close();
+
+        // restart 40 seconds later, the oldest value has left the window
+        now = now.plusSeconds(40);
+        when(timeSource.now()).thenReturn(now);
+        aggregator = open(16, WriteAheadLogStatsAggregator.FsyncPolicy.PERIODIC);
+
+        Stats stats = aggregator.getStats().get();
+        assertEquals(2L, stats.getCount());
+        assertEquals(5.0, stats.getSum());
+
+        // values added after restart are replayed along with the old ones
+        assertTrue(aggregator.add(now, 4.0));
+        aggregator.close();
+        aggregator = open(16, WriteAheadLogStatsAggregator.FsyncPolicy.NONE);
+        assertEquals(3L, aggregator.getStats().get().getCount());
+        aggregator.close();
+    }
+
+    @Test
+    public void testRotationAndDeletion() throws Exception {
+        WriteAheadLogStatsAggregator aggregator = open(4, WriteAheadLogStatsAggregator.FsyncPolicy.ALWAYS);
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(aggregator.add(now, i));
+        }
+        assertEquals(3, aggregator.getSegmentsCount());
+        assertEquals(3, segmentFiles());
+
+        // current segment is rotated by age, sealed segments are deleted once they leave the window
+        when(timeSource.now()).thenReturn(now.plusSeconds(SECONDS + 2));
+        aggregator.maintain();
+        assertEquals(2, aggregator.getSegmentsCount());
+        assertEquals(2, segmentFiles());
+        assertFalse(aggregator.getStats().isPresent());
+        aggregator.close();
+    }
+
+    @Test
+    public void testReplayedSegmentSealedAtNewestRecord() throws Exception {
+        // values written an hour ago by mocked clock, file modification time is current wall clock time
+        now = now.minus(Duration.ofHours(1));
+        when(timeSource.now()).thenReturn(now);
+        WriteAheadLogStatsAggregator aggregator = open(4, WriteAheadLogStatsAggregator.FsyncPolicy.ALWAYS);
+        assertTrue(aggregator.add(now.minusSeconds(10), 1.0));
+        assertTrue(aggregator.add(now, 2.0));
+        aggregator.close();
+
+        aggregator = open(4, WriteAheadLogStatsAggregator.FsyncPolicy.ALWAYS);
+        assertEquals(2L, aggregator.getStats().get().getCount());
+        assertEquals(2, aggregator.getSegmentsCount());
+
+        when(timeSource.now()).thenReturn(now.plusSeconds(SECONDS));
+        aggregator.maintain();
+        assertEquals(2, aggregator.getSegmentsCount());
+
+        when(timeSource.now()).thenReturn(now.plusSeconds(SECONDS + 2));
+        aggregator.maintain();
+        assertEquals(1, aggregator.getSegmentsCount());
+        assertEquals(1, segmentFiles());
+        aggregator.close();
+    }
+
+    @Test
+    public void testAlwaysAcrossPages() throws Exception {
+        // records of a segment spanning several pages are written through page mappings
+        int records = 3 * WriteAheadLogStatsAggregator.PAGE_SIZE / WriteAheadLogStatsAggregator.RECORD_SIZE + 1;
+        WriteAheadLogStatsAggregator aggregator = open(records, WriteAheadLogStatsAggregator.FsyncPolicy.ALWAYS);
+        for (int i = 0; i < records; ++i) {
+            assertTrue(aggregator.add(now, 1.0));
+        }
+        aggregator.close();
+
+        aggregator = open(records, WriteAheadLogStatsAggregator.FsyncPolicy.NONE);
+        assertEquals(records, aggregator.getStats().get().getCount());
+        assertEquals(2, aggregator.getSegmentsCount());
+        aggregator.close();
+    }
+
+    private WriteAheadLogStatsAggregator open(int segmentRecords, WriteAheadLogStatsAggregator.FsyncPolicy policy) {
+        return new WriteAheadLogStatsAggregator(
+            new BucketStatsAggregator(SECONDS, timeSource),
+            folder.getRoot().toPath(),
+            segmentRecords,
+            policy,
+            Duration.ofMillis(100),
+            timeSource);
+    }
+
+    private int segmentFiles() {
+        File[] files = folder.getRoot().listFiles();
+        return files == null ? 0 : files.length;
+    }
+}